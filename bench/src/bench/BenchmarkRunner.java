@@ -0,0 +1,158 @@
+package bench;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * BenchmarkRunner runs the db benchmarks across thread counts and saves the scores to a CSV file named after a release,
+ * then compares two such files to catch regressions between releases.
+ * <pre>
+ *   run &lt;label&gt; [regex] [threads...]        writes bench-results/&lt;label&gt;.csv
+ *   compare &lt;baseline.csv&gt; &lt;candidate.csv&gt; [maxRegressionPercent]
+ * </pre>
+ * compare exits with status 1 if any benchmark lost more than the allowed share of its throughput.
+ */
+public class BenchmarkRunner {
+    private static final Path RESULTS_DIR = Paths.get( "bench-results" );
+    private static final int[] DEFAULT_THREADS = { 1, 4, 8 };
+    private static final double DEFAULT_MAX_REGRESSION_PERCENT = 10;
+    private static final String HEADER = "benchmark,params,threads,mode,score,error,unit";
+
+    public static void main( String[] args ) throws IOException, RunnerException {
+        if( args.length >= 2 && args[0].equals( "run" ) ) {
+            String include = args.length >= 3 ? args[2] : "bench\\..*";
+            int[] threads = DEFAULT_THREADS;
+            if( args.length >= 4 ) {
+                threads = new int[args.length - 3];
+                for( int i = 3; i < args.length; i++ ) {
+                    threads[i - 3] = Integer.parseInt( args[i] );
+                }
+            }
+            run( args[1], include, threads );
+        }
+        else if( args.length >= 3 && args[0].equals( "compare" ) ) {
+            double maxRegression = args.length >= 4 ? Double.parseDouble( args[3] ) : DEFAULT_MAX_REGRESSION_PERCENT;
+            boolean regressed = compare( Paths.get( args[1] ), Paths.get( args[2] ), maxRegression );
+            System.exit( regressed ? 1 : 0 );
+        }
+        else {
+            System.err.println( "Usage: BenchmarkRunner run <label> [regex] [threads...]" );
+            System.err.println( "       BenchmarkRunner compare <baseline.csv> <candidate.csv> [maxRegressionPercent]" );
+            System.exit( 2 );
+        }
+    }
+
+    /**
+     * Run the matching benchmarks once per thread count and write all scores to one CSV file.
+     * @param label   Name of the results file, usually the release being measured.
+     * @param include Regex of the benchmarks to run.
+     * @param threads Thread counts to run each benchmark with.
+     */
+    private static void run( String label, String include, int[] threads ) throws IOException, RunnerException {
+        List<String> lines = new ArrayList<>();
+        lines.add( HEADER );
+
+        for( int threadCount : threads ) {
+            Options options = new OptionsBuilder()
+                    .include( include )
+                    .threads( threadCount )
+                    .build();
+
+            for( RunResult result : new Runner( options ).run() ) {
+                lines.add( toCsv( result ) );
+            }
+        }
+
+        Files.createDirectories( RESULTS_DIR );
+        Path file = RESULTS_DIR.resolve( label + ".csv" );
+        Files.write( file, lines, StandardCharsets.UTF_8 );
+        System.out.println( "Results written to " + file.toAbsolutePath() );
+    }
+
+    private static String toCsv( RunResult result ) {
+        StringBuilder params = new StringBuilder();
+        for( String key : result.getParams().getParamsKeys() ) {
+            if( params.length() > 0 ) {
+                params.append( ';' );
+            }
+            params.append( key ).append( '=' ).append( result.getParams().getParam( key ) );
+        }
+
+        return result.getParams().getBenchmark() + ',' +
+                params + ',' +
+                result.getParams().getThreads() + ',' +
+                result.getParams().getMode().shortLabel() + ',' +
+                result.getPrimaryResult().getScore() + ',' +
+                result.getPrimaryResult().getScoreError() + ',' +
+                result.getPrimaryResult().getScoreUnit();
+    }
+
+    /**
+     * Print the change of every benchmark present in both files.  Every benchmark here measures throughput, so a lower
+     * score is a regression.
+     * @return true if any benchmark regressed by more than the allowed percentage.
+     */
+    private static boolean compare( Path baselineFile, Path candidateFile, double maxRegressionPercent ) throws IOException {
+        Map<String, Double> baseline = readScores( baselineFile );
+        Map<String, Double> candidate = readScores( candidateFile );
+        boolean regressed = false;
+
+        try( PrintWriter out = new PrintWriter( System.out ) ) {
+            out.printf( "%-70s %14s %14s %9s%n", "benchmark [params] (threads)", "baseline", "candidate", "change" );
+
+            for( Map.Entry<String, Double> entry : new TreeMap<>( candidate ).entrySet() ) {
+                Double before = baseline.get( entry.getKey() );
+                if( before == null ) {
+                    out.printf( "%-70s %14s %14.2f %9s%n", entry.getKey(), "-", entry.getValue(), "new" );
+                    continue;
+                }
+
+                double change = before == 0 ? 0 : (entry.getValue() - before) * 100 / before;
+                boolean tooSlow = change < -maxRegressionPercent;
+                regressed |= tooSlow;
+                out.printf( "%-70s %14.2f %14.2f %+8.1f%%%s%n", entry.getKey(), before, entry.getValue(), change,
+                            tooSlow ? "  REGRESSION" : "" );
+            }
+
+            for( String key : baseline.keySet() ) {
+                if( !candidate.containsKey( key ) ) {
+                    out.printf( "%-70s %14.2f %14s %9s%n", key, baseline.get( key ), "-", "removed" );
+                }
+            }
+        }
+
+        return regressed;
+    }
+
+    /** @return Scores keyed by "benchmark [params] (threads)". */
+    private static Map<String, Double> readScores( Path file ) throws IOException {
+        Map<String, Double> scores = new LinkedHashMap<>();
+
+        for( String line : Files.readAllLines( file, StandardCharsets.UTF_8 ) ) {
+            if( line.isEmpty() || line.equals( HEADER ) ) {
+                continue;
+            }
+
+            String[] columns = line.split( ",", -1 );
+            String key = columns[0] + " [" + columns[1] + "] (" + columns[2] + ")";
+            scores.put( key, Double.parseDouble( columns[4] ) );
+        }
+
+        return scores;
+    }
+}
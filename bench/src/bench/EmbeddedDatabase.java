@@ -0,0 +1,99 @@
+package bench;
+
+import db.ConnectionPool;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * EmbeddedDatabase stands in for the Oracle server with an in-memory H2 database running in Oracle compatibility mode,
+ * holding an EMPS table seeded with generated rows.  As in production every save bumps REVNUM, so a benchmark saving
+ * the same Employee over and over must carry the new REVNUM over from each result.
+ */
+public class EmbeddedDatabase {
+    private static final String[] STATES = { "VA", "NC", "MD", "WV", "TN", "KY", "PA", "DE" };
+    private static final String[] CITIES = { "Radford", "Blacksburg", "Roanoke", "Christiansburg", "Salem", "Pulaski" };
+
+    private EmbeddedDatabase() {
+    }
+
+    /**
+     * @param name Name of the database, databases with different names are independent.
+     * @return JDBC url of the in-memory database.
+     */
+    public static String url( String name ) {
+        return "jdbc:h2:mem:" + name + ";MODE=Oracle;DB_CLOSE_DELAY=-1";
+    }
+
+    /**
+     * Create, or recreate, the EMPS table and fill it.
+     * @param name Name of the database.
+     * @param rows Number of rows, at most 36^3 since EMPIDs are 3 characters.
+     * @param poolSize Size of the returned pool.
+     * @return A pool connected to the database.
+     * @throws SQLException If the database couldn't be created.
+     */
+    public static ConnectionPool start( String name, int rows, int poolSize ) throws SQLException {
+        try( Connection conn = DriverManager.getConnection( url( name ), "sa", "" ) ) {
+            seed( conn, rows );
+        }
+        return new ConnectionPool( url( name ), "sa", "", poolSize );
+    }
+
+    /**
+     * Drop and recreate EMPS with generated rows.
+     * @param conn Connection to the database.
+     * @param rows Number of rows.
+     * @throws SQLException If any statement fails.
+     */
+    public static void seed( Connection conn, int rows ) throws SQLException {
+        try( Statement statement = conn.createStatement() ) {
+            statement.execute( "DROP TABLE IF EXISTS EMPS" );
+            statement.execute( "CREATE TABLE EMPS (" +
+                                       "EMPID VARCHAR2(3) PRIMARY KEY, " +
+                                       "LNAME VARCHAR2(20), " +
+                                       "FNAME VARCHAR2(20), " +
+                                       "SALARY NUMBER(8), " +
+                                       "STREET VARCHAR2(30), " +
+                                       "CITY VARCHAR2(18), " +
+                                       "STATE VARCHAR2(2), " +
+                                       "ZIP VARCHAR2(5), " +
+                                       "REVNUM NUMBER(8))" );
+        }
+
+        try( PreparedStatement insert = conn.prepareStatement( "INSERT INTO EMPS VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)" ) ) {
+            for( int i = 0; i < rows; i++ ) {
+                insert.setString( 1, empID( i ) );
+                insert.setString( 2, "Last" + i );
+                insert.setString( 3, "First" + i );
+                insert.setInt( 4, 30_000 + (i * 37) % 90_000 );
+                insert.setString( 5, (100 + i) + " Main Street" );
+                insert.setString( 6, CITIES[i % CITIES.length] );
+                insert.setString( 7, STATES[i % STATES.length] );
+                insert.setString( 8, String.format( "%05d", (24141 + i) % 100_000 ) );
+                insert.setInt( 9, 1 );
+                insert.addBatch();
+
+                if( i % 1000 == 999 ) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * @param index Row number.
+     * @return The EMPID generated for that row, 3 base 36 digits.
+     */
+    public static String empID( int index ) {
+        String id = Integer.toString( index, 36 ).toUpperCase();
+        while( id.length() < 3 ) {
+            id = "0" + id;
+        }
+        return id;
+    }
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import db.Employee;
+import db.LengthException;
+import db.ValidationResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Cost of building and comparing Employee objects, no database involved. */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class EmployeeBenchmark {
+    private final ValidationResult validation = new ValidationResult();
+    private Employee employee;
+    private Employee same;
+    private Employee different;
+
+    public EmployeeBenchmark() {
+        try {
+            employee = construct();
+            same = construct();
+            different = new Employee( "001", "Smith", "Jane", 55000, "100 Main Street", "Radford", "VA", "24141", 8 );
+        }
+        catch( LengthException le ) {
+            throw new IllegalStateException( le );
+        }
+    }
+
+    @Benchmark
+    public Employee construct() throws LengthException {
+        return new Employee( "001", "Smith", "Jane", 55000, "100 Main Street", "Radford", "VA", "24141", 7 );
+    }
+
+    @Benchmark
+    public Employee create() {
+        return Employee.create( "001", "Smith", "Jane", 55000, "100 Main Street", "Radford", "VA", "24141", 7, validation );
+    }
+
+    @Benchmark
+    public Object constructInvalid() {
+        try {
+            return new Employee( "0001", "Smith", "Jane", 55000, "100 Main Street", "Radford", "VA", "24141", 7 );
+        }
+        catch( LengthException le ) {
+            return le;
+        }
+    }
+
+    @Benchmark
+    public boolean equalsSame() {
+        return employee.equals( same );
+    }
+
+    @Benchmark
+    public boolean equalsDifferent() {
+        return employee.equals( different );
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return employee.hashCode();
+    }
+}
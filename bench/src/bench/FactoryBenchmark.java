@@ -0,0 +1,242 @@
+package bench;
+
+import db.Employee;
+import db.EmployeeLookup;
+import db.EmployeeTable;
+import db.Factory;
+import db.FactoryMetrics;
+import db.LengthException;
+import db.RetryPolicy;
+import db.SaveResult;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End to end cost of the Factory operations against an embedded database.  Each benchmark thread works on its own rows
+ * except for the contended save, where every thread saves the same row.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class FactoryBenchmark {
+    public static final int BATCH_SIZE = 100;
+    public static final int PAGE_SIZE = 500;
+    private static final String HOT_EMPID = EmbeddedDatabase.empID( 0 );
+
+    @Param( { "2000" } )
+    public int rows;
+
+    @Param( { "16" } )
+    public int poolSize;
+
+    private final AtomicInteger nextThread = new AtomicInteger();
+
+    @Setup( Level.Trial )
+    public void startDatabase() throws SQLException {
+        Factory.setConnectionPool( EmbeddedDatabase.start( "factory", rows, poolSize ) );
+        Factory.getMetrics().reset();
+    }
+
+    /** Print the lock counters, the retries of the contended saves only show up there. */
+    @TearDown( Level.Trial )
+    public void stopDatabase() {
+        FactoryMetrics metrics = Factory.getMetrics();
+        if( metrics.getLockFailures() > 0 ) {
+            System.out.println( "lockFailures=" + metrics.getLockFailures() + " saveRetries=" + metrics.getSaveRetries()
+                                        + " savesGivenUp=" + metrics.getSavesGivenUp() );
+        }
+        Factory.setConnectionPool( null );
+    }
+
+    /** The rows owned by one benchmark thread. */
+    @State( Scope.Thread )
+    public static class ThreadRows {
+        private String empID;
+        private Employee employee;
+        private Employee hot;
+        private List<Employee> batch;
+        private List<String> ids;
+
+        @Setup( Level.Trial )
+        public void pickRows( FactoryBenchmark benchmark ) throws LengthException {
+            // Row 0 is the hot row, each thread gets its own slice after it
+            int first = 1 + benchmark.nextThread.getAndIncrement() * BATCH_SIZE;
+            if( first + BATCH_SIZE > benchmark.rows ) {
+                throw new IllegalStateException( "Not enough rows for this many threads." );
+            }
+
+            empID = EmbeddedDatabase.empID( first );
+            employee = edit( Factory.getEmployee( empID ) );
+            hot = edit( Factory.getEmployee( HOT_EMPID ) );
+
+            batch = new ArrayList<>( BATCH_SIZE );
+            ids = new ArrayList<>( BATCH_SIZE );
+            for( int i = first; i < first + BATCH_SIZE; i++ ) {
+                ids.add( EmbeddedDatabase.empID( i ) );
+                batch.add( edit( Factory.getEmployee( EmbeddedDatabase.empID( i ) ) ) );
+            }
+        }
+
+        /** Change the salary, so every save has a column to write instead of returning NO_CHANGES. */
+        private static Employee edit( Employee employee ) throws LengthException {
+            employee.setSalary( employee.getSalary() + 1 );
+            return employee;
+        }
+    }
+
+    /**
+     * Outcomes of the contended saves, reported next to their throughput.  A contended run should show LOCKED saves,
+     * while errors mean lock conflicts weren't recognized and only the error path was measured.
+     */
+    @State( Scope.Thread )
+    @AuxCounters( AuxCounters.Type.EVENTS )
+    public static class SaveOutcomes {
+        public long saved;
+        public long locked;
+        public long conflicts;
+        public long errors;
+
+        /** Count a save's outcome. */
+        SaveResult count( SaveResult result ) {
+            switch( result.getStatus() ) {
+                case SUCCESS:
+                    saved++;
+                    break;
+                case LOCKED:
+                    locked++;
+                    break;
+                case REVNUM_ERROR:
+                    conflicts++;
+                    break;
+                case ERROR:
+                    errors++;
+                    break;
+                default:
+                    break;
+            }
+            return result;
+        }
+    }
+
+    /** Load through the cache, which costs a REVNUM probe. */
+    @Benchmark
+    public Employee loadCached( ThreadRows rows ) {
+        return Factory.getEmployee( rows.empID );
+    }
+
+    /** Load the full row every time. */
+    @Benchmark
+    public Employee loadUncached( ThreadRows rows ) {
+        Factory.getEmployeeCache().invalidate( rows.empID );
+        return Factory.getEmployee( rows.empID );
+    }
+
+    /** Every thread loads the same row, concurrent loads share one query. */
+    @Benchmark
+    public Employee loadHot() {
+        return Factory.getEmployee( HOT_EMPID );
+    }
+
+    /** Load a thread's whole slice with one IN-list query. */
+    @Benchmark
+    public EmployeeLookup loadMany( ThreadRows rows ) {
+        return Factory.getEmployees( rows.ids );
+    }
+
+    /** Load a thread's whole slice one row at a time, what loadMany replaces. */
+    @Benchmark
+    public int loadManyOneByOne( ThreadRows rows ) {
+        int found = 0;
+        for( String empID : rows.ids ) {
+            Factory.getEmployeeCache().invalidate( empID );
+            if( Factory.getEmployee( empID ) != null ) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /** Save a row nobody else is touching. */
+    @Benchmark
+    public SaveResult saveUncontended( ThreadRows rows ) throws LengthException {
+        return keepRevnum( rows.employee, Factory.saveEmployee( rows.employee ) );
+    }
+
+    /**
+     * Every thread saves the same row, losers of the lock race back off and retry.  A thread whose copy fell behind
+     * another thread's save gets a revnum conflict and picks up the new revnum.
+     */
+    @Benchmark
+    public SaveResult saveContended( ThreadRows rows, SaveOutcomes outcomes ) throws LengthException {
+        return keepRevnum( rows.hot, outcomes.count( Factory.saveEmployee( rows.hot ) ) );
+    }
+
+    /** Every thread saves the same row, most attempts lose the NOWAIT lock race and give up. */
+    @Benchmark
+    public SaveResult saveContendedNoRetry( ThreadRows rows, SaveOutcomes outcomes ) throws LengthException {
+        return keepRevnum( rows.hot, outcomes.count( Factory.saveEmployee( rows.hot, RetryPolicy.NONE ) ) );
+    }
+
+    /** Save a row nobody else is touching with the single-statement optimistic UPDATE. */
+    @Benchmark
+    public SaveResult saveOptimisticUncontended( ThreadRows rows ) throws LengthException {
+        return keepRevnum( rows.employee, Factory.saveEmployeeOptimistic( rows.employee ) );
+    }
+
+    /** Every thread saves the same row optimistically, losers see a revnum conflict and pick up the new revnum. */
+    @Benchmark
+    public SaveResult saveOptimisticContended( ThreadRows rows ) throws LengthException {
+        return keepRevnum( rows.hot, Factory.saveEmployeeOptimistic( rows.hot ) );
+    }
+
+    /** Every save bumps REVNUM, carry it over so the next save matches the row again. */
+    private static SaveResult keepRevnum( Employee employee, SaveResult result ) throws LengthException {
+        if( result.getRevnum() >= 0 ) {
+            employee.setRevnum( result.getRevnum() );
+        }
+        return result;
+    }
+
+    /** Save a thread's whole slice in one transaction. */
+    @Benchmark
+    public List<SaveResult> saveBatch( ThreadRows rows ) throws LengthException {
+        List<SaveResult> results = Factory.saveEmployees( rows.batch );
+        for( int i = 0; i < results.size(); i++ ) {
+            keepRevnum( rows.batch.get( i ), results.get( i ) );
+        }
+        return results;
+    }
+
+    /** Read a page of rows, which maps each one into an Employee with STATE, CITY and ZIP shared. */
+    @Benchmark
+    public List<Employee> loadPage() {
+        return Factory.getEmployeePage( null, PAGE_SIZE );
+    }
+
+    /** Read the whole table into columnar form. */
+    @Benchmark
+    public EmployeeTable loadTable() {
+        return Factory.loadEmployeeTable( 1000 );
+    }
+}
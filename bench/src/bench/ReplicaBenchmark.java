@@ -0,0 +1,76 @@
+package bench;
+
+import db.ConnectionPool;
+import db.Employee;
+import db.Factory;
+import db.ReplicaRouter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uncached reads with and without read replicas.  Each replica is its own embedded database seeded with the same rows
+ * as the primary, so reads spread over more pools; with 0 replicas every read goes to the primary.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ReplicaBenchmark {
+    @Param( { "2000" } )
+    public int rows;
+
+    @Param( { "4" } )
+    public int poolSize;
+
+    @Param( { "0", "2" } )
+    public int replicas;
+
+    @Setup( Level.Trial )
+    public void startDatabases() throws SQLException {
+        Factory.setConnectionPool( EmbeddedDatabase.start( "primary", rows, poolSize ) );
+
+        if( replicas > 0 ) {
+            List<ConnectionPool> pools = new ArrayList<>( replicas );
+            for( int i = 0; i < replicas; i++ ) {
+                pools.add( EmbeddedDatabase.start( "replica" + i, rows, poolSize ) );
+            }
+            Factory.setReplicaRouter( new ReplicaRouter( pools, ReplicaRouter.DEFAULT_FAILURES_TO_EJECT,
+                                                         ReplicaRouter.DEFAULT_CHECKS_TO_READMIT,
+                                                         ReplicaRouter.DEFAULT_CHECK_INTERVAL_MILLIS,
+                                                         ReplicaRouter.DEFAULT_STICKY_MILLIS ) );
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void stopDatabases() {
+        Factory.setReplicaRouter( null );
+        Factory.setConnectionPool( null );
+    }
+
+    /** Load a random row in full, on whichever database the router picks. */
+    @Benchmark
+    public Employee loadUncached() {
+        String empID = EmbeddedDatabase.empID( ThreadLocalRandom.current().nextInt( rows ) );
+        Factory.getEmployeeCache().invalidate( empID );
+        return Factory.getEmployee( empID );
+    }
+}
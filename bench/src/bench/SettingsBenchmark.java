@@ -0,0 +1,68 @@
+package bench;
+
+import db.DbConfig;
+import db.Factory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/** Cost of reading a settings file, against reading the settings Factory has already loaded. */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class SettingsBenchmark {
+    private Path legacyFile;
+    private Path propertiesFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        legacyFile = Files.createTempFile( "db_settings", ".ini" );
+        Files.write( legacyFile, Arrays.asList( "jdbc:h2:mem:settings", "user", "secret" ), StandardCharsets.UTF_8 );
+
+        propertiesFile = Files.createTempFile( "db_settings", ".ini" );
+        Files.write( propertiesFile, Arrays.asList( "url=jdbc:h2:mem:settings", "username=user", "password=secret",
+                                                    "poolSize=16", "borrowTimeoutMillis=5000" ),
+                     StandardCharsets.UTF_8 );
+
+        Factory.setConfig( DbConfig.load( legacyFile ) );
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists( legacyFile );
+        Files.deleteIfExists( propertiesFile );
+    }
+
+    @Benchmark
+    public DbConfig loadLegacyFile() throws IOException {
+        return DbConfig.load( legacyFile );
+    }
+
+    @Benchmark
+    public DbConfig loadPropertiesFile() throws IOException {
+        return DbConfig.load( propertiesFile );
+    }
+
+    @Benchmark
+    public DbConfig cachedConfig() {
+        return Factory.getConfig();
+    }
+}
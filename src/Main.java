@@ -20,11 +20,22 @@
  * IN THE SOFTWARE.
  *****************************************************************************/
 
+import cli.Cli;
 import javafx.application.Application;
 import view.ApplicationController;
 
 public class Main {
+    /**
+     * Run a command line command if the first argument names one, otherwise start the GUI.  JavaFX is only loaded once
+     * the GUI is launched, so commands need no display.
+     * @param args A command and its arguments, see {@link Cli}, or the GUI's arguments.
+     */
     public static void main( String[] args ) {
-        Application.launch( ApplicationController.class, args );
+        if( args.length > 0 && Cli.isCommand( args[0] ) ) {
+            Cli.main( args );
+        }
+        else {
+            Application.launch( ApplicationController.class, args );
+        }
     }
 }
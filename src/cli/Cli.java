@@ -0,0 +1,443 @@
+package cli;
+
+import db.DbConfig;
+import db.Employee;
+import db.EmployeeExporter;
+import db.EmployeeField;
+import db.EmployeeLookup;
+import db.Factory;
+import db.LengthException;
+import db.RecordEncoder;
+import db.SaveResult;
+import db.TransferStats;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cli runs the db package from the command line, for scripts, cron jobs and pipelines.  Nothing here touches JavaFX,
+ * so no display is needed and startup is only the JVM plus the first connection.  Results are written to standard
+ * output as JSON lines, one object per row, and diagnostics to standard error.
+ * <pre>
+ *   get [EMPID...]                   Print employees, EMPIDs are read from stdin one per line if none are given.
+ *   update [EMPID COLUMN=value...]   Change one employee, or one per stdin line given as a JSON object of its EMPID
+ *                                    and the changed columns.  A REVNUM member makes the save fail if the row has
+ *                                    been changed since that revision.
+ *   export [FILE|-] [json|csv]       Write the whole table, to stdout by default.
+ *   import FILE [REJECTS]            Insert the rows of a CSV file, rows failing validation go to REJECTS.
+ * </pre>
+ * The exit status is 0 if everything succeeded, 1 if any row or the command failed and 2 for invalid arguments.
+ */
+public class Cli {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILED = 1;
+    public static final int EXIT_USAGE = 2;
+
+    // EMPIDs read from stdin are looked up and saved this many at a time
+    private static final int BATCH_SIZE = 500;
+    private static final Set<String> COMMANDS = Set.of( "get", "update", "export", "import" );
+    private static final String USAGE = "Usage: get [EMPID...] | update [EMPID COLUMN=value...] "
+            + "| export [FILE|-] [json|csv] | import FILE [REJECTS]";
+
+    private final InputStream in;
+    private final WritableByteChannel out;
+    private final PrintStream err;
+    private final RecordEncoder encoder;
+
+    /**
+     * @param in  Source of EMPIDs and changes when they aren't given as arguments.
+     * @param out Destination of the JSON lines.
+     * @param err Destination of diagnostics.
+     */
+    public Cli( InputStream in, OutputStream out, PrintStream err ) {
+        this.in = in;
+        this.out = Channels.newChannel( out );
+        this.err = err;
+        this.encoder = new RecordEncoder( RecordEncoder.Format.JSON, this.out, RecordEncoder.DEFAULT_BUFFER_SIZE );
+    }
+
+    public static void main( String[] args ) {
+        // Standard output unwrapped, the encoder does its own buffering
+        Cli cli = new Cli( System.in, new FileOutputStream( FileDescriptor.out ), System.err );
+        System.exit( cli.run( args ) );
+    }
+
+    /**
+     * @param name First command line argument.
+     * @return true if it names a command, so the arguments are meant for the command line rather than the GUI.
+     */
+    public static boolean isCommand( String name ) {
+        return COMMANDS.contains( name );
+    }
+
+    /**
+     * Run one command.
+     * @param args Command name followed by its arguments.
+     * @return The exit status.
+     */
+    public int run( String[] args ) {
+        if( args.length == 0 || !isCommand( args[0] ) ) {
+            err.println( USAGE );
+            return EXIT_USAGE;
+        }
+
+        // Settings are read once, a short-lived process has no use for the file watcher
+        try {
+            Factory.setConfig( DbConfig.load() );
+        }
+        catch( IOException e ) {
+            err.println( "Could not load the database settings. " + e.getMessage() );
+            return EXIT_FAILED;
+        }
+
+        List<String> arguments = Arrays.asList( args ).subList( 1, args.length );
+        try {
+            switch( args[0] ) {
+                case "get":
+                    return get( arguments );
+                case "update":
+                    return update( arguments );
+                case "export":
+                    return export( arguments );
+                default:
+                    return importFile( arguments );
+            }
+        }
+        catch( IllegalArgumentException e ) {
+            err.println( e.getMessage() );
+            err.println( USAGE );
+            return EXIT_USAGE;
+        }
+        catch( IOException e ) {
+            err.println( "Could not write the output. " + e );
+            return EXIT_FAILED;
+        }
+    }
+
+    /**
+     * Print the employees with the given EMPIDs, reading them a batch at a time.
+     * @param empIDs EMPIDs from the command line, stdin is read if there are none.
+     * @return The exit status, EXIT_FAILED if any employee was missing.
+     */
+    private int get( List<String> empIDs ) throws IOException {
+        int status = EXIT_OK;
+        Iterator<String> source = empIDs.isEmpty() ? readLines() : empIDs.iterator();
+
+        for( List<String> batch = nextBatch( source ); !batch.isEmpty(); batch = nextBatch( source ) ) {
+            EmployeeLookup lookup = Factory.getEmployees( batch );
+            for( String empID : batch ) {
+                Employee employee = lookup == null ? null : lookup.get( empID );
+                if( employee != null ) {
+                    encoder.write( employee );
+                }
+                else {
+                    writeLine( JsonLine.format( "EMPID", empID, "status", lookup == null ? "ERROR" : "NOT_FOUND" ) );
+                    status = EXIT_FAILED;
+                }
+            }
+        }
+
+        encoder.flush();
+        return status;
+    }
+
+    /**
+     * Apply changes to employees.  Each batch of changes is read with one lookup, applied to the rows as read and saved
+     * in one transaction, so only the columns a change names are written.  One result line is printed per change.
+     * @param arguments An EMPID and COLUMN=value pairs, or nothing to read JSON lines from stdin.
+     * @return The exit status, EXIT_FAILED if any change was not saved.
+     */
+    private int update( List<String> arguments ) throws IOException {
+        Iterator<String> source;
+        if( arguments.isEmpty() ) {
+            source = readLines();
+        }
+        else {
+            Map<String, String> change = new LinkedHashMap<>();
+            change.put( "EMPID", arguments.get( 0 ) );
+            for( String assignment : arguments.subList( 1, arguments.size() ) ) {
+                int equals = assignment.indexOf( '=' );
+                if( equals < 1 ) {
+                    throw new IllegalArgumentException( "Expected COLUMN=value but got " + assignment );
+                }
+                change.put( assignment.substring( 0, equals ), assignment.substring( equals + 1 ) );
+            }
+            source = List.of( JsonLine.format( change ) ).iterator();
+        }
+
+        int status = EXIT_OK;
+        int lineNumber = 1;
+        for( List<String> batch = nextBatch( source ); !batch.isEmpty(); batch = nextBatch( source ) ) {
+            List<SaveResult> results = updateBatch( batch, lineNumber );
+            lineNumber += batch.size();
+
+            for( SaveResult result : results ) {
+                writeLine( JsonLine.format( "EMPID", result.getEmpID(), "status", result.getStatus().name(),
+                                            "REVNUM", result.getRevnum(), "message", result.getMessage() ) );
+                if( result.getStatus() != SaveResult.Status.SUCCESS && result.getStatus() != SaveResult.Status.NO_CHANGES ) {
+                    status = EXIT_FAILED;
+                }
+            }
+        }
+
+        return status;
+    }
+
+    /**
+     * Parse, apply and save one batch of changes.
+     * @param lines     JSON objects, one per change.
+     * @param firstLine Line number of the first object, for error messages.
+     * @return One result per line, in order.
+     */
+    private List<SaveResult> updateBatch( List<String> lines, int firstLine ) {
+        SaveResult[] results = new SaveResult[lines.size()];
+        List<Map<String, String>> changes = new ArrayList<>( lines.size() );
+        List<String> empIDs = new ArrayList<>( lines.size() );
+
+        for( int i = 0; i < lines.size(); i++ ) {
+            Map<String, String> change = null;
+            try {
+                change = normalize( JsonLine.parse( lines.get( i ) ) );
+                if( change.get( "EMPID" ) == null ) {
+                    throw new IllegalArgumentException( "Missing EMPID" );
+                }
+                empIDs.add( change.get( "EMPID" ) );
+            }
+            catch( IllegalArgumentException e ) {
+                results[i] = SaveResult.error( null, "Line " + ( firstLine + i ) + ": " + e.getMessage() );
+                change = null;
+            }
+            changes.add( change );
+        }
+
+        EmployeeLookup lookup = Factory.getEmployees( empIDs );
+        List<Employee> edited = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+
+        for( int i = 0; i < changes.size(); i++ ) {
+            Map<String, String> change = changes.get( i );
+            if( change == null ) {
+                continue;
+            }
+
+            String empID = change.get( "EMPID" );
+            Employee loaded = lookup == null ? null : lookup.get( empID );
+            if( lookup == null ) {
+                results[i] = SaveResult.error( empID, "Could not read the employee." );
+            }
+            else if( loaded == null ) {
+                results[i] = SaveResult.notFound( empID );
+            }
+            else {
+                try {
+                    edited.add( apply( loaded, change ) );
+                    positions.add( i );
+                }
+                catch( LengthException e ) {
+                    results[i] = SaveResult.error( empID, "Invalid length: " + e.getField() );
+                }
+                catch( IllegalArgumentException e ) {
+                    results[i] = SaveResult.error( empID, e.getMessage() );
+                }
+            }
+        }
+
+        if( !edited.isEmpty() ) {
+            List<SaveResult> saved = Factory.saveEmployees( edited );
+            for( int i = 0; i < saved.size(); i++ ) {
+                results[positions.get( i )] = saved.get( i );
+            }
+        }
+
+        return Arrays.asList( results );
+    }
+
+    /**
+     * Set the columns named by a change on a copy of the loaded employee, so only those columns are marked dirty.
+     * @param loaded Employee as read from the database.
+     * @param change Column names and new values, EMPID included.
+     * @return The edited copy.
+     * @throws LengthException          If a value doesn't fit its column.
+     * @throws IllegalArgumentException If a column is unknown or a value is not valid.
+     */
+    private static Employee apply( Employee loaded, Map<String, String> change ) throws LengthException {
+        Employee employee = new Employee( loaded );
+
+        for( Map.Entry<String, String> member : change.entrySet() ) {
+            EmployeeField field;
+            try {
+                field = EmployeeField.valueOf( member.getKey() );
+            }
+            catch( IllegalArgumentException e ) {
+                throw new IllegalArgumentException( "Unknown column " + member.getKey() );
+            }
+
+            String value = member.getValue();
+            if( value == null ) {
+                throw new IllegalArgumentException( field + " can't be null" );
+            }
+
+            switch( field ) {
+                case EMPID: // The key the row was found by
+                    break;
+                case LNAME:
+                    employee.setlName( value );
+                    break;
+                case FNAME:
+                    employee.setfName( value );
+                    break;
+                case SALARY:
+                    employee.setSalary( parseInt( field, value ) );
+                    break;
+                case STREET:
+                    employee.setStreet( value );
+                    break;
+                case CITY:
+                    employee.setCity( value );
+                    break;
+                case STATE:
+                    employee.setState( value );
+                    break;
+                case ZIP:
+                    employee.setZip( value );
+                    break;
+                case REVNUM: // The revision the change was made against, the save fails if the row has moved on
+                    employee.setRevnum( parseInt( field, value ) );
+                    break;
+            }
+        }
+
+        return employee;
+    }
+
+    /**
+     * Write the whole table.
+     * @param arguments Optional file, "-" for stdout, then an optional format.
+     * @return The exit status.
+     */
+    private int export( List<String> arguments ) throws IOException {
+        if( arguments.size() > 2 ) {
+            throw new IllegalArgumentException( "Too many arguments for export" );
+        }
+
+        String file = arguments.isEmpty() ? "-" : arguments.get( 0 );
+        RecordEncoder.Format format = RecordEncoder.Format.JSON;
+        if( arguments.size() == 2 ) {
+            try {
+                format = RecordEncoder.Format.valueOf( arguments.get( 1 ).toUpperCase( Locale.ROOT ) );
+            }
+            catch( IllegalArgumentException e ) {
+                throw new IllegalArgumentException( "Unknown format " + arguments.get( 1 ) );
+            }
+        }
+
+        TransferStats stats;
+        if( file.equals( "-" ) ) {
+            // The rows take up stdout, so the summary goes to stderr
+            stats = Factory.exportEmployees( out, format, EmployeeExporter.DEFAULT_FETCH_SIZE );
+            if( stats != null ) {
+                err.println( formatStats( stats ) );
+            }
+        }
+        else {
+            stats = Factory.exportEmployees( Paths.get( file ), format, EmployeeExporter.DEFAULT_FETCH_SIZE );
+            if( stats != null ) {
+                writeLine( formatStats( stats ) );
+            }
+        }
+
+        return stats == null ? EXIT_FAILED : EXIT_OK;
+    }
+
+    /**
+     * Insert the rows of a CSV file.
+     * @param arguments The file, then optionally the rejects file.
+     * @return The exit status, EXIT_FAILED if the import failed or rejected rows.
+     */
+    private int importFile( List<String> arguments ) throws IOException {
+        if( arguments.isEmpty() || arguments.size() > 2 ) {
+            throw new IllegalArgumentException( "import needs a file and optionally a rejects file" );
+        }
+
+        Path csv = Paths.get( arguments.get( 0 ) );
+        Path rejects = Paths.get( arguments.size() == 2 ? arguments.get( 1 ) : arguments.get( 0 ) + ".rejects" );
+
+        TransferStats stats = Factory.importEmployees( csv, rejects );
+        if( stats == null ) {
+            return EXIT_FAILED;
+        }
+
+        writeLine( formatStats( stats ) );
+        return stats.getRejectedRows() == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    private static String formatStats( TransferStats stats ) {
+        return JsonLine.format( "rows", stats.getRows(), "rejectedRows", stats.getRejectedRows(),
+                                "bytes", stats.getBytes(), "elapsedMillis", stats.getElapsedNanos() / 1_000_000,
+                                "rowsPerSecond", ( long ) stats.getRowsPerSecond() );
+    }
+
+    private static int parseInt( EmployeeField field, String value ) {
+        try {
+            return Integer.parseInt( value );
+        }
+        catch( NumberFormatException e ) {
+            throw new IllegalArgumentException( field + " is not a valid number: " + value );
+        }
+    }
+
+    /** Upper case the member names, so columns can be named in any case like in SQL. */
+    private static Map<String, String> normalize( Map<String, String> change ) {
+        Map<String, String> normalized = new LinkedHashMap<>();
+        for( Map.Entry<String, String> member : change.entrySet() ) {
+            normalized.put( member.getKey().toUpperCase( Locale.ROOT ), member.getValue() );
+        }
+        return normalized;
+    }
+
+    /** @return The non-blank lines of stdin, read as they are needed. */
+    private Iterator<String> readLines() {
+        BufferedReader reader = new BufferedReader( new InputStreamReader( in, StandardCharsets.UTF_8 ) );
+        return reader.lines().map( String::trim ).filter( line -> !line.isEmpty() ).iterator();
+    }
+
+    private static List<String> nextBatch( Iterator<String> source ) {
+        List<String> batch = new ArrayList<>( BATCH_SIZE );
+        while( batch.size() < BATCH_SIZE && source.hasNext() ) {
+            batch.add( source.next() );
+        }
+        return batch;
+    }
+
+    /**
+     * Write a line after any records still buffered in the encoder.
+     * @param json One JSON object.
+     */
+    private void writeLine( String json ) throws IOException {
+        encoder.flush();
+        ByteBuffer bytes = ByteBuffer.wrap( ( json + '\n' ).getBytes( StandardCharsets.UTF_8 ) );
+        while( bytes.hasRemaining() ) {
+            out.write( bytes );
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package cli;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JsonLine parses and writes the flat JSON objects used by the command line, one object per line.  Only what EMPS rows
+ * need is supported: an object of strings, numbers, booleans and nulls, no nesting.  Values are kept as text so the
+ * caller validates them the same way the GUI validates its textfields.
+ */
+public final class JsonLine {
+    private final String text;
+    private int pos;
+
+    private JsonLine( String text ) {
+        this.text = text;
+    }
+
+    /**
+     * Parse one line holding a flat JSON object.
+     * @param line Text of the line.
+     * @return The members in order of appearance, null values as null.
+     * @throws IllegalArgumentException If the line is not a flat JSON object.
+     */
+    public static Map<String, String> parse( String line ) {
+        return new JsonLine( line ).parseObject();
+    }
+
+    /**
+     * Write a flat JSON object.
+     * @param members Alternating names and values.  Numbers and booleans are written bare, everything else as a string.
+     * @return The object, without a line break.
+     */
+    public static String format( Object... members ) {
+        StringBuilder json = new StringBuilder( 64 ).append( '{' );
+        for( int i = 0; i + 1 < members.length; i += 2 ) {
+            if( i > 0 ) {
+                json.append( ',' );
+            }
+            quote( json, String.valueOf( members[i] ) );
+            json.append( ':' );
+
+            Object value = members[i + 1];
+            if( value == null || value instanceof Number || value instanceof Boolean ) {
+                json.append( value );
+            }
+            else {
+                quote( json, value.toString() );
+            }
+        }
+        return json.append( '}' ).toString();
+    }
+
+    /**
+     * Write a flat JSON object.
+     * @param members Names and values, see {@link #format(Object...)}.
+     * @return The object, without a line break.
+     */
+    public static String format( Map<String, ?> members ) {
+        Object[] pairs = new Object[members.size() * 2];
+        int i = 0;
+        for( Map.Entry<String, ?> member : members.entrySet() ) {
+            pairs[i++] = member.getKey();
+            pairs[i++] = member.getValue();
+        }
+        return format( pairs );
+    }
+
+    private static void quote( StringBuilder json, String value ) {
+        json.append( '"' );
+        for( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt( i );
+            if( c == '"' || c == '\\' ) {
+                json.append( '\\' ).append( c );
+            }
+            else if( c < 0x20 ) {
+                json.append( String.format( "\\u%04x", ( int ) c ) );
+            }
+            else {
+                json.append( c );
+            }
+        }
+        json.append( '"' );
+    }
+
+    private Map<String, String> parseObject() {
+        Map<String, String> members = new LinkedHashMap<>();
+
+        expect( '{' );
+        if( peek() == '}' ) {
+            pos++;
+        }
+        else {
+            char separator;
+            do {
+                String name = parseString();
+                expect( ':' );
+                members.put( name, parseValue() );
+                separator = next();
+            }
+            while( separator == ',' );
+
+            if( separator != '}' ) {
+                throw error( "Expected ',' or '}'" );
+            }
+        }
+
+        if( peek() != 0 ) {
+            throw error( "Unexpected text after the object" );
+        }
+        return members;
+    }
+
+    private String parseValue() {
+        char c = peek();
+        if( c == '"' ) {
+            return parseString();
+        }
+        if( c == '{' || c == '[' ) {
+            throw error( "Nested values are not supported" );
+        }
+
+        int start = pos;
+        while( pos < text.length() && ",} \t\r".indexOf( text.charAt( pos ) ) < 0 ) {
+            pos++;
+        }
+        String literal = text.substring( start, pos );
+        if( literal.isEmpty() ) {
+            throw error( "Missing value" );
+        }
+        if( literal.equals( "null" ) ) {
+            return null;
+        }
+        if( !literal.equals( "true" ) && !literal.equals( "false" ) && !literal.matches( "-?[0-9]+(\\.[0-9]+)?([eE][-+]?[0-9]+)?" ) ) {
+            throw error( "Invalid value " + literal );
+        }
+        return literal;
+    }
+
+    private String parseString() {
+        expect( '"' );
+        StringBuilder value = new StringBuilder();
+        while( true ) {
+            if( pos >= text.length() ) {
+                throw error( "Unterminated string" );
+            }
+            char c = text.charAt( pos++ );
+            if( c == '"' ) {
+                return value.toString();
+            }
+            if( c != '\\' ) {
+                value.append( c );
+                continue;
+            }
+            if( pos >= text.length() ) {
+                throw error( "Unterminated string" );
+            }
+
+            char escaped = text.charAt( pos++ );
+            switch( escaped ) {
+                case 'b':
+                    value.append( '\b' );
+                    break;
+                case 'f':
+                    value.append( '\f' );
+                    break;
+                case 'n':
+                    value.append( '\n' );
+                    break;
+                case 'r':
+                    value.append( '\r' );
+                    break;
+                case 't':
+                    value.append( '\t' );
+                    break;
+                case 'u':
+                    if( pos + 4 > text.length() ) {
+                        throw error( "Invalid unicode escape" );
+                    }
+                    try {
+                        value.append( ( char ) Integer.parseInt( text.substring( pos, pos + 4 ), 16 ) );
+                    }
+                    catch( NumberFormatException e ) {
+                        throw error( "Invalid unicode escape" );
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    value.append( escaped );
+                    break;
+            }
+        }
+    }
+
+    private void expect( char expected ) {
+        if( next() != expected ) {
+            throw error( "Expected '" + expected + "'" );
+        }
+    }
+
+    /** @return The next character that isn't whitespace, consuming it, or 0 at the end. */
+    private char next() {
+        char c = peek();
+        if( c != 0 ) {
+            pos++;
+        }
+        return c;
+    }
+
+    /** @return The next character that isn't whitespace, or 0 at the end. */
+    private char peek() {
+        while( pos < text.length() && Character.isWhitespace( text.charAt( pos ) ) ) {
+            pos++;
+        }
+        return pos < text.length() ? text.charAt( pos ) : 0;
+    }
+
+    private IllegalArgumentException error( String message ) {
+        return new IllegalArgumentException( message + " at column " + ( pos + 1 ) );
+    }
+}
@@ -0,0 +1,189 @@
+package db;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * AsyncFactory runs Factory calls on a bounded background executor so that callers such as the JavaFX Application
+ * Thread never block on JDBC.  Cancelling a returned future before its task starts keeps the task from running at all.
+ */
+public class AsyncFactory {
+    private static final int MAX_QUEUED = 1024;
+
+    private static final ThreadPoolExecutor executor = createExecutor( threadsFor( Factory.getConfig() ) );
+
+    /**
+     * Load an employee in the background.
+     * @param empID EMPID of the row to load.
+     * @return Future of the Employee, completed with null if not found.
+     * @see Factory#getEmployee(String)
+     */
+    public static CompletableFuture<Employee> getEmployee( String empID ) {
+        return submit( () -> Factory.getEmployee( empID ) );
+    }
+
+    /**
+     * Load many employees in the background.
+     * @param empIDs EMPIDs of the rows to load.
+     * @return Future of the employees found and the EMPIDs that weren't, completed with null if a query failed.
+     * @see Factory#getEmployees(Collection)
+     */
+    public static CompletableFuture<EmployeeLookup> getEmployees( Collection<String> empIDs ) {
+        return submit( () -> Factory.getEmployees( empIDs ) );
+    }
+
+    /**
+     * Save an employee in the background.
+     * @param employee Employee to update in the database.
+     * @return Future of the outcome of the transaction.
+     * @see Factory#saveEmployee(Employee)
+     */
+    public static CompletableFuture<SaveResult> saveEmployee( Employee employee ) {
+        return submit( () -> Factory.saveEmployee( employee ) );
+    }
+
+    /**
+     * Save an employee in the background with a single optimistic UPDATE.
+     * @param employee Employee to update in the database.
+     * @return Future of the outcome of the transaction.
+     * @see Factory#saveEmployeeOptimistic(Employee)
+     */
+    public static CompletableFuture<SaveResult> saveEmployeeOptimistic( Employee employee ) {
+        return submit( () -> Factory.saveEmployeeOptimistic( employee ) );
+    }
+
+    /**
+     * Save many employees in one background transaction.
+     * @param employees Employees to update in the database.
+     * @return Future of one result per Employee.
+     * @see Factory#saveEmployees(Collection)
+     */
+    public static CompletableFuture<List<SaveResult>> saveEmployees( Collection<Employee> employees ) {
+        return submit( () -> Factory.saveEmployees( employees ) );
+    }
+
+    /**
+     * Save an employee through the write-behind queue, committed with other saves in the next group.
+     * @param employee Employee to update in the database.
+     * @return Future of the outcome, failed with a RejectedExecutionException if the queue stays full.
+     * @see Factory#getWriteBehindQueue()
+     */
+    public static CompletableFuture<SaveResult> saveEmployeeWriteBehind( Employee employee ) {
+        return Factory.getWriteBehindQueue().submit( employee );
+    }
+
+    /**
+     * Run some database work on the executor.
+     * @param work Work to run.
+     * @param <T>  Type of the work's result.
+     * @return Future of the result.  A full queue fails the future with a RejectedExecutionException.
+     */
+    public static <T> CompletableFuture<T> submit( Supplier<T> work ) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        try {
+            FutureTask<Void> task = new FutureTask<>( () -> {
+                if( result.isDone() ) {
+                    return; // Cancelled while queued
+                }
+
+                try {
+                    result.complete( work.get() );
+                }
+                catch( Throwable t ) {
+                    result.completeExceptionally( t );
+                }
+            }, null );
+            executor.execute( task );
+
+            // Drop a cancelled task from the queue, a running JDBC call is left to finish
+            result.whenComplete( ( value, error ) -> {
+                if( result.isCancelled() && task.cancel( false ) ) {
+                    executor.remove( task );
+                }
+            } );
+        }
+        catch( RejectedExecutionException e ) {
+            result.completeExceptionally( e );
+        }
+
+        return result;
+    }
+
+    /** Stop accepting work and let queued work finish in the background. */
+    public static void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Follow a change of the connection pool's size, so the executor keeps running as many calls at once as the pool
+     * has connections.
+     * @param config Settings just applied.
+     */
+    static void onConfigChanged( DbConfig config ) {
+        int threads = threadsFor( config );
+        synchronized( executor ) {
+            // The core size may never exceed the maximum, so the order depends on the direction
+            if( threads > executor.getMaximumPoolSize() ) {
+                executor.setMaximumPoolSize( threads );
+                executor.setCorePoolSize( threads );
+            }
+            else {
+                executor.setCorePoolSize( threads );
+                executor.setMaximumPoolSize( threads );
+            }
+        }
+    }
+
+    /** @return Most calls run at once. */
+    static int getMaxThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /** No point running more JDBC calls at once than the pool has connections. */
+    private static int threadsFor( DbConfig config ) {
+        return Math.max( 1, config == null ? ConnectionPool.DEFAULT_MAX_SIZE : config.getPoolSize() );
+    }
+
+    private static ThreadPoolExecutor createExecutor( int threads ) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor( threads, threads, 30, TimeUnit.SECONDS,
+                                                          new ArrayBlockingQueue<>( MAX_QUEUED ), createThreadFactory() );
+        pool.allowCoreThreadTimeOut( true );
+        return pool;
+    }
+
+    /**
+     * Use virtual threads when the runtime has them (Java 21+), plain daemon threads otherwise.
+     * @return Factory for the executor's threads.
+     */
+    private static ThreadFactory createThreadFactory() {
+        try {
+            Class<?> builderType = Class.forName( "java.lang.Thread$Builder" );
+            Method name = builderType.getMethod( "name", String.class, long.class );
+            Method factory = builderType.getMethod( "factory" );
+
+            Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+            builder = name.invoke( builder, "db-async-", 0L );
+            return ( ThreadFactory ) factory.invoke( builder );
+        }
+        catch( ReflectiveOperationException | RuntimeException e ) {
+            ThreadFactory defaults = Executors.defaultThreadFactory();
+            return runnable -> {
+                Thread thread = defaults.newThread( runnable );
+                thread.setName( "db-async-" + thread.getName() );
+                thread.setDaemon( true );
+                return thread;
+            };
+        }
+    }
+}
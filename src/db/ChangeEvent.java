@@ -0,0 +1,67 @@
+package db;
+
+/** ChangeEvent reports that a row of EMPS was inserted, updated or deleted by some session. */
+public class ChangeEvent {
+    /** What happened to the row. */
+    public enum Type {
+        INSERT, UPDATE, DELETE;
+
+        /**
+         * @param code Operation code stored in EMPS_CHANGES.
+         * @return The matching type, UPDATE for anything unknown.
+         */
+        public static Type of( String code ) {
+            if( "I".equals( code ) ) {
+                return INSERT;
+            }
+            if( "D".equals( code ) ) {
+                return DELETE;
+            }
+            return UPDATE;
+        }
+    }
+
+    private final long seq;
+    private final String empID;
+    private final int revnum;
+    private final Type type;
+
+    /**
+     * @param seq    Position of the change in the change log.
+     * @param empID  EMPID of the changed row.
+     * @param revnum REVNUM the change left the row with, -1 for a delete.
+     * @param type   What happened to the row.
+     */
+    public ChangeEvent( long seq, String empID, int revnum, Type type ) {
+        this.seq = seq;
+        this.empID = empID;
+        this.revnum = revnum;
+        this.type = type;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getEmpID() {
+        return empID;
+    }
+
+    public int getRevnum() {
+        return revnum;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return "db.ChangeEvent{" +
+                "seq=" + seq +
+                ", empID='" + empID + '\'' +
+                ", revnum=" + revnum +
+                ", type=" + type +
+                '}';
+    }
+}
@@ -0,0 +1,257 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * ChangeFeed publishes the changes other sessions make to EMPS by reading the EMPS_CHANGES log (see emps_changes.sql)
+ * past the highest sequence number it has seen.  Each poll reads up to a batch of changes in one query.  While changes
+ * keep coming it polls at the minimum interval, a full batch is followed straight away by the next one, and every
+ * empty poll doubles the interval up to the maximum, so an idle table costs one indexed query every few seconds.
+ * <p>
+ * A transaction can take a sequence number and commit after higher numbers were already read.  Numbers skipped over
+ * are remembered for a while and looked up again, so such late changes are still delivered, just out of order.
+ * Subscribers should treat an event as "this row changed" and read the row for its current state.
+ * <p>
+ * The feed starts at the end of the log, older changes are not replayed.  Subscribers are called on the feed's own
+ * thread with each batch of events.
+ */
+public class ChangeFeed {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 250;
+    public static final long DEFAULT_MAX_INTERVAL_MILLIS = 5_000;
+
+    // Skipped sequence numbers are looked up a few at a time and forgotten once no late commit can be expected
+    static final int GAP_LOOKUP_SIZE = 20;
+    private static final int MAX_GAPS = 1_000;
+    private static final long GAP_TIMEOUT_MILLIS = 30_000;
+
+    private final int batchSize;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final List<Consumer<List<ChangeEvent>>> subscribers = new CopyOnWriteArrayList<>();
+
+    // Only touched while holding pollLock, so a poll left over from before a restart can't overlap the new ones
+    private final Object pollLock = new Object();
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+    private long highWaterMark = -1;
+
+    private volatile long intervalMillis;
+    private volatile long pollCount;
+    private volatile long eventCount;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param batchSize         Maximum changes read per query.
+     * @param minIntervalMillis Delay between polls while changes are arriving.
+     * @param maxIntervalMillis Longest delay between polls of an idle table.
+     */
+    public ChangeFeed( int batchSize, long minIntervalMillis, long maxIntervalMillis ) {
+        if( batchSize < 1 || minIntervalMillis < 1 || maxIntervalMillis < minIntervalMillis ) {
+            throw new IllegalArgumentException( "Invalid feed settings." );
+        }
+
+        this.batchSize = batchSize;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.intervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * Receive every batch of changes from now on.
+     * @param subscriber Called on the feed's thread, must not block for long.
+     */
+    public void subscribe( Consumer<List<ChangeEvent>> subscriber ) {
+        subscribers.add( subscriber );
+    }
+
+    public void unsubscribe( Consumer<List<ChangeEvent>> subscriber ) {
+        subscribers.remove( subscriber );
+    }
+
+    /** Start polling in the background.  Does nothing if already started. */
+    public synchronized void start() {
+        if( scheduler != null ) {
+            return;
+        }
+
+        ScheduledThreadPoolExecutor owner = new ScheduledThreadPoolExecutor( 1, runnable -> {
+            Thread thread = new Thread( runnable, "db-change-feed" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        owner.setExecuteExistingDelayedTasksAfterShutdownPolicy( false );
+        scheduler = owner;
+        owner.execute( () -> poll( owner ) );
+    }
+
+    /**
+     * Stop polling.  A poll already running finishes without being interrupted, so its query isn't cut off halfway.
+     * The feed can be started again and carries on from where it stopped.
+     */
+    public synchronized void stop() {
+        if( scheduler != null ) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    /**
+     * Poll once and schedule the next poll on the same scheduler.  Each start() makes a new scheduler, so a poll whose
+     * scheduler was stopped ends its chain instead of running alongside the chain of the next start().
+     * @param owner Scheduler this poll runs on.
+     */
+    private void poll( ScheduledExecutorService owner ) {
+        synchronized( pollLock ) {
+            if( !isCurrent( owner ) ) {
+                return;
+            }
+
+            try {
+                pollCount++;
+                intervalMillis = pollOnce();
+            }
+            catch( RuntimeException e ) {
+                System.err.println( "Change feed poll failed." + e );
+                intervalMillis = maxIntervalMillis;
+            }
+        }
+
+        synchronized( this ) {
+            if( scheduler == owner ) {
+                owner.schedule( () -> poll( owner ), intervalMillis, TimeUnit.MILLISECONDS );
+            }
+        }
+    }
+
+    private synchronized boolean isCurrent( ScheduledExecutorService owner ) {
+        return scheduler == owner;
+    }
+
+    /** @return Milliseconds until the next poll. */
+    private long pollOnce() {
+        if( highWaterMark < 0 ) {
+            long last = Factory.getLastChangeSeq();
+            if( last < 0 ) {
+                return maxIntervalMillis; // No log table or no database yet
+            }
+            highWaterMark = last;
+            return minIntervalMillis;
+        }
+
+        List<ChangeEvent> fresh = Factory.getChanges( highWaterMark, batchSize );
+        if( fresh == null ) {
+            return maxIntervalMillis;
+        }
+
+        long now = System.currentTimeMillis();
+        List<ChangeEvent> events = new ArrayList<>( fresh );
+        for( ChangeEvent event : fresh ) {
+            for( long missing = highWaterMark + 1; missing < event.getSeq() && gaps.size() < MAX_GAPS; missing++ ) {
+                gaps.put( missing, now );
+            }
+            highWaterMark = Math.max( highWaterMark, event.getSeq() );
+        }
+        events.addAll( lookUpGaps( now ) );
+
+        if( !events.isEmpty() ) {
+            events.sort( Comparator.comparingLong( ChangeEvent::getSeq ) );
+            publish( Collections.unmodifiableList( events ) );
+        }
+
+        if( fresh.size() == batchSize ) {
+            return 0;
+        }
+        if( !fresh.isEmpty() ) {
+            return minIntervalMillis;
+        }
+        return Math.min( maxIntervalMillis, Math.max( minIntervalMillis, intervalMillis * 2 ) );
+    }
+
+    /**
+     * Forget expired gaps and look up the oldest of the rest.
+     * @return Changes that committed late into a gap.
+     */
+    private List<ChangeEvent> lookUpGaps( long now ) {
+        Iterator<Map.Entry<Long, Long>> iterator = gaps.entrySet().iterator();
+        while( iterator.hasNext() ) {
+            if( now - iterator.next().getValue() > GAP_TIMEOUT_MILLIS ) {
+                iterator.remove();
+            }
+        }
+        if( gaps.isEmpty() ) {
+            return Collections.emptyList();
+        }
+
+        List<Long> seqs = new ArrayList<>( GAP_LOOKUP_SIZE );
+        for( long seq : gaps.keySet() ) {
+            if( seqs.size() == GAP_LOOKUP_SIZE ) {
+                break;
+            }
+            seqs.add( seq );
+        }
+
+        List<ChangeEvent> late = Factory.getChangesIn( seqs );
+        if( late == null ) {
+            return Collections.emptyList();
+        }
+        for( ChangeEvent event : late ) {
+            gaps.remove( event.getSeq() );
+        }
+        return late;
+    }
+
+    private void publish( List<ChangeEvent> events ) {
+        eventCount += events.size();
+        for( Consumer<List<ChangeEvent>> subscriber : subscribers ) {
+            try {
+                subscriber.accept( events );
+            }
+            catch( RuntimeException e ) {
+                System.err.println( "Change feed subscriber failed." + e );
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //--------------------------------- Metrics -------------------------------
+    //-------------------------------------------------------------------------
+    public long getPollCount() {
+        return pollCount;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /** @return Highest sequence number read so far, -1 until the feed has found the end of the log. */
+    long getHighWaterMark() {
+        synchronized( pollLock ) {
+            return highWaterMark;
+        }
+    }
+
+    /** @return The delay before the next poll, which grows while the table is idle. */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeFeed{polls=" + pollCount + ", events=" + eventCount + ", interval=" + intervalMillis + "ms}";
+    }
+}
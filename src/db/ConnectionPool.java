@@ -0,0 +1,364 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConnectionPool keeps a bounded set of open connections to a single database so that callers don't pay the network
+ * and authentication handshake on every query.  Idle connections are validated before being handed out and evicted once
+ * they sit unused for too long.
+ * <p>
+ * Leak detection is off by default since it records the stack of every borrow.  With a leak threshold set, connections
+ * held past it are reported along with the stack of the code that borrowed them.
+ */
+public class ConnectionPool {
+    public static final int DEFAULT_MAX_SIZE = 8;
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30_000;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 600_000;
+    public static final long DEFAULT_LEAK_THRESHOLD_MILLIS = 0;
+
+    // Connections used this recently are assumed to still be alive and are not validated again
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    private static final long HOUSEKEEPING_PERIOD_MILLIS = 5_000;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    // Metrics
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder validationFailureCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+
+    /**
+     * Create a pool using the default timeouts.
+     * @param url      JDBC url of the database.
+     * @param username User to connect as.
+     * @param password Password of the user.
+     * @param maxSize  Maximum number of open connections.
+     */
+    public ConnectionPool( String url, String username, String password, int maxSize ) {
+        this( url, username, password, maxSize, DEFAULT_BORROW_TIMEOUT_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS,
+              DEFAULT_LEAK_THRESHOLD_MILLIS );
+    }
+
+    /**
+     * Create a pool.
+     * @param url                 JDBC url of the database.
+     * @param username            User to connect as.
+     * @param password            Password of the user.
+     * @param maxSize             Maximum number of open connections.
+     * @param borrowTimeoutMillis How long borrow() waits for a free connection before failing.
+     * @param idleTimeoutMillis   How long a connection may sit unused before it is closed, 0 to keep forever.
+     * @param leakThresholdMillis How long a connection may be borrowed before it is reported, 0 to disable.
+     */
+    public ConnectionPool( String url, String username, String password, int maxSize, long borrowTimeoutMillis,
+                           long idleTimeoutMillis, long leakThresholdMillis ) {
+        if( maxSize < 1 ) {
+            throw new IllegalArgumentException( "Pool size must be at least 1." );
+        }
+
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.permits = new Semaphore( maxSize, true );
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "db-pool-housekeeper" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        housekeeper.scheduleWithFixedDelay( this::housekeep, HOUSEKEEPING_PERIOD_MILLIS, HOUSEKEEPING_PERIOD_MILLIS,
+                                            TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Borrow a connection from the pool, opening a new one if none are idle and the pool isn't full.
+     * @return A validated connection.  Close it to give it back to the pool.
+     * @throws SQLException If no connection became available within the borrow timeout or a new one couldn't be opened.
+     */
+    public PooledConnection borrow() throws SQLException {
+        if( closed ) {
+            throw new SQLException( "Connection pool is closed." );
+        }
+
+        long start = System.nanoTime();
+        try {
+            if( !permits.tryAcquire( borrowTimeoutMillis, TimeUnit.MILLISECONDS ) ) {
+                timeoutCount.increment();
+                throw new SQLException( "Timed out waiting " + borrowTimeoutMillis + "ms for a connection." );
+            }
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new SQLException( "Interrupted while waiting for a connection.", e );
+        }
+        recordWait( System.nanoTime() - start );
+
+        return checkOut();
+    }
+
+    /**
+     * Borrow a connection only if one is free right now, for callers that have somewhere else to go when the pool is
+     * busy.
+     * @return A validated connection, or null if every connection is on loan.
+     * @throws SQLException If the pool is closed or a new connection couldn't be opened.
+     */
+    public PooledConnection tryBorrow() throws SQLException {
+        if( closed ) {
+            throw new SQLException( "Connection pool is closed." );
+        }
+        if( !permits.tryAcquire() ) {
+            return null;
+        }
+        recordWait( 0 );
+
+        return checkOut();
+    }
+
+    /** Hand out an idle or new connection, the caller holds a permit for it. */
+    private PooledConnection checkOut() throws SQLException {
+        PooledConnection conn;
+        try {
+            conn = takeIdle();
+            if( conn == null ) {
+                conn = new PooledConnection( this, DriverManager.getConnection( url, username, password ) );
+                createdCount.increment();
+            }
+        }
+        catch( SQLException | RuntimeException e ) {
+            permits.release();
+            throw e;
+        }
+
+        conn.markBorrowed( leakThresholdMillis > 0 ? new Exception( "Connection borrowed here" ) : null );
+        borrowed.add( conn );
+        borrowCount.increment();
+
+        return conn;
+    }
+
+    /**
+     * Hand a borrowed connection back.  Any open transaction is rolled back so the next borrower starts clean.
+     * @param conn Connection being returned.
+     */
+    void release( PooledConnection conn ) {
+        if( !borrowed.remove( conn ) ) {
+            return; // Already returned
+        }
+
+        boolean reusable = !closed;
+        try {
+            Connection physical = conn.getConnection();
+            if( physical.isClosed() ) {
+                reusable = false;
+            }
+            else if( !physical.getAutoCommit() ) {
+                physical.rollback();
+                physical.setAutoCommit( true );
+            }
+        }
+        catch( SQLException e ) {
+            reusable = false;
+        }
+
+        if( reusable ) {
+            conn.markReturned();
+            idle.offerFirst( conn );
+
+            // close() may have drained the idle set between the check above and the offer
+            if( closed && idle.remove( conn ) ) {
+                conn.closePhysical();
+            }
+        }
+        else {
+            conn.closePhysical();
+        }
+
+        permits.release();
+    }
+
+    /** Close every idle connection and refuse further borrows.  Borrowed connections are closed as they come back. */
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+
+        PooledConnection conn;
+        while( (conn = idle.pollFirst()) != null ) {
+            conn.closePhysical();
+        }
+    }
+
+    /**
+     * Pop the most recently used idle connection, discarding any that fail validation.
+     * @return A live connection or null if none are idle.
+     */
+    private PooledConnection takeIdle() {
+        PooledConnection conn;
+        while( (conn = idle.pollFirst()) != null ) {
+            if( isAlive( conn ) ) {
+                return conn;
+            }
+
+            validationFailureCount.increment();
+            conn.closePhysical();
+        }
+
+        return null;
+    }
+
+    private boolean isAlive( PooledConnection conn ) {
+        if( System.currentTimeMillis() - conn.getLastUsedAt() < VALIDATION_BYPASS_MILLIS ) {
+            return true;
+        }
+
+        try {
+            return conn.getConnection().isValid( VALIDATION_TIMEOUT_SECONDS );
+        }
+        catch( SQLException e ) {
+            return false;
+        }
+    }
+
+    private void recordWait( long nanos ) {
+        totalWaitNanos.add( nanos );
+
+        long max;
+        while( nanos > (max = maxWaitNanos.get()) ) {
+            if( maxWaitNanos.compareAndSet( max, nanos ) ) {
+                break;
+            }
+        }
+    }
+
+    /** Periodic task that evicts stale idle connections and reports leaked ones. */
+    void housekeep() {
+        long now = System.currentTimeMillis();
+
+        if( idleTimeoutMillis > 0 ) {
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while( it.hasNext() ) {
+                PooledConnection conn = it.next();
+                if( now - conn.getLastUsedAt() > idleTimeoutMillis && idle.remove( conn ) ) {
+                    conn.closePhysical();
+                    evictedCount.increment();
+                }
+            }
+        }
+
+        if( leakThresholdMillis > 0 ) {
+            for( PooledConnection conn : borrowed ) {
+                if( !conn.isLeakReported() && now - conn.getBorrowedAt() > leakThresholdMillis ) {
+                    conn.setLeakReported( true );
+                    leakCount.increment();
+
+                    System.err.println( "Possible connection leak, connection held for over " + leakThresholdMillis + "ms." );
+                    Throwable trace = conn.getBorrowTrace();
+                    if( trace != null ) {
+                        trace.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //--------------------------------- Metrics -------------------------------
+    //-------------------------------------------------------------------------
+    /** @return JDBC url of the database, for logging. */
+    public String getUrl() {
+        return url;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailureCount.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public long getLeakCount() {
+        return leakCount.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = borrowCount.sum();
+        return count == 0 ? 0 : totalWaitNanos.sum() / (count * 1_000_000.0);
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "db.ConnectionPool{" +
+                "active=" + getActiveCount() +
+                ", idle=" + getIdleCount() +
+                ", max=" + maxSize +
+                ", borrows=" + getBorrowCount() +
+                ", created=" + getCreatedCount() +
+                ", evicted=" + getEvictedCount() +
+                ", timeouts=" + getTimeoutCount() +
+                ", leaks=" + getLeakCount() +
+                ", avgWaitMs=" + getAverageWaitMillis() +
+                ", maxWaitMs=" + getMaxWaitMillis() +
+                '}';
+    }
+}
@@ -0,0 +1,344 @@
+package db;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * DbConfig holds the database settings.  It is immutable, so a reloaded configuration replaces the old one as a whole
+ * and readers never see a mix of both.
+ * <p>
+ * Settings are read from the first of these that exists:
+ * <ol>
+ *   <li>The file named by the db.settings system property or the DB_SETTINGS environment variable.</li>
+ *   <li>The DB_URL, DB_USERNAME and DB_PASSWORD environment variables.</li>
+ *   <li>db_settings.ini on the classpath next to this class.</li>
+ * </ol>
+ * A settings file either holds the URL, username and password on its first three lines, or key=value pairs:
+ * url, username, password, poolSize, borrowTimeoutMillis, idleTimeoutMillis and leakThresholdMillis.  An optional
+ * replicas key lists the comma separated URLs of read replicas, reached with the same credentials and pool settings.
+ */
+public class DbConfig {
+    public static final String SETTINGS_PROPERTY = "db.settings";
+    public static final String SETTINGS_ENV = "DB_SETTINGS";
+    public static final String RESOURCE_NAME = "db_settings.ini";
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int poolSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final List<String> replicaUrls;
+    private final Path source;
+
+    public DbConfig( String url, String username, String password, int poolSize, long borrowTimeoutMillis,
+                     long idleTimeoutMillis, long leakThresholdMillis, Path source ) {
+        this( url, username, password, poolSize, borrowTimeoutMillis, idleTimeoutMillis, leakThresholdMillis,
+              Collections.emptyList(), source );
+    }
+
+    public DbConfig( String url, String username, String password, int poolSize, long borrowTimeoutMillis,
+                     long idleTimeoutMillis, long leakThresholdMillis, List<String> replicaUrls, Path source ) {
+        if( url == null || url.isEmpty() ) {
+            throw new IllegalArgumentException( "A database URL is required." );
+        }
+        if( poolSize < 1 ) {
+            throw new IllegalArgumentException( "poolSize must be at least 1: " + poolSize );
+        }
+
+        this.url = url;
+        this.username = username == null ? "" : username;
+        this.password = password == null ? "" : password;
+        this.poolSize = poolSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.replicaUrls = Collections.unmodifiableList( new ArrayList<>( replicaUrls ) );
+        this.source = source;
+    }
+
+    /**
+     * Find and read the settings.
+     * @return The configuration.
+     * @throws IOException If no settings were found or they could not be read or parsed.
+     */
+    public static DbConfig load() throws IOException {
+        String file = System.getProperty( SETTINGS_PROPERTY, System.getenv( SETTINGS_ENV ) );
+        if( file != null && !file.isEmpty() ) {
+            return load( Paths.get( file ) );
+        }
+
+        Map<String, String> env = System.getenv();
+        if( env.containsKey( "DB_URL" ) ) {
+            return fromEnvironment( env );
+        }
+
+        URL resource = DbConfig.class.getResource( RESOURCE_NAME );
+        if( resource == null ) {
+            throw new IOException( "No database settings found, set " + SETTINGS_ENV + " or DB_URL or add "
+                                           + RESOURCE_NAME + " to the classpath." );
+        }
+
+        // An unpacked resource can be watched like any other file, one inside a jar can only be read
+        if( resource.getProtocol().equals( "file" ) ) {
+            try {
+                return load( Paths.get( resource.toURI() ) );
+            }
+            catch( URISyntaxException e ) {
+                // Fall back to reading it as a stream
+            }
+        }
+        try( InputStream in = DbConfig.class.getResourceAsStream( RESOURCE_NAME ) ) {
+            if( in == null ) {
+                throw new IOException( "Could not open " + resource );
+            }
+            return parse( new InputStreamReader( in, StandardCharsets.UTF_8 ), null );
+        }
+    }
+
+    /**
+     * Read the settings from a file.
+     * @param file Settings file in either format.
+     * @return The configuration, remembering the file so it can be watched.
+     * @throws IOException If the file could not be read or parsed.
+     */
+    public static DbConfig load( Path file ) throws IOException {
+        try( Reader reader = Files.newBufferedReader( file, StandardCharsets.UTF_8 ) ) {
+            return parse( reader, file.toAbsolutePath() );
+        }
+    }
+
+    /**
+     * Read the settings from the DB_ environment variables.  Only DB_URL is required.
+     * @param env Environment variables.
+     * @return The configuration.
+     * @throws IOException If a numeric variable is malformed.
+     */
+    public static DbConfig fromEnvironment( Map<String, String> env ) throws IOException {
+        Properties properties = new Properties();
+        copy( env, "DB_URL", properties, "url" );
+        copy( env, "DB_USERNAME", properties, "username" );
+        copy( env, "DB_PASSWORD", properties, "password" );
+        copy( env, "DB_POOL_SIZE", properties, "poolSize" );
+        copy( env, "DB_BORROW_TIMEOUT_MILLIS", properties, "borrowTimeoutMillis" );
+        copy( env, "DB_IDLE_TIMEOUT_MILLIS", properties, "idleTimeoutMillis" );
+        copy( env, "DB_LEAK_THRESHOLD_MILLIS", properties, "leakThresholdMillis" );
+        copy( env, "DB_REPLICA_URLS", properties, "replicas" );
+        return fromProperties( properties, null );
+    }
+
+    /**
+     * Parse settings in either format.
+     * @param reader Settings text.
+     * @param source File the text came from, or null.
+     * @return The configuration.
+     * @throws IOException If the text could not be read or a setting is missing or malformed.
+     */
+    public static DbConfig parse( Reader reader, Path source ) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader buffered = new BufferedReader( reader );
+        String line;
+        while( (line = buffered.readLine()) != null ) {
+            lines.add( line.trim() );
+        }
+
+        // The original format is just the URL, username and password, the URL always starts with jdbc:
+        if( !lines.isEmpty() && lines.get( 0 ).startsWith( "jdbc:" ) ) {
+            return new DbConfig( lines.get( 0 ),
+                                 lines.size() > 1 ? lines.get( 1 ) : "",
+                                 lines.size() > 2 ? lines.get( 2 ) : "",
+                                 ConnectionPool.DEFAULT_MAX_SIZE,
+                                 ConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS,
+                                 ConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS,
+                                 ConnectionPool.DEFAULT_LEAK_THRESHOLD_MILLIS,
+                                 source );
+        }
+
+        Properties properties = new Properties();
+        properties.load( new StringReader( String.join( "\n", lines ) ) );
+        return fromProperties( properties, source );
+    }
+
+    private static DbConfig fromProperties( Properties properties, Path source ) throws IOException {
+        try {
+            return new DbConfig( properties.getProperty( "url" ),
+                                 properties.getProperty( "username" ),
+                                 properties.getProperty( "password" ),
+                                 ( int ) number( properties, "poolSize", ConnectionPool.DEFAULT_MAX_SIZE ),
+                                 number( properties, "borrowTimeoutMillis", ConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS ),
+                                 number( properties, "idleTimeoutMillis", ConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS ),
+                                 number( properties, "leakThresholdMillis", ConnectionPool.DEFAULT_LEAK_THRESHOLD_MILLIS ),
+                                 list( properties, "replicas" ),
+                                 source );
+        }
+        catch( IllegalArgumentException e ) {
+            throw new IOException( "Invalid database settings: " + e.getMessage(), e );
+        }
+    }
+
+    private static long number( Properties properties, String key, long defaultValue ) {
+        String value = properties.getProperty( key );
+        if( value == null || value.trim().isEmpty() ) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong( value.trim() );
+        }
+        catch( NumberFormatException e ) {
+            throw new IllegalArgumentException( key + " is not a number: " + value );
+        }
+    }
+
+    private static List<String> list( Properties properties, String key ) {
+        List<String> values = new ArrayList<>();
+        for( String value : properties.getProperty( key, "" ).split( "," ) ) {
+            if( !value.trim().isEmpty() ) {
+                values.add( value.trim() );
+            }
+        }
+        return values;
+    }
+
+    private static void copy( Map<String, String> env, String variable, Properties properties, String key ) {
+        String value = env.get( variable );
+        if( value != null ) {
+            properties.setProperty( key, value );
+        }
+    }
+
+    /**
+     * @return A pool sized and timed by these settings.
+     */
+    public ConnectionPool createPool() {
+        return new ConnectionPool( url, username, password, poolSize, borrowTimeoutMillis, idleTimeoutMillis,
+                                   leakThresholdMillis );
+    }
+
+    /**
+     * @return A router over one pool per replica URL, sized and timed like the primary pool, or null if there are no
+     *         replicas.
+     */
+    public ReplicaRouter createReplicaRouter() {
+        if( replicaUrls.isEmpty() ) {
+            return null;
+        }
+
+        List<ConnectionPool> pools = new ArrayList<>( replicaUrls.size() );
+        for( String replicaUrl : replicaUrls ) {
+            pools.add( new ConnectionPool( replicaUrl, username, password, poolSize, borrowTimeoutMillis,
+                                           idleTimeoutMillis, leakThresholdMillis ) );
+        }
+        return new ReplicaRouter( pools, ReplicaRouter.DEFAULT_FAILURES_TO_EJECT, ReplicaRouter.DEFAULT_CHECKS_TO_READMIT,
+                                  ReplicaRouter.DEFAULT_CHECK_INTERVAL_MILLIS, ReplicaRouter.DEFAULT_STICKY_MILLIS );
+    }
+
+    /**
+     * @param other Settings to compare with, may be null.
+     * @return true if the replica pools built from the other settings would differ from those built from these.
+     */
+    public boolean needsNewReplicas( DbConfig other ) {
+        return needsNewPool( other ) || !replicaUrls.equals( other.replicaUrls );
+    }
+
+    /**
+     * @param other Settings to compare with, may be null.
+     * @return true if a pool built from the other settings would differ from one built from these.
+     */
+    public boolean needsNewPool( DbConfig other ) {
+        return other == null
+                || !url.equals( other.url )
+                || !username.equals( other.username )
+                || !password.equals( other.password )
+                || poolSize != other.poolSize
+                || borrowTimeoutMillis != other.borrowTimeoutMillis
+                || idleTimeoutMillis != other.idleTimeoutMillis
+                || leakThresholdMillis != other.leakThresholdMillis;
+    }
+
+    //-------------------------------------------------------------------------
+    //------------------------------ Accessors --------------------------------
+    //-------------------------------------------------------------------------
+    public String getUrl() {
+        return url;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public long getBorrowTimeoutMillis() {
+        return borrowTimeoutMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long getLeakThresholdMillis() {
+        return leakThresholdMillis;
+    }
+
+    /** @return URLs of the read replicas, empty if all reads go to the primary. */
+    public List<String> getReplicaUrls() {
+        return replicaUrls;
+    }
+
+    /** @return The file these settings were read from, or null if they didn't come from a file. */
+    public Path getSource() {
+        return source;
+    }
+
+    @Override
+    public boolean equals( Object o ) {
+        if( this == o ) {
+            return true;
+        }
+        if( !(o instanceof DbConfig) ) {
+            return false;
+        }
+
+        DbConfig other = ( DbConfig ) o;
+        return !needsNewReplicas( other ) && Objects.equals( source, other.source );
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash( url, username, poolSize, borrowTimeoutMillis, idleTimeoutMillis, leakThresholdMillis,
+                             replicaUrls, source );
+    }
+
+    /** The password is left out so the configuration can be logged. */
+    @Override
+    public String toString() {
+        return "DbConfig{url=" + url + ", username=" + username + ", poolSize=" + poolSize
+                + ", borrowTimeoutMillis=" + borrowTimeoutMillis + ", idleTimeoutMillis=" + idleTimeoutMillis
+                + ", leakThresholdMillis=" + leakThresholdMillis + ", replicaUrls=" + replicaUrls + ", source=" + source
+                + '}';
+    }
+}
@@ -0,0 +1,118 @@
+package db;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * DbConfigWatcher watches a settings file and hands every changed configuration to a listener.  Editors often write a
+ * file in several steps, so a change is only read once the directory has been quiet for a moment, and a file that
+ * doesn't parse is reported and ignored until it is fixed.
+ */
+public class DbConfigWatcher implements AutoCloseable {
+    private static final long SETTLE_MILLIS = 200;
+
+    private final Path file;
+    private final Consumer<DbConfig> listener;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    private volatile DbConfig current;
+
+    /**
+     * Start watching the file a configuration was read from.
+     * @param config   Current configuration, its source must not be null.
+     * @param listener Called on the watcher thread with each new configuration.
+     * @throws IOException If the directory could not be watched.
+     */
+    public DbConfigWatcher( DbConfig config, Consumer<DbConfig> listener ) throws IOException {
+        if( config.getSource() == null ) {
+            throw new IllegalArgumentException( "Only settings read from a file can be watched." );
+        }
+
+        this.file = config.getSource();
+        this.listener = listener;
+        this.current = config;
+
+        watchService = FileSystems.getDefault().newWatchService();
+        file.getParent().register( watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                   StandardWatchEventKinds.ENTRY_MODIFY );
+
+        thread = new Thread( this::watch, "db-config-watcher" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    private void watch() {
+        try {
+            while( true ) {
+                WatchKey key = watchService.take();
+                boolean changed = drain( key );
+
+                // Let the writer finish, collecting whatever else it touches meanwhile
+                while( (key = watchService.poll( SETTLE_MILLIS, TimeUnit.MILLISECONDS )) != null ) {
+                    changed |= drain( key );
+                }
+
+                if( changed ) {
+                    reload();
+                }
+            }
+        }
+        catch( InterruptedException | ClosedWatchServiceException e ) {
+            // Closed
+        }
+    }
+
+    /** @return true if any of the key's events were about the watched file. */
+    private boolean drain( WatchKey key ) {
+        boolean changed = false;
+        for( WatchEvent<?> event : key.pollEvents() ) {
+            Object context = event.context();
+            if( context instanceof Path && file.getFileName().equals( context ) ) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    private void reload() {
+        try {
+            DbConfig loaded = DbConfig.load( file );
+            if( !loaded.equals( current ) ) {
+                current = loaded;
+                listener.accept( loaded );
+            }
+        }
+        catch( IOException e ) {
+            System.err.println( "Could not reload DB settings, keeping the current ones." + e );
+        }
+        catch( RuntimeException e ) {
+            System.err.println( "Could not apply reloaded DB settings." + e );
+        }
+    }
+
+    /** @return The most recently loaded configuration. */
+    public DbConfig getCurrent() {
+        return current;
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+        try {
+            watchService.close();
+        }
+        catch( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+}
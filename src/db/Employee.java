@@ -2,7 +2,11 @@ package db;
 
 import java.util.Objects;
 
-/** Employee is a purely data class that contains the column data of a row from the EMP table. */
+/**
+ * Employee is a purely data class that contains the column data of a row from the EMP table.  It also remembers, as a
+ * bitmask of EmployeeField masks, which fields were changed since it was loaded, so a save only has to write those.  A
+ * newly built Employee counts every field as changed, the Factory marks the ones it reads from the database clean.
+ */
 public class Employee {
     // Database specific column length restrictions
     public static final int EMPID_LENGTH = 3;
@@ -15,6 +19,11 @@ public class Employee {
     public static final int ZIP_LENGTH = 5;
     public static final int REVNUM_LENGTH = 8;
 
+    /** The fields an UPDATE may write.  EMPID identifies the row and every UPDATE bumps REVNUM on its own. */
+    public static final int UPDATABLE_FIELDS = EmployeeField.LNAME.mask() | EmployeeField.FNAME.mask()
+            | EmployeeField.SALARY.mask() | EmployeeField.STREET.mask() | EmployeeField.CITY.mask()
+            | EmployeeField.STATE.mask() | EmployeeField.ZIP.mask();
+
     private String empID;
     private String lName;
     private String fName;
@@ -24,6 +33,7 @@ public class Employee {
     private String state;
     private String zip;
     private int revnum;
+    private int dirtyFields;
 
     public Employee( String empID, String lName, String fName, int salary, String street, String city, String state, String zip, int revnum ) throws LengthException {
         setEmpID( empID );
@@ -35,6 +45,121 @@ public class Employee {
         setState( state );
         setZip( zip );
         setRevnum( revnum );
+        dirtyFields = UPDATABLE_FIELDS | EmployeeField.EMPID.mask();
+    }
+
+    /** Used by create(), which validates before assigning. */
+    private Employee() {
+    }
+
+    /**
+     * Build an Employee without throwing, for bulk paths where bad rows are expected.  Every field is validated in one
+     * pass and all violations are reported together.
+     * @param result Reset, then filled with every field that failed validation.
+     * @return The Employee, or null if any field is invalid.
+     */
+    public static Employee create( String empID, String lName, String fName, int salary, String street, String city,
+                                   String state, String zip, int revnum, ValidationResult result ) {
+        if( !EmployeeValidator.validate( empID, lName, fName, salary, street, city, state, zip, revnum, result ) ) {
+            return null;
+        }
+
+        Employee employee = new Employee();
+        employee.empID = empID;
+        employee.lName = lName;
+        employee.fName = fName;
+        employee.salary = salary;
+        employee.street = street;
+        employee.city = city;
+        employee.state = state;
+        employee.zip = zip;
+        employee.revnum = revnum;
+        employee.dirtyFields = UPDATABLE_FIELDS | EmployeeField.EMPID.mask();
+        return employee;
+    }
+
+    /**
+     * Copy an Employee, including which fields are changed.  The source was already validated, so no length checks
+     * are repeated.
+     * @param other Employee to copy.
+     */
+    public Employee( Employee other ) {
+        this.empID = other.empID;
+        this.lName = other.lName;
+        this.fName = other.fName;
+        this.salary = other.salary;
+        this.street = other.street;
+        this.city = other.city;
+        this.state = other.state;
+        this.zip = other.zip;
+        this.revnum = other.revnum;
+        this.dirtyFields = other.dirtyFields;
+    }
+
+    /** @return Bitmask of the EmployeeField masks changed since this Employee was loaded or last marked clean. */
+    public int getDirtyFields() {
+        return dirtyFields;
+    }
+
+    /**
+     * @param field Field to check.
+     * @return true if the field was changed since this Employee was loaded or last marked clean.
+     */
+    public boolean isDirty( EmployeeField field ) {
+        return (dirtyFields & field.mask()) != 0;
+    }
+
+    /**
+     * Changing the EMPID points the Employee at a different row, whose columns could all differ.
+     * @return Bitmask of the columns a save has to write, 0 if there is nothing to save.
+     */
+    public int getUpdateMask() {
+        return isDirty( EmployeeField.EMPID ) ? UPDATABLE_FIELDS : dirtyFields & UPDATABLE_FIELDS;
+    }
+
+    /** Forget all changes, e.g. once this Employee matches its row in the database. */
+    public void markClean() {
+        dirtyFields = 0;
+    }
+
+    /**
+     * Fold a later edit of the same row into this one: every field the later edit changed takes its value, the rest
+     * keep this Employee's changes.  Both must be based on the same revnum.
+     * @param later Later edit of the row.
+     */
+    void mergeChanges( Employee later ) {
+        int changed = later.getUpdateMask();
+        if( later.isDirty( EmployeeField.EMPID ) ) {
+            empID = later.empID;
+        }
+        if( (changed & EmployeeField.LNAME.mask()) != 0 ) {
+            lName = later.lName;
+        }
+        if( (changed & EmployeeField.FNAME.mask()) != 0 ) {
+            fName = later.fName;
+        }
+        if( (changed & EmployeeField.SALARY.mask()) != 0 ) {
+            salary = later.salary;
+        }
+        if( (changed & EmployeeField.STREET.mask()) != 0 ) {
+            street = later.street;
+        }
+        if( (changed & EmployeeField.CITY.mask()) != 0 ) {
+            city = later.city;
+        }
+        if( (changed & EmployeeField.STATE.mask()) != 0 ) {
+            state = later.state;
+        }
+        if( (changed & EmployeeField.ZIP.mask()) != 0 ) {
+            zip = later.zip;
+        }
+        dirtyFields |= later.dirtyFields;
+    }
+
+    private void markChanged( EmployeeField field, boolean changed ) {
+        if( changed ) {
+            dirtyFields |= field.mask();
+        }
     }
 
     @Override
@@ -86,10 +211,11 @@ public class Employee {
     }
 
     public void setEmpID( String empID ) throws LengthException {
-        if( empID.length() > EMPID_LENGTH ) {
-            throw new LengthException();
+        if( !EmployeeValidator.isValid( EmployeeField.EMPID, empID ) ) {
+            throw new LengthException( EmployeeField.EMPID );
         }
 
+        markChanged( EmployeeField.EMPID, !empID.equals( this.empID ) );
         this.empID = empID;
     }
 
@@ -98,10 +224,11 @@ public class Employee {
     }
 
     public void setlName( String lName ) throws LengthException {
-        if( lName.length() > LNAME_LENGTH ) {
-            throw new LengthException();
+        if( !EmployeeValidator.isValid( EmployeeField.LNAME, lName ) ) {
+            throw new LengthException( EmployeeField.LNAME );
         }
 
+        markChanged( EmployeeField.LNAME, !lName.equals( this.lName ) );
         this.lName = lName;
     }
 
@@ -110,10 +237,11 @@ public class Employee {
     }
 
     public void setfName( String fName ) throws LengthException {
-        if( fName.length() > FNAME_LENGTH ) {
-            throw new LengthException();
+        if( !EmployeeValidator.isValid( EmployeeField.FNAME, fName ) ) {
+            throw new LengthException( EmployeeField.FNAME );
         }
 
+        markChanged( EmployeeField.FNAME, !fName.equals( this.fName ) );
         this.fName = fName;
     }
 
@@ -122,10 +250,11 @@ public class Employee {
     }
 
     public void setSalary( int salary ) throws LengthException {
-        if( Integer.toString( salary ).length() > SALARY_LENGTH ) {
-            throw new LengthException();
+        if( !EmployeeValidator.isValid( EmployeeField.SALARY, salary ) ) {
+            throw new LengthException( EmployeeField.SALARY );
         }
 
+        markChanged( EmployeeField.SALARY, salary != this.salary );
         this.salary = salary;
     }
 
@@ -134,10 +263,11 @@ public class Employee {
     }
 
     public void setStreet( String street ) throws LengthException {
-        if( street.length() > STREET_LENGTH ) {
-            throw new LengthException();
+        if( !EmployeeValidator.isValid( EmployeeField.STREET, street ) ) {
+            throw new LengthException( EmployeeField.STREET );
         }
 
+        markChanged( EmployeeField.STREET, !street.equals( this.street ) );
         this.street = street;
     }
 
@@ -146,10 +276,11 @@ public class Employee {
     }
 
     public void setCity( String city ) throws LengthException {
-        if( city.length() > CITY_LENGTH ) {
-            throw new LengthException();
+        if( !EmployeeValidator.isValid( EmployeeField.CITY, city ) ) {
+            throw new LengthException( EmployeeField.CITY );
         }
 
+        markChanged( EmployeeField.CITY, !city.equals( this.city ) );
         this.city = city;
     }
 
@@ -158,10 +289,11 @@ public class Employee {
     }
 
     public void setState( String state ) throws LengthException {
-        if( state.length() > STATE_LENGTH ) {
-            throw new LengthException();
+        if( !EmployeeValidator.isValid( EmployeeField.STATE, state ) ) {
+            throw new LengthException( EmployeeField.STATE );
         }
 
+        markChanged( EmployeeField.STATE, !state.equals( this.state ) );
         this.state = state;
     }
 
@@ -170,10 +302,11 @@ public class Employee {
     }
 
     public void setZip( String zip ) throws LengthException {
-        if( zip.length() > ZIP_LENGTH ) {
-            throw new LengthException();
+        if( !EmployeeValidator.isValid( EmployeeField.ZIP, zip ) ) {
+            throw new LengthException( EmployeeField.ZIP );
         }
 
+        markChanged( EmployeeField.ZIP, !zip.equals( this.zip ) );
         this.zip = zip;
     }
 
@@ -182,8 +315,8 @@ public class Employee {
     }
 
     public void setRevnum( int revnum ) throws LengthException {
-        if( Integer.toString( revnum ).length() > REVNUM_LENGTH ) {
-            throw new LengthException();
+        if( !EmployeeValidator.isValid( EmployeeField.REVNUM, revnum ) ) {
+            throw new LengthException( EmployeeField.REVNUM );
         }
 
         this.revnum = revnum;
@@ -0,0 +1,216 @@
+package db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * EmployeeCache keeps recently loaded Employees keyed by EMPID so a reload only needs to ask the database for the
+ * row's REVNUM instead of the whole row.  The cache is bounded in size (least recently used entries are dropped first)
+ * and entries older than the time to live are treated as missing.  Employees are copied on the way in and out, so
+ * callers are free to modify what they get back.
+ */
+public class EmployeeCache {
+    public static final int DEFAULT_MAX_SIZE = 1024;
+    public static final long DEFAULT_TTL_MILLIS = 300_000;
+
+    /** Looks up the current REVNUM of a row, returning -1 if the row no longer exists. */
+    @FunctionalInterface
+    public interface RevnumProbe {
+        int currentRevnum( String empID ) throws SQLException;
+    }
+
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+
+    private long hits;
+    private long misses;
+    private long staleCount;
+    private long expiredCount;
+    private long evictedCount;
+
+    /**
+     * @param maxSize   Maximum number of Employees held.
+     * @param ttlMillis How long an entry may be served before it must be fully reloaded, 0 to never expire.
+     */
+    public EmployeeCache( int maxSize, long ttlMillis ) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, Entry>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest ) {
+                if( size() > maxSize ) {
+                    evictedCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a cached Employee if it is still current.  The probe is only called when an unexpired entry exists, and a
+     * REVNUM that differs from the cached one drops the entry.
+     * @param empID EMPID of the Employee.
+     * @param probe Source of the row's current REVNUM.
+     * @return A copy of the cached Employee, or null if it must be loaded from the database.
+     * @throws SQLException If the probe fails.
+     */
+    public Employee get( String empID, RevnumProbe probe ) throws SQLException {
+        Employee cached;
+
+        synchronized( this ) {
+            Entry entry = entries.get( empID );
+            if( entry == null ) {
+                misses++;
+                return null;
+            }
+            if( ttlMillis > 0 && System.currentTimeMillis() - entry.loadedAt > ttlMillis ) {
+                entries.remove( empID );
+                expiredCount++;
+                misses++;
+                return null;
+            }
+            cached = entry.employee;
+        }
+
+        // Probe outside the lock, it is a database round trip
+        int revnum = probe.currentRevnum( empID );
+
+        synchronized( this ) {
+            if( revnum == cached.getRevnum() ) {
+                hits++;
+                return new Employee( cached );
+            }
+
+            Entry entry = entries.get( empID );
+            if( entry != null && entry.employee == cached ) {
+                entries.remove( empID );
+            }
+            staleCount++;
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Add or replace an Employee in the cache.
+     * @param employee Employee as currently stored in the database.
+     */
+    public synchronized void put( Employee employee ) {
+        entries.put( employee.getEmpID(), new Entry( new Employee( employee ) ) );
+    }
+
+    /**
+     * Drop an Employee from the cache.
+     * @param empID EMPID of the Employee.
+     */
+    public synchronized void invalidate( String empID ) {
+        entries.remove( empID );
+    }
+
+    /**
+     * React to a row changing in the database.  The entry is dropped unless it already holds the row as changed, as
+     * it does after this application's own save.
+     * @param empID  EMPID of the changed row.
+     * @param revnum REVNUM the row now has, -1 if it was deleted.
+     */
+    public synchronized void onChanged( String empID, int revnum ) {
+        Entry entry = entries.get( empID );
+        if( entry != null && entry.employee.getRevnum() != revnum ) {
+            entries.remove( empID );
+            staleCount++;
+        }
+    }
+
+    /**
+     * Copy out every cached Employee, e.g. to write a snapshot.  Expiry isn't checked, readers revalidate anyway.
+     * @return Copies of the cached Employees, least recently used first.
+     */
+    public synchronized List<Employee> getAll() {
+        List<Employee> all = new ArrayList<>( entries.size() );
+        for( Entry entry : entries.values() ) {
+            all.add( new Employee( entry.employee ) );
+        }
+        return all;
+    }
+
+    /**
+     * Fill the cache from a snapshot.  Restored entries count as just loaded and are checked against the row's REVNUM
+     * on their first read like any other entry.  EMPIDs loaded since startup keep their newer entry.
+     * @param employees Employees to restore, least recently used first.
+     * @return Number of entries restored.
+     */
+    public synchronized int restore( List<Employee> employees ) {
+        int restored = 0;
+        for( Employee employee : employees ) {
+            if( !entries.containsKey( employee.getEmpID() ) ) {
+                entries.put( employee.getEmpID(), new Entry( new Employee( employee ) ) );
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    /** Drop every Employee from the cache. */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    //-------------------------------------------------------------------------
+    //--------------------------------- Metrics -------------------------------
+    //-------------------------------------------------------------------------
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** @return How many cached entries were dropped because the database REVNUM had moved on. */
+    public synchronized long getStaleCount() {
+        return staleCount;
+    }
+
+    public synchronized long getExpiredCount() {
+        return expiredCount;
+    }
+
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : ( double ) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "db.EmployeeCache{" +
+                "size=" + entries.size() +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", stale=" + staleCount +
+                ", expired=" + expiredCount +
+                ", evicted=" + evictedCount +
+                '}';
+    }
+
+    /** A cached Employee and when it was loaded. */
+    private static class Entry {
+        private final Employee employee;
+        private final long loadedAt;
+
+        private Entry( Employee employee ) {
+            this.employee = employee;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * EmployeeCacheSnapshot saves the employee cache to a file now and then and fills the cache from it on the next start,
+ * so the first reads after a restart only need a REVNUM probe instead of the whole row.
+ * <p>
+ * The file is written through a memory-mapped buffer and read back into a heap buffer, so restoring leaves no mapping
+ * of the file behind.  It starts with a header holding a magic number, the format version, the database URL the rows
+ * came from, the record count and a CRC32 of the records.  A snapshot whose header doesn't match, whose checksum fails
+ * or that was taken from a different database is ignored.  A new snapshot is written to a temporary file and moved
+ * over the old one, so a crash never leaves a half written file.  The file holds names, addresses and salaries, so
+ * where the file system has POSIX permissions only its owner may read it.
+ * <p>
+ * Java unmaps a buffer only once it is garbage collected, and Windows can't replace a file that is still mapped, so
+ * there a save soon after the previous one may fail.  The failure is reported and the next save tries again.
+ */
+public class EmployeeCacheSnapshot {
+    public static final String SNAPSHOT_PROPERTY = "db.cacheSnapshot";
+    public static final String DEFAULT_FILE_NAME = ".emps-cache.snapshot";
+    public static final long DEFAULT_PERIOD_MILLIS = 60_000;
+
+    static final int MAGIC = 0x454D5053; // "EMPS"
+    static final int VERSION = 1;
+
+    // Magic, version, record count, payload length, CRC32 and the length of the database URL
+    private static final int FIXED_HEADER_BYTES = 4 + 4 + 4 + 4 + 8 + 2;
+    private static final int MAX_SOURCE_BYTES = 0xFFFF;
+
+    private final EmployeeCache cache;
+    private final Path file;
+    private final String source;
+    private ScheduledExecutorService scheduler;
+
+    private volatile long savedCount;
+    private volatile long lastSavedAt;
+
+    /**
+     * @param cache  Cache to snapshot and restore.
+     * @param file   Snapshot file.
+     * @param source Database URL of the cached rows, a snapshot of another database is not restored.
+     */
+    public EmployeeCacheSnapshot( EmployeeCache cache, Path file, String source ) {
+        this.cache = cache;
+        this.file = file;
+        this.source = source == null ? "" : source;
+    }
+
+    /**
+     * @return The file named by the db.cacheSnapshot system property, or .emps-cache.snapshot in the user's home.
+     */
+    public static Path defaultFile() {
+        String name = System.getProperty( SNAPSHOT_PROPERTY );
+        if( name != null && !name.isEmpty() ) {
+            return Paths.get( name );
+        }
+        return Paths.get( System.getProperty( "user.home" ), DEFAULT_FILE_NAME );
+    }
+
+    /**
+     * Fill the cache from the snapshot file, if there is a valid one.
+     * @return Number of employees restored, or -1 if there was no usable snapshot.
+     */
+    public int restore() {
+        List<Employee> employees = read( file, source );
+        return employees == null ? -1 : cache.restore( employees );
+    }
+
+    /**
+     * Write the cache's current contents to the snapshot file.
+     * @return true if the snapshot was written.
+     */
+    public synchronized boolean save() {
+        try {
+            write( file, source, cache.getAll() );
+            savedCount++;
+            lastSavedAt = System.currentTimeMillis();
+            return true;
+        }
+        catch( IOException | RuntimeException e ) {
+            System.err.println( "Could not write the cache snapshot." + e );
+            return false;
+        }
+    }
+
+    /**
+     * Save a snapshot periodically in the background.  Does nothing if already started.
+     * @param periodMillis Delay between snapshots.
+     */
+    public synchronized void start( long periodMillis ) {
+        if( scheduler != null ) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "db-cache-snapshot" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        scheduler.scheduleWithFixedDelay( this::save, periodMillis, periodMillis, TimeUnit.MILLISECONDS );
+    }
+
+    /** Stop the periodic snapshots and save a last one. */
+    public void stop() {
+        synchronized( this ) {
+            if( scheduler != null ) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        save();
+    }
+
+    public long getSavedCount() {
+        return savedCount;
+    }
+
+    public long getLastSavedAt() {
+        return lastSavedAt;
+    }
+
+    /**
+     * Write employees to a snapshot file, replacing it.
+     * @param file      Snapshot file.
+     * @param source    Database URL of the rows.
+     * @param employees Employees to write.
+     * @throws IOException If the file could not be written.
+     */
+    static void write( Path file, String source, List<Employee> employees ) throws IOException {
+        byte[] sourceBytes = source.getBytes( StandardCharsets.UTF_8 );
+        if( sourceBytes.length > MAX_SOURCE_BYTES ) {
+            throw new IOException( "Database URL too long for a snapshot." );
+        }
+
+        // Text is encoded up front so the mapping can be sized exactly
+        List<byte[][]> records = new ArrayList<>( employees.size() );
+        long payloadLength = 0;
+        for( Employee employee : employees ) {
+            byte[][] text = {
+                    bytes( employee.getEmpID() ), bytes( employee.getlName() ), bytes( employee.getfName() ),
+                    bytes( employee.getStreet() ), bytes( employee.getCity() ), bytes( employee.getState() ),
+                    bytes( employee.getZip() )
+            };
+            records.add( text );
+            payloadLength += 4 + 4; // Salary and revnum
+            for( byte[] field : text ) {
+                payloadLength += 1 + field.length;
+            }
+        }
+        int headerLength = FIXED_HEADER_BYTES + sourceBytes.length;
+        if( payloadLength > Integer.MAX_VALUE - headerLength ) {
+            throw new IOException( "Too many employees for a snapshot." );
+        }
+
+        // Created afresh so it gets owner-only permissions before any employee data is written to it
+        Path temp = file.resolveSibling( file.getFileName() + ".tmp" );
+        Files.deleteIfExists( temp );
+        try( FileChannel channel = FileChannel.open( temp, EnumSet.of( StandardOpenOption.CREATE_NEW,
+                                                                       StandardOpenOption.READ,
+                                                                       StandardOpenOption.WRITE ),
+                                                     ownerOnly( temp ) ) ) {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, headerLength + payloadLength );
+
+            buffer.position( headerLength );
+            for( int i = 0; i < records.size(); i++ ) {
+                Employee employee = employees.get( i );
+                for( byte[] field : records.get( i ) ) {
+                    buffer.put( ( byte ) field.length ).put( field );
+                }
+                buffer.putInt( employee.getSalary() ).putInt( employee.getRevnum() );
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update( buffer.duplicate().position( headerLength ) );
+
+            buffer.position( 0 );
+            buffer.putInt( MAGIC )
+                  .putInt( VERSION )
+                  .putInt( records.size() )
+                  .putInt( ( int ) payloadLength )
+                  .putLong( crc.getValue() )
+                  .putShort( ( short ) sourceBytes.length )
+                  .put( sourceBytes );
+            buffer.force();
+        }
+
+        Files.move( temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /** @return Permissions letting only the owner read and write, if the file system has POSIX permissions. */
+    private static FileAttribute<?>[] ownerOnly( Path path ) {
+        if( !path.getFileSystem().supportedFileAttributeViews().contains( "posix" ) ) {
+            return new FileAttribute<?>[0];
+        }
+        return new FileAttribute<?>[]{ PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( "rw-------" ) ) };
+    }
+
+    /**
+     * Read the employees of a snapshot file.
+     * @param file   Snapshot file.
+     * @param source Database URL the snapshot must have been taken from.
+     * @return The employees, least recently used first, or null if the file is missing, of another version or
+     *         database, or corrupt.
+     */
+    static List<Employee> read( Path file, String source ) {
+        try( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) ) {
+            long size = channel.size();
+            if( size < FIXED_HEADER_BYTES || size > Integer.MAX_VALUE ) {
+                return ignore( "unexpected size " + size );
+            }
+            ByteBuffer buffer = ByteBuffer.allocate( ( int ) size );
+            int read;
+            do {
+                read = channel.read( buffer );
+            } while( read >= 0 && buffer.hasRemaining() );
+            buffer.flip();
+
+            if( buffer.getInt() != MAGIC ) {
+                return ignore( "not a snapshot" );
+            }
+            int version = buffer.getInt();
+            if( version != VERSION ) {
+                return ignore( "format version " + version );
+            }
+            int count = buffer.getInt();
+            int payloadLength = buffer.getInt();
+            long checksum = buffer.getLong();
+            int sourceLength = buffer.getShort() & 0xFFFF;
+            if( count < 0 || buffer.remaining() != ( long ) sourceLength + payloadLength ) {
+                return ignore( "truncated" );
+            }
+
+            byte[] sourceBytes = new byte[sourceLength];
+            buffer.get( sourceBytes );
+            if( !new String( sourceBytes, StandardCharsets.UTF_8 ).equals( source ) ) {
+                return null; // Taken from another database, nothing wrong with it
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update( buffer.duplicate() );
+            if( crc.getValue() != checksum ) {
+                return ignore( "checksum mismatch" );
+            }
+
+            return decode( buffer, count );
+        }
+        catch( NoSuchFileException e ) {
+            return null;
+        }
+        catch( IOException | RuntimeException e ) {
+            return ignore( e.toString() );
+        }
+    }
+
+    private static List<Employee> decode( ByteBuffer buffer, int count ) {
+        List<Employee> employees = new ArrayList<>( Math.min( count, buffer.remaining() / 16 ) );
+        ValidationResult validation = new ValidationResult();
+        String[] text = new String[7];
+
+        for( int i = 0; i < count; i++ ) {
+            for( int field = 0; field < text.length; field++ ) {
+                byte[] bytes = new byte[buffer.get() & 0xFF];
+                buffer.get( bytes );
+                text[field] = new String( bytes, StandardCharsets.UTF_8 );
+            }
+            int salary = buffer.getInt();
+            int revnum = buffer.getInt();
+
+            // A row that no longer passes validation is left for the database to supply
+            Employee employee = Employee.create( text[0], text[1], text[2], salary, text[3], text[4], text[5], text[6],
+                                                 revnum, validation );
+            if( employee != null ) {
+                employee.markClean();
+                employees.add( employee );
+            }
+        }
+
+        return employees;
+    }
+
+    private static byte[] bytes( String value ) {
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        if( bytes.length > 0xFF ) {
+            throw new IllegalArgumentException( "Field too long for a snapshot: " + value );
+        }
+        return bytes;
+    }
+
+    private static List<Employee> ignore( String reason ) {
+        System.err.println( "Ignoring the cache snapshot, " + reason + "." );
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "db.EmployeeCacheSnapshot{" +
+                "file=" + file +
+                ", saved=" + savedCount +
+                ", lastSavedAt=" + lastSavedAt +
+                '}';
+    }
+}
@@ -0,0 +1,82 @@
+package db;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * EmployeeExporter streams the whole EMPS table to a channel.  Rows are read through a forward-only, read-only cursor
+ * and encoded straight into the output buffer, so memory use is the same for a thousand rows or fifty million.
+ */
+public class EmployeeExporter {
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private static final String EXPORT_SQL =
+            "SELECT empid, lname, fname, salary, street, city, state, zip, revnum FROM EMPS ORDER BY empid";
+
+    private final RecordEncoder.Format format;
+    private final int fetchSize;
+
+    /**
+     * @param format    Format of the output.
+     * @param fetchSize Rows the driver fetches per round trip.
+     */
+    public EmployeeExporter( RecordEncoder.Format format, int fetchSize ) {
+        this.format = format;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Write every row of EMPS to a channel.  The channel is not closed.
+     * @param conn    DB Connection to read from.
+     * @param channel Destination of the encoded rows.
+     * @return How many rows and bytes were written and how fast.
+     * @throws SQLException If the query fails.
+     * @throws IOException  If the channel can't be written.
+     */
+    public TransferStats export( Connection conn, WritableByteChannel channel ) throws SQLException, IOException {
+        long start = System.nanoTime();
+        long rows = 0;
+
+        RecordEncoder encoder = new RecordEncoder( format, channel, RecordEncoder.DEFAULT_BUFFER_SIZE );
+        encoder.writeHeader();
+
+        // Some drivers only honour the fetch size inside a transaction
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit( false );
+
+        try( Statement statement = conn.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY ) ) {
+            statement.setFetchSize( fetchSize );
+
+            try( ResultSet rset = statement.executeQuery( EXPORT_SQL ) ) {
+                rset.setFetchSize( fetchSize );
+
+                while( rset.next() ) {
+                    encoder.beginRecord();
+                    encoder.stringField( rset.getString( 1 ) );
+                    encoder.stringField( rset.getString( 2 ) );
+                    encoder.stringField( rset.getString( 3 ) );
+                    encoder.intField( rset.getInt( 4 ) );
+                    encoder.stringField( rset.getString( 5 ) );
+                    encoder.stringField( rset.getString( 6 ) );
+                    encoder.stringField( rset.getString( 7 ) );
+                    encoder.stringField( rset.getString( 8 ) );
+                    encoder.intField( rset.getInt( 9 ) );
+                    encoder.endRecord();
+                    rows++;
+                }
+            }
+        }
+        finally {
+            conn.rollback();
+            conn.setAutoCommit( autoCommit );
+        }
+
+        encoder.flush();
+
+        return new TransferStats( rows, 0, encoder.getBytesWritten(), System.nanoTime() - start );
+    }
+}
@@ -0,0 +1,51 @@
+package db;
+
+/** EmployeeField names the columns of the EMPS table along with their length limits. */
+public enum EmployeeField {
+    EMPID( Employee.EMPID_LENGTH ),
+    LNAME( Employee.LNAME_LENGTH ),
+    FNAME( Employee.FNAME_LENGTH ),
+    SALARY( Employee.SALARY_LENGTH ),
+    STREET( Employee.STREET_LENGTH ),
+    CITY( Employee.CITY_LENGTH ),
+    STATE( Employee.STATE_LENGTH ),
+    ZIP( Employee.ZIP_LENGTH ),
+    REVNUM( Employee.REVNUM_LENGTH );
+
+    private static final EmployeeField[] VALUES = values();
+
+    private final int maxLength;
+
+    EmployeeField( int maxLength ) {
+        this.maxLength = maxLength;
+    }
+
+    /** @return Maximum number of characters the column holds. */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /** @return Column name in the EMPS table. */
+    public String getColumn() {
+        return name();
+    }
+
+    /** @return The bit representing this field in a field bitmask. */
+    public int mask() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Look up a field by its ordinal without the copy values() makes.
+     * @param ordinal Ordinal of the field.
+     * @return The field.
+     */
+    public static EmployeeField of( int ordinal ) {
+        return VALUES[ordinal];
+    }
+
+    /** @return Number of fields. */
+    public static int count() {
+        return VALUES.length;
+    }
+}
@@ -0,0 +1,468 @@
+package db;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * EmployeeImporter loads a CSV file of new rows into EMPS.  The file is memory-mapped and split into chunks on line
+ * boundaries that are parsed and validated in parallel, while the calling thread inserts the parsed chunks in file
+ * order using batched INSERTs and commits periodically.  On Oracle each INSERT carries many rows with INSERT ALL,
+ * other databases such as the embedded H2 get single-row INSERTs.  Rows that fail validation are written to a side
+ * file with the reason instead of aborting the import.
+ * <p>
+ * Columns are EMPID,LNAME,FNAME,SALARY,STREET,CITY,STATE,ZIP with an optional trailing REVNUM, and a header line
+ * starting with EMPID is skipped.  Fields may be quoted, but a quoted field can't span lines.
+ */
+public class EmployeeImporter {
+    public static final int DEFAULT_CHUNK_BYTES = 8 * 1024 * 1024;
+    public static final int DEFAULT_COMMIT_INTERVAL = 10_000;
+
+    private static final int MIN_FIELDS = 8;
+    private static final int MAX_FIELDS = 9;
+    private static final int ROWS_PER_INSERT = 50;
+    private static final int INSERTS_PER_BATCH = 20;
+    private static final String INSERT_ROW = " INTO EMPS (empid, lname, fname, salary, street, city, state, zip, revnum) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_ONE_SQL = "INSERT" + INSERT_ROW;
+    private static final String INSERT_MANY_SQL = buildInsertAll( ROWS_PER_INSERT );
+
+    private final int parallelism;
+    private final int chunkBytes;
+    private final int commitInterval;
+
+    /**
+     * @param parallelism    Threads used to parse chunks.
+     * @param chunkBytes     Approximate size of each parsed chunk.
+     * @param commitInterval Rows inserted between commits.
+     */
+    public EmployeeImporter( int parallelism, int chunkBytes, int commitInterval ) {
+        this.parallelism = Math.max( 1, parallelism );
+        this.chunkBytes = Math.max( 1024, chunkBytes );
+        this.commitInterval = Math.max( ROWS_PER_INSERT, commitInterval );
+    }
+
+    /**
+     * Import a CSV file.  Rows committed before an error stay in the database, the rest are rolled back.
+     * @param conn    DB Connection to insert with.
+     * @param csv     File to import.
+     * @param rejects File that invalid rows are written to, replaced if it exists.
+     * @return Rows inserted and rejected, and the import throughput.
+     * @throws IOException  If either file can't be read or written.
+     * @throws SQLException If an insert fails.
+     */
+    public TransferStats importFile( Connection conn, Path csv, Path rejects ) throws IOException, SQLException {
+        long start = System.nanoTime();
+        long inserted = 0;
+        long rejected = 0;
+        long linesBefore = 0;
+
+        ExecutorService parsers = Executors.newFixedThreadPool( parallelism, runnable -> {
+            Thread thread = new Thread( runnable, "db-import-parser" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit( false );
+
+        try( FileChannel channel = FileChannel.open( csv, StandardOpenOption.READ );
+             BufferedWriter rejectWriter = Files.newBufferedWriter( rejects, StandardCharsets.UTF_8 );
+             Inserter inserter = new Inserter( conn ) ) {
+            long size = channel.size();
+
+            // Keep a bounded number of chunks in flight so memory doesn't grow with the file
+            ArrayDeque<Future<ParsedChunk>> pending = new ArrayDeque<>();
+            long position = 0;
+
+            while( position < size || !pending.isEmpty() ) {
+                while( position < size && pending.size() < parallelism * 2 ) {
+                    long end = findChunkEnd( channel, position, size );
+                    MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, position, end - position );
+                    boolean first = position == 0;
+                    pending.add( parsers.submit( () -> parse( buffer, first ) ) );
+                    position = end;
+                }
+
+                ParsedChunk chunk = await( pending.poll() );
+
+                for( Rejection rejection : chunk.rejections ) {
+                    rejectWriter.write( Long.toString( linesBefore + rejection.line ) );
+                    rejectWriter.write( '\t' );
+                    rejectWriter.write( rejection.reason );
+                    rejectWriter.write( '\t' );
+                    rejectWriter.write( rejection.text );
+                    rejectWriter.newLine();
+                }
+                rejected += chunk.rejections.size();
+                linesBefore += chunk.lines;
+
+                for( Employee employee : chunk.employees ) {
+                    inserter.add( employee );
+                    if( ++inserted % commitInterval == 0 ) {
+                        inserter.flush();
+                        conn.commit();
+                    }
+                }
+            }
+
+            inserter.flush();
+            conn.commit();
+
+            return new TransferStats( inserted, rejected, size, System.nanoTime() - start );
+        }
+        catch( IOException | SQLException | RuntimeException e ) {
+            // Restoring auto-commit below would otherwise commit the rows sent since the last commit
+            rollback( conn, e );
+            throw e;
+        }
+        finally {
+            parsers.shutdownNow();
+            conn.setAutoCommit( autoCommit );
+        }
+    }
+
+    /** Roll back the open transaction, keeping the original error if the rollback fails too. */
+    private static void rollback( Connection conn, Exception cause ) {
+        try {
+            conn.rollback();
+        }
+        catch( SQLException e ) {
+            cause.addSuppressed( e );
+        }
+    }
+
+    /** Find the end of the chunk starting at some position, extended to just past the next newline. */
+    private long findChunkEnd( FileChannel channel, long start, long size ) throws IOException {
+        long end = Math.min( size, start + chunkBytes );
+        if( end == size ) {
+            return end;
+        }
+
+        // Map a small window past the nominal end to find the line break
+        long windowSize = Math.min( size - end, 64 * 1024 );
+        while( true ) {
+            MappedByteBuffer window = channel.map( FileChannel.MapMode.READ_ONLY, end, windowSize );
+            for( int i = 0; i < windowSize; i++ ) {
+                if( window.get( i ) == '\n' ) {
+                    return end + i + 1;
+                }
+            }
+
+            end += windowSize;
+            if( end >= size ) {
+                return size;
+            }
+            windowSize = Math.min( size - end, windowSize );
+        }
+    }
+
+    private static ParsedChunk await( Future<ParsedChunk> future ) throws IOException {
+        try {
+            return future.get();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while parsing.", e );
+        }
+        catch( ExecutionException e ) {
+            throw new IOException( "Error parsing import file.", e.getCause() );
+        }
+    }
+
+    /**
+     * Parse and validate every line of a chunk.
+     * @param buffer    Mapped bytes of the chunk, ending on a line break or the end of the file.
+     * @param fileStart true if this is the first chunk, whose first line may be a header.
+     * @return The valid rows and rejections of the chunk.
+     */
+    private static ParsedChunk parse( MappedByteBuffer buffer, boolean fileStart ) {
+        ParsedChunk chunk = new ParsedChunk();
+        String[] fields = new String[MAX_FIELDS];
+        byte[] field = new byte[256];
+        ValidationResult validation = new ValidationResult();
+
+        int limit = buffer.limit();
+        int lineStart = 0;
+
+        while( lineStart < limit ) {
+            int lineEnd = lineStart;
+            while( lineEnd < limit && buffer.get( lineEnd ) != '\n' ) {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd > lineStart && buffer.get( lineEnd - 1 ) == '\r' ? lineEnd - 1 : lineEnd;
+            chunk.lines++;
+
+            boolean header = fileStart && chunk.lines == 1 && startsWith( buffer, lineStart, contentEnd, "EMPID" );
+            if( contentEnd > lineStart && !header ) {
+                int count = splitFields( buffer, lineStart, contentEnd, fields, field );
+                String reason;
+                if( count < 0 ) {
+                    reason = "Unterminated quote or too many fields";
+                }
+                else if( count < MIN_FIELDS ) {
+                    reason = "Expected at least " + MIN_FIELDS + " fields";
+                }
+                else {
+                    Employee employee = toEmployee( fields, count, validation );
+                    if( employee != null ) {
+                        chunk.employees.add( employee );
+                        reason = null;
+                    }
+                    else {
+                        reason = "Invalid " + validation.describe();
+                    }
+                }
+
+                if( reason != null ) {
+                    chunk.rejections.add( new Rejection( chunk.lines, reason, decode( buffer, lineStart, contentEnd ) ) );
+                }
+            }
+
+            lineStart = lineEnd + 1;
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Split a CSV line into fields.
+     * @return The number of fields, or -1 if the line is malformed.
+     */
+    private static int splitFields( MappedByteBuffer buffer, int start, int end, String[] fields, byte[] field ) {
+        int count = 0;
+        int pos = start;
+
+        while( true ) {
+            if( count == fields.length ) {
+                return -1;
+            }
+
+            int length = 0;
+            if( pos < end && buffer.get( pos ) == '"' ) {
+                pos++;
+                while( true ) {
+                    if( pos >= end ) {
+                        return -1;
+                    }
+                    byte b = buffer.get( pos++ );
+                    if( b == '"' ) {
+                        if( pos < end && buffer.get( pos ) == '"' ) {
+                            pos++;
+                        }
+                        else {
+                            break;
+                        }
+                    }
+                    if( length == field.length ) {
+                        return -1;
+                    }
+                    field[length++] = b;
+                }
+            }
+            while( pos < end && buffer.get( pos ) != ',' ) {
+                if( length == field.length ) {
+                    return -1;
+                }
+                field[length++] = buffer.get( pos++ );
+            }
+
+            fields[count++] = new String( field, 0, length, StandardCharsets.UTF_8 );
+
+            if( pos >= end ) {
+                return count;
+            }
+            pos++; // Skip the comma
+        }
+    }
+
+    /**
+     * Build an Employee from a row's fields, validating every field in one pass.
+     * @param validation Filled with the fields that failed.
+     * @return The Employee or null if any field is invalid.
+     */
+    private static Employee toEmployee( String[] fields, int count, ValidationResult validation ) {
+        int salary = parseNumber( fields[3] );
+        int revnum = count > MIN_FIELDS ? parseNumber( fields[8] ) : 0;
+
+        Employee employee = Employee.create( fields[0], fields[1], fields[2], salary, fields[4], fields[5], fields[6],
+                                             fields[7], revnum, validation );
+        if( fields[0].isEmpty() ) {
+            validation.add( EmployeeField.EMPID );
+            employee = null;
+        }
+        return employee;
+    }
+
+    /**
+     * Parse an unsigned decimal number without throwing.
+     * @return The value, or Integer.MIN_VALUE if the text isn't a number short enough to fit an int.  That is too long
+     *         for any numeric column, so it is reported as that column's violation.
+     */
+    private static int parseNumber( String value ) {
+        if( value.isEmpty() || value.length() > 9 ) {
+            return Integer.MIN_VALUE;
+        }
+
+        int result = 0;
+        for( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt( i );
+            if( c < '0' || c > '9' ) {
+                return Integer.MIN_VALUE;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static boolean startsWith( MappedByteBuffer buffer, int start, int end, String prefix ) {
+        if( end - start < prefix.length() ) {
+            return false;
+        }
+        for( int i = 0; i < prefix.length(); i++ ) {
+            if( Character.toUpperCase( buffer.get( start + i ) ) != prefix.charAt( i ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode( MappedByteBuffer buffer, int start, int end ) {
+        byte[] bytes = new byte[end - start];
+        for( int i = 0; i < bytes.length; i++ ) {
+            bytes[i] = buffer.get( start + i );
+        }
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    private static String buildInsertAll( int rows ) {
+        StringBuilder builder = new StringBuilder( "INSERT ALL" );
+        for( int i = 0; i < rows; i++ ) {
+            builder.append( INSERT_ROW );
+        }
+        return builder.append( " SELECT 1 FROM DUAL" ).toString();
+    }
+
+    /**
+     * Groups rows into multi-row INSERTs, and those into JDBC batches.  INSERT ALL is Oracle only, elsewhere every row
+     * is batched as a single-row INSERT.
+     */
+    private static class Inserter implements AutoCloseable {
+        private final Connection conn;
+        private final boolean multiRow;
+        private final PreparedStatement one;
+        private final List<Employee> rows = new ArrayList<>( ROWS_PER_INSERT );
+        private PreparedStatement many;
+        private int batched;
+
+        private Inserter( Connection conn ) throws SQLException {
+            this.conn = conn;
+            multiRow = "Oracle".equalsIgnoreCase( conn.getMetaData().getDatabaseProductName() );
+            one = conn.prepareStatement( INSERT_ONE_SQL );
+        }
+
+        private void add( Employee employee ) throws SQLException {
+            if( !multiRow ) {
+                bind( one, 0, employee );
+                one.addBatch();
+                if( ++batched == ROWS_PER_INSERT * INSERTS_PER_BATCH ) {
+                    one.executeBatch();
+                    batched = 0;
+                }
+                return;
+            }
+
+            rows.add( employee );
+            if( rows.size() == ROWS_PER_INSERT ) {
+                if( many == null ) {
+                    many = conn.prepareStatement( INSERT_MANY_SQL );
+                }
+                for( int i = 0; i < ROWS_PER_INSERT; i++ ) {
+                    bind( many, i * MAX_FIELDS, rows.get( i ) );
+                }
+                many.addBatch();
+                rows.clear();
+
+                if( ++batched == INSERTS_PER_BATCH ) {
+                    many.executeBatch();
+                    batched = 0;
+                }
+            }
+        }
+
+        /** Send everything added so far, the last partial group as single-row INSERTs. */
+        private void flush() throws SQLException {
+            if( batched > 0 ) {
+                ( multiRow ? many : one ).executeBatch();
+                batched = 0;
+            }
+            if( !rows.isEmpty() ) {
+                for( Employee employee : rows ) {
+                    bind( one, 0, employee );
+                    one.addBatch();
+                }
+                one.executeBatch();
+                rows.clear();
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                if( many != null ) {
+                    many.close();
+                }
+            }
+            finally {
+                one.close();
+            }
+        }
+
+        private static void bind( PreparedStatement statement, int offset, Employee employee ) throws SQLException {
+            statement.setString( offset + 1, employee.getEmpID() );
+            statement.setString( offset + 2, employee.getlName() );
+            statement.setString( offset + 3, employee.getfName() );
+            statement.setInt( offset + 4, employee.getSalary() );
+            statement.setString( offset + 5, employee.getStreet() );
+            statement.setString( offset + 6, employee.getCity() );
+            statement.setString( offset + 7, employee.getState() );
+            statement.setString( offset + 8, employee.getZip() );
+            statement.setInt( offset + 9, employee.getRevnum() );
+        }
+    }
+
+    /** The result of parsing one chunk. */
+    private static class ParsedChunk {
+        private final List<Employee> employees = new ArrayList<>();
+        private final List<Rejection> rejections = new ArrayList<>();
+        private int lines;
+    }
+
+    /** A line that failed validation. */
+    private static class Rejection {
+        private final long line;
+        private final String reason;
+        private final String text;
+
+        private Rejection( long line, String reason, String text ) {
+            this.line = line;
+            this.reason = reason;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package db;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/** EmployeeLookup is the result of loading many employees at once: the ones found and the EMPIDs that weren't. */
+public class EmployeeLookup {
+    private final Map<String, Employee> found;
+    private final Set<String> missing;
+
+    /**
+     * @param found   Employees found, keyed by EMPID in the order they were asked for.
+     * @param missing EMPIDs asked for that have no row.
+     */
+    public EmployeeLookup( Map<String, Employee> found, Set<String> missing ) {
+        this.found = Collections.unmodifiableMap( found );
+        this.missing = Collections.unmodifiableSet( missing );
+    }
+
+    /** @return Employees found, keyed by EMPID in the order they were asked for. */
+    public Map<String, Employee> getFound() {
+        return found;
+    }
+
+    /** @return EMPIDs that have no row, in the order they were asked for. */
+    public Set<String> getMissing() {
+        return missing;
+    }
+
+    /**
+     * @param empID EMPID to look up.
+     * @return The Employee or null if it was missing or not asked for.
+     */
+    public Employee get( String empID ) {
+        return found.get( empID );
+    }
+
+    /** @return true if every EMPID asked for was found. */
+    public boolean isComplete() {
+        return missing.isEmpty();
+    }
+
+    /** @return The employees found, in the order they were asked for. */
+    public Stream<Employee> stream() {
+        return found.values().stream();
+    }
+
+    @Override
+    public String toString() {
+        return "EmployeeLookup{found=" + found.size() + ", missing=" + missing + '}';
+    }
+}
@@ -0,0 +1,276 @@
+package db;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * EmployeeRowMapper turns rows of EMPS into Employees.  Column positions are resolved once per query from the
+ * ResultSetMetaData instead of by name on every read, and Employees are built through Employee.create(), which
+ * validates all fields in one pass instead of through the throwing setters.
+ * <p>
+ * STATE, CITY and ZIP repeat across many rows, so the Strings the driver returns for them are swapped for one shared
+ * copy from a bounded table.  The table is direct-mapped: each value has one slot picked by its hash, and a value that
+ * collides just replaces the slot's occupant.  Slots are written without locking, which at worst costs a hit.
+ * <p>
+ * Rows mapped, canonicalization hits and misses and time spent are counted for tuning.  Bytes allocated per query are
+ * counted too once enabled with setTrackAllocations(), where the JVM can measure them; looking up the JVM's thread
+ * bean takes tens of ms, which the command line shouldn't pay.
+ */
+public class EmployeeRowMapper {
+    public static final int DEFAULT_CANONICAL_SIZE = 4096;
+
+    private static final EmployeeField[] COLUMNS = {
+            EmployeeField.EMPID, EmployeeField.LNAME, EmployeeField.FNAME, EmployeeField.SALARY, EmployeeField.STREET,
+            EmployeeField.CITY, EmployeeField.STATE, EmployeeField.ZIP, EmployeeField.REVNUM
+    };
+
+    private final String[] canonical;
+    private final int slotMask;
+    private volatile com.sun.management.ThreadMXBean allocations;
+
+    private final LongAdder queryCount = new LongAdder();
+    private final LongAdder rowCount = new LongAdder();
+    private final LongAdder canonicalHits = new LongAdder();
+    private final LongAdder canonicalMisses = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder allocatedQueryRows = new LongAdder();
+
+    /** @param canonicalSize Slots in the canonicalization table, rounded up to a power of two. */
+    public EmployeeRowMapper( int canonicalSize ) {
+        int size = Integer.highestOneBit( Math.max( 2, canonicalSize ) - 1 ) << 1;
+        canonical = new String[size];
+        slotMask = size - 1;
+    }
+
+    /**
+     * Count the bytes each query allocates, or stop counting them.
+     * @param track true to count allocations from the next query on.
+     * @return true if allocations are now counted, false if off or the JVM can't count them.
+     */
+    public boolean setTrackAllocations( boolean track ) {
+        allocations = track ? allocationCounter() : null;
+        return allocations != null;
+    }
+
+    /**
+     * Start mapping the rows of a query.
+     * @param rset Freshly executed query over EMPS, it must select every Employee column.
+     * @return The column positions of this query, close it when done to count the query.
+     * @throws SQLException If a column is missing or the metadata can't be read.
+     */
+    public Binding bind( ResultSet rset ) throws SQLException {
+        ResultSetMetaData meta = rset.getMetaData();
+        int[] positions = new int[EmployeeField.count()];
+        Arrays.fill( positions, -1 );
+
+        for( int column = 1; column <= meta.getColumnCount(); column++ ) {
+            String label = meta.getColumnLabel( column );
+            for( EmployeeField field : COLUMNS ) {
+                if( positions[field.ordinal()] < 0 && field.getColumn().equalsIgnoreCase( label ) ) {
+                    positions[field.ordinal()] = column;
+                    break;
+                }
+            }
+        }
+        for( EmployeeField field : COLUMNS ) {
+            if( positions[field.ordinal()] < 0 ) {
+                throw new SQLException( "Query has no " + field.getColumn() + " column." );
+            }
+        }
+
+        return new Binding( rset, positions );
+    }
+
+    /**
+     * Get the shared copy of a low-cardinality value.
+     * @param value Value as read, may be null.
+     * @return An equal String, the first one seen for its slot.
+     */
+    String canonicalize( String value ) {
+        if( value == null ) {
+            return null;
+        }
+
+        int slot = spread( value.hashCode() ) & slotMask;
+        String existing = canonical[slot];
+        if( value.equals( existing ) ) {
+            canonicalHits.increment();
+            return existing;
+        }
+        canonical[slot] = value;
+        canonicalMisses.increment();
+        return value;
+    }
+
+    /** Forget all counts, the canonicalization table is kept. */
+    public void reset() {
+        queryCount.reset();
+        rowCount.reset();
+        canonicalHits.reset();
+        canonicalMisses.reset();
+        totalNanos.reset();
+        allocatedBytes.reset();
+        allocatedQueryRows.reset();
+    }
+
+    //-------------------------------------------------------------------------
+    //--------------------------------- Metrics -------------------------------
+    //-------------------------------------------------------------------------
+    public long getQueryCount() {
+        return queryCount.sum();
+    }
+
+    public long getRowCount() {
+        return rowCount.sum();
+    }
+
+    public long getCanonicalHits() {
+        return canonicalHits.sum();
+    }
+
+    public long getCanonicalMisses() {
+        return canonicalMisses.sum();
+    }
+
+    /** @return Share of STATE, CITY and ZIP values replaced by a shared copy. */
+    public double getCanonicalHitRatio() {
+        long hits = canonicalHits.sum();
+        long total = hits + canonicalMisses.sum();
+        return total == 0 ? 0 : ( double ) hits / total;
+    }
+
+    /** @return Rows mapped per second of time between binding and closing queries, driver fetches included. */
+    public double getRowsPerSecond() {
+        long nanos = totalNanos.sum();
+        return nanos == 0 ? 0 : rowCount.sum() * 1e9 / nanos;
+    }
+
+    /**
+     * @return Bytes allocated per row while mapping, driver fetches included, over the queries counted since tracking
+     *         was enabled, or -1 if allocations aren't tracked.
+     */
+    public double getAllocatedBytesPerRow() {
+        if( allocations == null ) {
+            return -1;
+        }
+        long rows = allocatedQueryRows.sum();
+        return rows == 0 ? 0 : ( double ) allocatedBytes.sum() / rows;
+    }
+
+    @Override
+    public String toString() {
+        return "db.EmployeeRowMapper{" +
+                "queries=" + getQueryCount() +
+                ", rows=" + getRowCount() +
+                ", canonicalHitRatio=" + getCanonicalHitRatio() +
+                ", rowsPerSecond=" + getRowsPerSecond() +
+                ", allocatedBytesPerRow=" + getAllocatedBytesPerRow() +
+                '}';
+    }
+
+    /** Mixes the high bits of a hash into the low ones the slot is taken from, like HashMap does. */
+    private static int spread( int hash ) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return The HotSpot thread bean if it can count the current thread's allocations, null otherwise.
+     */
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if( threads instanceof com.sun.management.ThreadMXBean ) {
+                com.sun.management.ThreadMXBean hotspot = ( com.sun.management.ThreadMXBean ) threads;
+                if( hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled() ) {
+                    return hotspot;
+                }
+            }
+        }
+        catch( RuntimeException | LinkageError e ) {
+            // No allocation counts then
+        }
+        return null;
+    }
+
+    /** The column positions of one query, used from the thread that runs it. */
+    public class Binding implements AutoCloseable {
+        private final ResultSet rset;
+        private final int empID;
+        private final int lName;
+        private final int fName;
+        private final int salary;
+        private final int street;
+        private final int city;
+        private final int state;
+        private final int zip;
+        private final int revnum;
+        private final ValidationResult validation = new ValidationResult();
+        private final long startNanos = System.nanoTime();
+        private final com.sun.management.ThreadMXBean counter = allocations;
+        private final long startBytes;
+        private long rows;
+        private boolean closed;
+
+        private Binding( ResultSet rset, int[] positions ) {
+            this.rset = rset;
+            this.empID = positions[EmployeeField.EMPID.ordinal()];
+            this.lName = positions[EmployeeField.LNAME.ordinal()];
+            this.fName = positions[EmployeeField.FNAME.ordinal()];
+            this.salary = positions[EmployeeField.SALARY.ordinal()];
+            this.street = positions[EmployeeField.STREET.ordinal()];
+            this.city = positions[EmployeeField.CITY.ordinal()];
+            this.state = positions[EmployeeField.STATE.ordinal()];
+            this.zip = positions[EmployeeField.ZIP.ordinal()];
+            this.revnum = positions[EmployeeField.REVNUM.ordinal()];
+            this.startBytes = counter == null ? 0 : counter.getCurrentThreadAllocatedBytes();
+        }
+
+        /**
+         * Map the row the ResultSet is positioned on.
+         * @return The Employee, with no fields marked changed.
+         * @throws SQLException    ResultSet may throw an exception when reading columns.
+         * @throws LengthException If a column doesn't fit the Employee limits, naming the first such column.
+         */
+        public Employee map() throws SQLException, LengthException {
+            Employee employee = Employee.create( rset.getString( empID ),
+                                                 rset.getString( lName ),
+                                                 rset.getString( fName ),
+                                                 rset.getInt( salary ),
+                                                 rset.getString( street ),
+                                                 canonicalize( rset.getString( city ) ),
+                                                 canonicalize( rset.getString( state ) ),
+                                                 canonicalize( rset.getString( zip ) ),
+                                                 rset.getInt( revnum ),
+                                                 validation );
+            if( employee == null ) {
+                throw new LengthException( validation.firstViolation() );
+            }
+            employee.markClean();
+            rows++;
+            return employee;
+        }
+
+        /** Count this query's rows, time and allocations. */
+        @Override
+        public void close() {
+            if( closed ) {
+                return;
+            }
+            closed = true;
+
+            queryCount.increment();
+            rowCount.add( rows );
+            totalNanos.add( System.nanoTime() - startNanos );
+            if( counter != null ) {
+                allocatedBytes.add( counter.getCurrentThreadAllocatedBytes() - startBytes );
+                allocatedQueryRows.add( rows );
+            }
+        }
+    }
+}
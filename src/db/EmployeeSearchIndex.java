@@ -0,0 +1,596 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * EmployeeSearchIndex finds employees by the words of their names and address (LNAME, FNAME, STREET, CITY, STATE and
+ * ZIP) without querying EMPS.  Every distinct word is a term, and two kinds of posting lists, both sorted int arrays,
+ * connect them: each trigram lists the terms containing it, each term lists the employees using it.  A query word is
+ * looked up among the terms, by intersecting the posting lists of its trigrams for terms starting with it and, for
+ * words of four letters or more, by counting shared trigrams for terms within one typo.  The employees of the matching
+ * terms are then intersected across the query's words.  Whole word matches rank above prefix matches, which rank above
+ * typos.
+ * <p>
+ * The index is updated one employee at a time as REVNUMs change.  A changed employee gets a new document id and the old
+ * one is only marked deleted, so posting lists are append-only; they are rebuilt once deleted documents make up half
+ * the index.  All methods are synchronized, searches take microseconds so updates from other threads wait little.
+ */
+public class EmployeeSearchIndex {
+    public static final int DEFAULT_LIMIT = 20;
+
+    // Characters are folded into 64 codes, so a trigram is an 18 bit key and its posting list is found by array index.
+    // The keys after the trigrams hold the one letter "word starts with" grams.
+    private static final int ALPHABET = 64;
+    private static final int TRIGRAMS = ALPHABET * ALPHABET * ALPHABET;
+    private static final int MIN_FUZZY_LENGTH = 4;
+    private static final int MAX_EDITS = 1;
+    private static final int MIN_COMPACT_DELETES = 1024;
+
+    // Scores of a term matching a query word
+    private static final int WORD_SCORE = 3;
+    private static final int PREFIX_SCORE = 2;
+    private static final int TYPO_SCORE = 1;
+
+    // Terms by id, and for each trigram the terms containing it
+    private final int[][] gramTerms = new int[TRIGRAMS + ALPHABET][];
+    private final int[] gramTermCounts = new int[TRIGRAMS + ALPHABET];
+    private final Map<String, Integer> termIDs = new HashMap<>();
+    private String[] terms = new String[256];
+    private int[][] termDocs = new int[256][];
+    private int[] termDocCounts = new int[256];
+    private int termCount;
+
+    // Documents by id.  Ids are handed out in increasing order, which keeps every posting list sorted.
+    private String[] empIDs = new String[64];
+    private String[] labels = new String[64];
+    private int[] revnums = new int[64];
+    private int[][] docTerms = new int[64][];
+    private final BitSet deleted = new BitSet();
+    private final Map<String, Integer> docIDs = new HashMap<>();
+    private int docCount;
+
+    // Scratch space of search(), indexed by document or term id and reset after each use
+    private int[] docWords = new int[64];
+    private int[] docScores = new int[64];
+    private int[] touchedDocs = new int[64];
+    private int[] termHits = new int[256];
+    private int[] touchedTerms = new int[256];
+
+    /**
+     * Index every row of a loaded table.  Rows already indexed at the same or a newer REVNUM are kept.
+     * @param table Rows to index.
+     */
+    public synchronized void putAll( EmployeeTable table ) {
+        for( int row = 0; row < table.size(); row++ ) {
+            put( table.getEmpID( row ), table.getlName( row ), table.getfName( row ), table.getStreet( row ),
+                 table.getCity( row ), table.getState( row ), table.getZip( row ), table.getRevnum( row ) );
+        }
+    }
+
+    /**
+     * Index an employee, replacing an older revision of it.
+     * @param employee Employee as read from the database.
+     * @return true if it was indexed, false if the index already had this or a newer revision.
+     */
+    public synchronized boolean put( Employee employee ) {
+        return put( employee.getEmpID(), employee.getlName(), employee.getfName(), employee.getStreet(),
+                    employee.getCity(), employee.getState(), employee.getZip(), employee.getRevnum() );
+    }
+
+    /**
+     * Drop an employee from the index.
+     * @param empID EMPID of the deleted row.
+     */
+    public synchronized void remove( String empID ) {
+        Integer doc = docIDs.remove( empID );
+        if( doc != null ) {
+            deleted.set( doc );
+            compactIfSparse();
+        }
+    }
+
+    /**
+     * @param empID EMPID of a row.
+     * @return The REVNUM the row was indexed at, or -1 if it isn't indexed.
+     */
+    public synchronized int getRevnum( String empID ) {
+        Integer doc = docIDs.get( empID );
+        return doc == null ? -1 : revnums[doc];
+    }
+
+    /** @return Number of employees indexed. */
+    public synchronized int size() {
+        return docIDs.size();
+    }
+
+    /** @return Number of distinct words indexed. */
+    public synchronized int getTermCount() {
+        return termCount;
+    }
+
+    /**
+     * Find the employees matching every word of a query, best matches first.
+     * @param query Words to look for, in any order and case.  Punctuation is ignored.
+     * @param limit Maximum number of hits.
+     * @return The hits, an empty list if the query has no words.
+     */
+    public synchronized List<SearchHit> search( String query, int limit ) {
+        Set<String> words = tokenize( query );
+        if( words.isEmpty() || limit < 1 ) {
+            return Collections.emptyList();
+        }
+
+        // Match every word to terms first, so the word with the fewest employees can go first and keep the
+        // candidate list short
+        List<TermMatches> matches = new ArrayList<>( words.size() );
+        for( String word : words ) {
+            TermMatches match = matchTerms( word );
+            if( match.size == 0 ) {
+                return Collections.emptyList();
+            }
+            matches.add( match );
+        }
+        matches.sort( ( a, b ) -> Long.compare( a.postings, b.postings ) );
+
+        int candidates = 0;
+        for( int w = 0; w < matches.size(); w++ ) {
+            TermMatches match = matches.get( w );
+            // Terms are in descending score order, so a document's first matching term is its best for this word
+            for( int i = 0; i < match.size; i++ ) {
+                int term = match.terms[i];
+                int[] docs = termDocs[term];
+                for( int d = 0; d < termDocCounts[term]; d++ ) {
+                    int doc = docs[d];
+                    if( docWords[doc] != w || deleted.get( doc ) ) {
+                        continue;
+                    }
+                    if( w == 0 ) {
+                        touchedDocs[candidates++] = doc;
+                    }
+                    docWords[doc] = w + 1;
+                    docScores[doc] += match.scores[i];
+                }
+            }
+        }
+
+        List<SearchHit> hits = collectHits( candidates, matches.size(), limit );
+        for( int i = 0; i < candidates; i++ ) {
+            docWords[touchedDocs[i]] = 0;
+            docScores[touchedDocs[i]] = 0;
+        }
+        return hits;
+    }
+
+    /**
+     * Pick the best scoring documents that matched every word.  Scores are small, so the lowest score still making the
+     * cut is found by counting instead of sorting every candidate.
+     * @param candidates Number of documents in touchedDocs.
+     * @param wordCount  Number of query words.
+     * @param limit      Maximum number of hits.
+     * @return The hits, best first, then in index order.
+     */
+    private List<SearchHit> collectHits( int candidates, int wordCount, int limit ) {
+        int maxScore = wordCount * WORD_SCORE;
+        int[] counts = new int[maxScore + 1];
+        for( int i = 0; i < candidates; i++ ) {
+            int doc = touchedDocs[i];
+            if( docWords[doc] == wordCount ) {
+                counts[docScores[doc]]++;
+            }
+        }
+
+        int cutoff = maxScore;
+        int better = 0;
+        while( cutoff > 0 && better + counts[cutoff] < limit ) {
+            better += counts[cutoff--];
+        }
+
+        // Everything above the cutoff, and as many at the cutoff as still fit, packed for a primitive sort
+        long[] ranked = new long[Math.min( limit, better + counts[cutoff] )];
+        int size = 0;
+        int atCutoff = ranked.length - better;
+        for( int i = 0; i < candidates && size < ranked.length; i++ ) {
+            int doc = touchedDocs[i];
+            int score = docScores[doc];
+            if( docWords[doc] != wordCount || score < cutoff || ( score == cutoff && atCutoff-- <= 0 ) ) {
+                continue;
+            }
+            ranked[size++] = ( ( long ) -score << 32 ) | doc;
+        }
+        Arrays.sort( ranked, 0, size );
+
+        List<SearchHit> hits = new ArrayList<>( size );
+        for( int i = 0; i < size; i++ ) {
+            int doc = ( int ) ranked[i];
+            hits.add( new SearchHit( empIDs[doc], labels[doc], -( int ) ( ranked[i] >> 32 ) ) );
+        }
+        return hits;
+    }
+
+    /**
+     * Find the terms a query word matches: terms starting with it through the trigram posting lists, then for longer
+     * words the terms within one typo.  A term one edit away still shares all but at most three of the word's
+     * trigrams, so only terms sharing that many are checked with an edit distance.
+     * @param word Query word.
+     * @return The matching terms, best score first.
+     */
+    private TermMatches matchTerms( String word ) {
+        TermMatches matches = new TermMatches();
+        int[] grams = gramsOf( word );
+
+        // Walk the shortest posting list and probe the others
+        int shortest = grams[0];
+        for( int gram : grams ) {
+            if( gramTermCounts[gram] < gramTermCounts[shortest] ) {
+                shortest = gram;
+            }
+        }
+        int[] candidates = gramTerms[shortest];
+        for( int i = 0; i < gramTermCounts[shortest]; i++ ) {
+            int term = candidates[i];
+            if( terms[term].startsWith( word ) && containsAll( grams, term ) ) {
+                matches.add( term, terms[term].length() == word.length() ? WORD_SCORE : PREFIX_SCORE );
+            }
+        }
+
+        if( word.length() >= MIN_FUZZY_LENGTH ) {
+            int threshold = Math.max( 1, grams.length - 1 - 3 * MAX_EDITS );
+            int touched = 0;
+            for( int i = 0; i < matches.size; i++ ) {
+                termHits[matches.terms[i]] = Integer.MIN_VALUE;
+                touchedTerms[touched++] = matches.terms[i];
+            }
+            for( int g = 1; g < grams.length; g++ ) {
+                int[] list = gramTerms[grams[g]];
+                for( int i = 0; i < gramTermCounts[grams[g]]; i++ ) {
+                    if( termHits[list[i]]++ == 0 ) {
+                        touchedTerms[touched++] = list[i];
+                    }
+                }
+            }
+
+            int[][] columns = new int[3][word.length() + 1];
+            for( int i = 0; i < touched; i++ ) {
+                int term = touchedTerms[i];
+                if( termHits[term] >= threshold && prefixDistance( word, terms[term], columns ) <= MAX_EDITS ) {
+                    matches.add( term, TYPO_SCORE );
+                }
+                termHits[term] = 0;
+            }
+        }
+
+        matches.sortByScore();
+        for( int i = 0; i < matches.size; i++ ) {
+            matches.postings += termDocCounts[matches.terms[i]];
+        }
+        return matches;
+    }
+
+    private boolean containsAll( int[] grams, int term ) {
+        for( int gram : grams ) {
+            if( Arrays.binarySearch( gramTerms[gram], 0, gramTermCounts[gram], term ) < 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    //------------------------------- Updates ---------------------------------
+    //-------------------------------------------------------------------------
+    private boolean put( String empID, String lName, String fName, String street, String city, String state,
+                         String zip, int revnum ) {
+        if( empID == null ) {
+            return false;
+        }
+
+        Integer existing = docIDs.get( empID );
+        if( existing != null ) {
+            if( revnums[existing] >= revnum ) {
+                return false;
+            }
+            deleted.set( existing );
+        }
+
+        String label = orEmpty( lName ) + ", " + orEmpty( fName ) + " (" + empID + ")  " + orEmpty( city ) + " "
+                + orEmpty( state );
+        Set<String> words = tokenize( lName, fName, street, city, state, zip );
+        int[] wordTerms = new int[words.size()];
+        int i = 0;
+        for( String word : words ) {
+            wordTerms[i++] = termID( word );
+        }
+
+        add( empID, label, revnum, wordTerms );
+        compactIfSparse();
+        return true;
+    }
+
+    private void add( String empID, String label, int revnum, int[] wordTerms ) {
+        if( docCount == empIDs.length ) {
+            growDocs( docCount * 2 );
+        }
+
+        int doc = docCount++;
+        empIDs[doc] = empID;
+        labels[doc] = label;
+        revnums[doc] = revnum;
+        docTerms[doc] = wordTerms;
+        docIDs.put( empID, doc );
+
+        for( int term : wordTerms ) {
+            int size = termDocCounts[term];
+            if( termDocs[term] == null ) {
+                termDocs[term] = new int[4];
+            }
+            else if( size == termDocs[term].length ) {
+                termDocs[term] = Arrays.copyOf( termDocs[term], size * 2 );
+            }
+            termDocs[term][size] = doc;
+            termDocCounts[term] = size + 1;
+        }
+    }
+
+    /** @return The id of a term, adding it to the vocabulary and the trigram lists if it is new. */
+    private int termID( String word ) {
+        Integer existing = termIDs.get( word );
+        if( existing != null ) {
+            return existing;
+        }
+
+        if( termCount == terms.length ) {
+            growTerms( termCount * 2 );
+        }
+        int term = termCount++;
+        terms[term] = word;
+        termIDs.put( word, term );
+
+        for( int gram : gramsOf( word ) ) {
+            int size = gramTermCounts[gram];
+            if( gramTerms[gram] == null ) {
+                gramTerms[gram] = new int[4];
+            }
+            else if( size == gramTerms[gram].length ) {
+                gramTerms[gram] = Arrays.copyOf( gramTerms[gram], size * 2 );
+            }
+            gramTerms[gram][size] = term;
+            gramTermCounts[gram] = size + 1;
+        }
+        return term;
+    }
+
+    /** Rebuild everything from the live documents once deleted ones make up half the index. */
+    private void compactIfSparse() {
+        int deletedCount = deleted.cardinality();
+        if( deletedCount < MIN_COMPACT_DELETES || deletedCount * 2 < docCount ) {
+            return;
+        }
+
+        String[] oldTerms = terms;
+        String[] oldEmpIDs = empIDs;
+        String[] oldLabels = labels;
+        int[] oldRevnums = revnums;
+        int[][] oldDocTerms = docTerms;
+        int oldCount = docCount;
+        BitSet oldDeleted = ( BitSet ) deleted.clone();
+
+        Arrays.fill( gramTerms, null );
+        Arrays.fill( gramTermCounts, 0 );
+        termIDs.clear();
+        terms = new String[terms.length];
+        termDocs = new int[terms.length][];
+        termDocCounts = new int[terms.length];
+        termCount = 0;
+
+        deleted.clear();
+        docIDs.clear();
+        empIDs = new String[empIDs.length];
+        labels = new String[labels.length];
+        revnums = new int[revnums.length];
+        docTerms = new int[docTerms.length][];
+        docCount = 0;
+
+        for( int doc = oldDeleted.nextClearBit( 0 ); doc < oldCount; doc = oldDeleted.nextClearBit( doc + 1 ) ) {
+            int[] wordTerms = new int[oldDocTerms[doc].length];
+            for( int i = 0; i < wordTerms.length; i++ ) {
+                wordTerms[i] = termID( oldTerms[oldDocTerms[doc][i]] );
+            }
+            add( oldEmpIDs[doc], oldLabels[doc], oldRevnums[doc], wordTerms );
+        }
+    }
+
+    private void growDocs( int capacity ) {
+        empIDs = Arrays.copyOf( empIDs, capacity );
+        labels = Arrays.copyOf( labels, capacity );
+        revnums = Arrays.copyOf( revnums, capacity );
+        docTerms = Arrays.copyOf( docTerms, capacity );
+        docWords = Arrays.copyOf( docWords, capacity );
+        docScores = Arrays.copyOf( docScores, capacity );
+        touchedDocs = Arrays.copyOf( touchedDocs, capacity );
+    }
+
+    private void growTerms( int capacity ) {
+        terms = Arrays.copyOf( terms, capacity );
+        termDocs = Arrays.copyOf( termDocs, capacity );
+        termDocCounts = Arrays.copyOf( termDocCounts, capacity );
+        termHits = Arrays.copyOf( termHits, capacity );
+        touchedTerms = Arrays.copyOf( touchedTerms, capacity );
+    }
+
+    //-------------------------------------------------------------------------
+    //--------------------------------- Text ----------------------------------
+    //-------------------------------------------------------------------------
+
+    /**
+     * Edit distance between a word and the closest prefix of a term, counting a swap of neighbouring letters as one
+     * edit.  Computed a column at a time and given up once every cell is over MAX_EDITS.
+     * @param word    Query word.
+     * @param term    Indexed term.
+     * @param columns Three scratch arrays one longer than the word.
+     * @return The distance, or MAX_EDITS + 1 if it is larger.
+     */
+    private static int prefixDistance( String word, String term, int[][] columns ) {
+        int length = word.length();
+        int[] before = columns[0];
+        int[] column = columns[1];
+        int[] next = columns[2];
+        for( int i = 0; i <= length; i++ ) {
+            column[i] = i;
+        }
+
+        int best = length;
+        int stop = Math.min( term.length(), length + MAX_EDITS );
+        for( int j = 1; j <= stop && best > 0; j++ ) {
+            char c = term.charAt( j - 1 );
+            next[0] = j;
+            int columnMin = j;
+            for( int i = 1; i <= length; i++ ) {
+                int cost = word.charAt( i - 1 ) == c ? 0 : 1;
+                int distance = Math.min( column[i - 1] + cost, Math.min( column[i], next[i - 1] ) + 1 );
+                if( i > 1 && j > 1 && word.charAt( i - 1 ) == term.charAt( j - 2 ) && word.charAt( i - 2 ) == c ) {
+                    distance = Math.min( distance, before[i - 2] + 1 );
+                }
+                next[i] = distance;
+                columnMin = Math.min( columnMin, distance );
+            }
+            best = Math.min( best, next[length] );
+            if( columnMin > MAX_EDITS ) {
+                break;
+            }
+
+            int[] swap = before;
+            before = column;
+            column = next;
+            next = swap;
+        }
+
+        return Math.min( best, MAX_EDITS + 1 );
+    }
+
+    /**
+     * Get the grams of a word: the gram of its first letter, then the distinct trigrams of the word with a leading
+     * space, so a trigram at the start of a word never matches inside one.
+     * @param word Normalized word.
+     * @return Keys of the word's posting lists.
+     */
+    private static int[] gramsOf( String word ) {
+        int[] grams = new int[word.length()];
+        int count = 0;
+        grams[count++] = TRIGRAMS + code( word.charAt( 0 ) );
+
+        int previous = code( ' ' );
+        int current = code( word.charAt( 0 ) );
+        for( int i = 1; i < word.length(); i++ ) {
+            int following = code( word.charAt( i ) );
+            int gram = ( previous * ALPHABET + current ) * ALPHABET + following;
+            if( indexOf( grams, count, gram ) < 0 ) {
+                grams[count++] = gram;
+            }
+            previous = current;
+            current = following;
+        }
+
+        return count == grams.length ? grams : Arrays.copyOf( grams, count );
+    }
+
+    private static int indexOf( int[] values, int count, int value ) {
+        for( int i = 0; i < count; i++ ) {
+            if( values[i] == value ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Fold a normalized character into 0 to ALPHABET - 1.  Rare characters share codes, matches are verified anyway. */
+    private static int code( char c ) {
+        if( c == ' ' ) {
+            return 0;
+        }
+        if( c >= 'a' && c <= 'z' ) {
+            return c - 'a' + 1;
+        }
+        if( c >= '0' && c <= '9' ) {
+            return c - '0' + 27;
+        }
+        return 37 + c % ( ALPHABET - 37 );
+    }
+
+    /**
+     * Split text into lower case words of letters and digits.  Apostrophes are dropped rather than splitting, so
+     * O'Brien is one word.
+     * @param fields Text to split, nulls are skipped.
+     * @return The distinct words in order.
+     */
+    static Set<String> tokenize( String... fields ) {
+        Set<String> words = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder( 16 );
+        for( String field : fields ) {
+            if( field == null ) {
+                continue;
+            }
+            for( int i = 0; i <= field.length(); i++ ) {
+                char c = i < field.length() ? Character.toLowerCase( field.charAt( i ) ) : ' ';
+                if( Character.isLetterOrDigit( c ) ) {
+                    word.append( c );
+                }
+                else if( c != '\'' && c != '\u2019' && word.length() > 0 ) {
+                    words.add( word.toString() );
+                    word.setLength( 0 );
+                }
+            }
+        }
+        return words;
+    }
+
+    private static String orEmpty( String value ) {
+        return value == null ? "" : value;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "db.EmployeeSearchIndex{" +
+                "employees=" + docIDs.size() +
+                ", deleted=" + deleted.cardinality() +
+                ", terms=" + termCount +
+                '}';
+    }
+
+    /** Terms matching one query word, with their scores and how many employees they list in total. */
+    private static class TermMatches {
+        private int[] terms = new int[8];
+        private int[] scores = new int[8];
+        private int size;
+        private long postings;
+
+        private void add( int term, int score ) {
+            if( size == terms.length ) {
+                terms = Arrays.copyOf( terms, size * 2 );
+                scores = Arrays.copyOf( scores, size * 2 );
+            }
+            terms[size] = term;
+            scores[size++] = score;
+        }
+
+        /** Order by descending score, keeping term order within a score. */
+        private void sortByScore() {
+            long[] packed = new long[size];
+            for( int i = 0; i < size; i++ ) {
+                packed[i] = ( ( long ) -scores[i] << 32 ) | terms[i];
+            }
+            Arrays.sort( packed );
+            for( int i = 0; i < size; i++ ) {
+                terms[i] = ( int ) packed[i];
+                scores[i] = -( int ) ( packed[i] >> 32 );
+            }
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package db;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+/**
+ * EmployeeTable holds the whole EMPS table in memory column by column, for scans and aggregations that would be too
+ * slow or too large as a list of Employee objects.  SALARY, REVNUM and ZIP are primitive ints, STATE and CITY are
+ * dictionary-encoded, and EMPID, the names and STREET are fixed-width Latin-1 byte arrays sized by the Employee
+ * length limits.  The rare value that doesn't fit its compact form is kept as-is on the side.
+ * <p>
+ * Rows are addressed by their index, 0 to size() - 1, in load order.  A table isn't safe for concurrent writes, but
+ * once loaded it may be read from any number of threads.
+ */
+public class EmployeeTable {
+    /**
+     * Key of the rows without a STATE in salaryStatsByState().  Oracle stores an empty string as NULL, so no row can
+     * have it as its real STATE, and rows from other databases with an empty STATE are counted with the NULL ones.
+     */
+    public static final String NO_STATE = "";
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final String LOAD_SQL =
+            "SELECT empid, lname, fname, salary, street, city, state, zip, revnum FROM EMPS ORDER BY empid";
+
+    // ZIPs are packed as (length << 20) | value so leading zeros survive, -1 means the ZIP isn't all digits
+    private static final int ZIP_LENGTH_SHIFT = 20;
+    private static final int ZIP_VALUE_MASK = (1 << ZIP_LENGTH_SHIFT) - 1;
+    private static final int ZIP_OVERFLOW = -1;
+
+    private int size;
+    private int[] salaries;
+    private int[] revnums;
+    private int[] zips;
+    private int[] stateCodes;
+    private int[] cityCodes;
+    private final FixedWidthColumn empIds = new FixedWidthColumn( EmployeeField.EMPID );
+    private final FixedWidthColumn lNames = new FixedWidthColumn( EmployeeField.LNAME );
+    private final FixedWidthColumn fNames = new FixedWidthColumn( EmployeeField.FNAME );
+    private final FixedWidthColumn streets = new FixedWidthColumn( EmployeeField.STREET );
+    private final Dictionary states = new Dictionary();
+    private final Dictionary cities = new Dictionary();
+    private final Map<Integer, String> zipOverflow = new HashMap<>();
+
+    public EmployeeTable() {
+        this( INITIAL_CAPACITY );
+    }
+
+    /** @param capacity Number of rows to allocate room for up front. */
+    public EmployeeTable( int capacity ) {
+        capacity = Math.max( 1, capacity );
+        salaries = new int[capacity];
+        revnums = new int[capacity];
+        zips = new int[capacity];
+        stateCodes = new int[capacity];
+        cityCodes = new int[capacity];
+        empIds.grow( capacity );
+        lNames.grow( capacity );
+        fNames.grow( capacity );
+        streets.grow( capacity );
+    }
+
+    /**
+     * Load the whole EMPS table in one streaming pass.  No Employee objects are created along the way.
+     * @param conn      DB Connection to read from.
+     * @param fetchSize Rows the driver fetches per round trip.
+     * @return The loaded table.
+     * @throws SQLException If the query fails.
+     */
+    public static EmployeeTable load( Connection conn, int fetchSize ) throws SQLException {
+        EmployeeTable table = new EmployeeTable();
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit( false );
+
+        try( Statement statement = conn.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY ) ) {
+            statement.setFetchSize( fetchSize );
+
+            try( ResultSet rset = statement.executeQuery( LOAD_SQL ) ) {
+                while( rset.next() ) {
+                    table.add( rset.getString( 1 ), rset.getString( 2 ), rset.getString( 3 ), rset.getInt( 4 ),
+                               rset.getString( 5 ), rset.getString( 6 ), rset.getString( 7 ), rset.getString( 8 ),
+                               rset.getInt( 9 ) );
+                }
+            }
+        }
+        finally {
+            conn.rollback();
+            conn.setAutoCommit( autoCommit );
+        }
+
+        return table;
+    }
+
+    /**
+     * Append an Employee as a new row.
+     * @param employee Employee to add.
+     * @return Index of the new row.
+     */
+    public int add( Employee employee ) {
+        return add( employee.getEmpID(), employee.getlName(), employee.getfName(), employee.getSalary(),
+                    employee.getStreet(), employee.getCity(), employee.getState(), employee.getZip(),
+                    employee.getRevnum() );
+    }
+
+    /**
+     * Append a row.
+     * @return Index of the new row.
+     */
+    public int add( String empID, String lName, String fName, int salary, String street, String city, String state,
+                    String zip, int revnum ) {
+        if( size == salaries.length ) {
+            ensureCapacity( size * 2 );
+        }
+
+        int row = size++;
+        empIds.set( row, empID );
+        lNames.set( row, lName );
+        fNames.set( row, fName );
+        salaries[row] = salary;
+        streets.set( row, street );
+        cityCodes[row] = cities.encode( city );
+        stateCodes[row] = states.encode( state );
+        zips[row] = packZip( row, zip );
+        revnums[row] = revnum;
+
+        return row;
+    }
+
+    //-------------------------------------------------------------------------
+    //------------------------------- Row access ------------------------------
+    //-------------------------------------------------------------------------
+    public int size() {
+        return size;
+    }
+
+    public String getEmpID( int row ) {
+        return empIds.get( checkRow( row ) );
+    }
+
+    public String getlName( int row ) {
+        return lNames.get( checkRow( row ) );
+    }
+
+    public String getfName( int row ) {
+        return fNames.get( checkRow( row ) );
+    }
+
+    public int getSalary( int row ) {
+        return salaries[checkRow( row )];
+    }
+
+    public String getStreet( int row ) {
+        return streets.get( checkRow( row ) );
+    }
+
+    public String getCity( int row ) {
+        return cities.decode( cityCodes[checkRow( row )] );
+    }
+
+    public String getState( int row ) {
+        return states.decode( stateCodes[checkRow( row )] );
+    }
+
+    public String getZip( int row ) {
+        int packed = zips[checkRow( row )];
+        if( packed == ZIP_OVERFLOW ) {
+            return zipOverflow.get( row );
+        }
+
+        StringBuilder zip = new StringBuilder( Integer.toString( packed & ZIP_VALUE_MASK ) );
+        int length = packed >>> ZIP_LENGTH_SHIFT;
+        while( zip.length() < length ) {
+            zip.insert( 0, '0' );
+        }
+        return zip.toString();
+    }
+
+    public int getRevnum( int row ) {
+        return revnums[checkRow( row )];
+    }
+
+    /**
+     * Materialize one row as an Employee.
+     * @param row Index of the row.
+     * @return A new Employee with no changed fields, or null if the row holds values an Employee can't (such as null
+     * columns).
+     */
+    public Employee getEmployee( int row ) {
+        Employee employee = Employee.create( getEmpID( row ), getlName( row ), getfName( row ), getSalary( row ),
+                                             getStreet( row ), getCity( row ), getState( row ), getZip( row ),
+                                             getRevnum( row ), new ValidationResult() );
+        if( employee != null ) {
+            employee.markClean();
+        }
+        return employee;
+    }
+
+    //-------------------------------------------------------------------------
+    //-------------------------- Scans and aggregates -------------------------
+    //-------------------------------------------------------------------------
+
+    /**
+     * Find the rows matching a predicate on the row index.  Use the getters or the code lookups inside the predicate.
+     * @param predicate Test applied to each row index.
+     * @return Indexes of the matching rows in ascending order.
+     */
+    public int[] filter( IntPredicate predicate ) {
+        int[] matches = new int[16];
+        int count = 0;
+
+        for( int row = 0; row < size; row++ ) {
+            if( predicate.test( row ) ) {
+                if( count == matches.length ) {
+                    matches = Arrays.copyOf( matches, count * 2 );
+                }
+                matches[count++] = row;
+            }
+        }
+
+        return Arrays.copyOf( matches, count );
+    }
+
+    /**
+     * Find every row in a state by comparing dictionary codes, without decoding any strings.
+     * @param state STATE value.
+     * @return Indexes of the matching rows.
+     */
+    public int[] filterByState( String state ) {
+        int code = states.lookup( state );
+        return code < 0 ? new int[0] : filter( row -> stateCodes[row] == code );
+    }
+
+    /**
+     * Find every row with a salary in a range.
+     * @param min Lowest salary, inclusive.
+     * @param max Highest salary, inclusive.
+     * @return Indexes of the matching rows.
+     */
+    public int[] filterBySalary( int min, int max ) {
+        return filter( row -> salaries[row] >= min && salaries[row] <= max );
+    }
+
+    /** @return Count, sum, min, max and average salary of the whole table. */
+    public IntSummaryStatistics salaryStats() {
+        IntSummaryStatistics stats = new IntSummaryStatistics();
+        for( int row = 0; row < size; row++ ) {
+            stats.accept( salaries[row] );
+        }
+        return stats;
+    }
+
+    /**
+     * @param rows Row indexes, such as the result of a filter.
+     * @return Salary statistics of those rows.
+     */
+    public IntSummaryStatistics salaryStats( int[] rows ) {
+        IntSummaryStatistics stats = new IntSummaryStatistics();
+        for( int row : rows ) {
+            stats.accept( salaries[checkRow( row )] );
+        }
+        return stats;
+    }
+
+    /**
+     * Salary statistics grouped by state.  Grouping runs over the state codes, one statistics object per state.
+     * @return Statistics keyed by STATE, sorted by state, with rows that have no STATE first under NO_STATE.
+     */
+    public Map<String, IntSummaryStatistics> salaryStatsByState() {
+        IntSummaryStatistics[] byCode = new IntSummaryStatistics[states.size()];
+        for( int row = 0; row < size; row++ ) {
+            int code = stateCodes[row];
+            if( byCode[code] == null ) {
+                byCode[code] = new IntSummaryStatistics();
+            }
+            byCode[code].accept( salaries[row] );
+        }
+
+        Map<String, IntSummaryStatistics> result = new TreeMap<>();
+        for( int code = 0; code < byCode.length; code++ ) {
+            if( byCode[code] != null ) {
+                String state = states.decode( code );
+                result.merge( state == null ? NO_STATE : state, byCode[code], ( stats, more ) -> {
+                    stats.combine( more );
+                    return stats;
+                } );
+            }
+        }
+        return result;
+    }
+
+    /** @return Distinct STATE values, in the order first seen. */
+    public List<String> getStates() {
+        return states.values();
+    }
+
+    /** @return Distinct CITY values, in the order first seen. */
+    public List<String> getCities() {
+        return cities.values();
+    }
+
+    /** @return Approximate bytes held by the column arrays, excluding the dictionaries and overflow values. */
+    public long estimatedBytes() {
+        long ints = 5L * Integer.BYTES * salaries.length;
+        return ints + empIds.bytes() + lNames.bytes() + fNames.bytes() + streets.bytes();
+    }
+
+    private int checkRow( int row ) {
+        if( row < 0 || row >= size ) {
+            throw new IndexOutOfBoundsException( "Row " + row + " of " + size );
+        }
+        return row;
+    }
+
+    private void ensureCapacity( int capacity ) {
+        salaries = Arrays.copyOf( salaries, capacity );
+        revnums = Arrays.copyOf( revnums, capacity );
+        zips = Arrays.copyOf( zips, capacity );
+        stateCodes = Arrays.copyOf( stateCodes, capacity );
+        cityCodes = Arrays.copyOf( cityCodes, capacity );
+        empIds.grow( capacity );
+        lNames.grow( capacity );
+        fNames.grow( capacity );
+        streets.grow( capacity );
+    }
+
+    private int packZip( int row, String zip ) {
+        if( zip != null && !zip.isEmpty() && zip.length() <= Employee.ZIP_LENGTH ) {
+            int value = 0;
+            boolean digits = true;
+            for( int i = 0; i < zip.length() && digits; i++ ) {
+                char c = zip.charAt( i );
+                digits = c >= '0' && c <= '9';
+                value = value * 10 + (c - '0');
+            }
+            if( digits ) {
+                return (zip.length() << ZIP_LENGTH_SHIFT) | value;
+            }
+        }
+
+        zipOverflow.put( row, zip );
+        return ZIP_OVERFLOW;
+    }
+
+    /**
+     * A string column stored as one fixed-width slot of Latin-1 bytes per row.  The first byte of a slot holds the
+     * value's length, or a marker for null and for values kept in the overflow map because they don't fit.
+     */
+    private static class FixedWidthColumn {
+        private static final byte NULL = -1;
+        private static final byte OVERFLOW = -2;
+
+        private final int width;
+        private final Map<Integer, String> overflow = new HashMap<>();
+        private byte[] data = new byte[0];
+
+        private FixedWidthColumn( EmployeeField field ) {
+            this.width = field.getMaxLength() + 1;
+        }
+
+        private void grow( int capacity ) {
+            data = Arrays.copyOf( data, capacity * width );
+        }
+
+        private void set( int row, String value ) {
+            int offset = row * width;
+
+            if( value == null ) {
+                data[offset] = NULL;
+                return;
+            }
+            if( value.length() >= width || !isLatin1( value ) ) {
+                data[offset] = OVERFLOW;
+                overflow.put( row, value );
+                return;
+            }
+
+            data[offset] = ( byte ) value.length();
+            for( int i = 0; i < value.length(); i++ ) {
+                data[offset + 1 + i] = ( byte ) value.charAt( i );
+            }
+        }
+
+        private String get( int row ) {
+            int offset = row * width;
+            byte length = data[offset];
+
+            if( length == NULL ) {
+                return null;
+            }
+            if( length == OVERFLOW ) {
+                return overflow.get( row );
+            }
+            return new String( data, offset + 1, length, StandardCharsets.ISO_8859_1 );
+        }
+
+        private long bytes() {
+            return data.length;
+        }
+
+        private static boolean isLatin1( String value ) {
+            for( int i = 0; i < value.length(); i++ ) {
+                if( value.charAt( i ) > 0xFF ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Maps each distinct string of a low-cardinality column to a small int code. */
+    private static class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        private int encode( String value ) {
+            Integer code = codes.get( value );
+            if( code == null ) {
+                code = values.size();
+                values.add( value );
+                codes.put( value, code );
+            }
+            return code;
+        }
+
+        private String decode( int code ) {
+            return values.get( code );
+        }
+
+        private int lookup( String value ) {
+            Integer code = codes.get( value );
+            return code == null ? -1 : code;
+        }
+
+        private int size() {
+            return values.size();
+        }
+
+        private List<String> values() {
+            return new ArrayList<>( values );
+        }
+    }
+}
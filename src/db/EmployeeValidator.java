@@ -0,0 +1,82 @@
+package db;
+
+/**
+ * EmployeeValidator checks Employee field values against the column limits without throwing or allocating, so bulk
+ * paths can validate millions of rows cheaply and report every bad field of a row at once.
+ */
+public class EmployeeValidator {
+    private EmployeeValidator() {
+    }
+
+    /**
+     * Validate every field of a row.
+     * @param result Reset, then filled with the fields that failed.
+     * @return true if all fields are valid.
+     */
+    public static boolean validate( String empID, String lName, String fName, int salary, String street, String city,
+                                    String state, String zip, int revnum, ValidationResult result ) {
+        result.reset();
+        check( result, EmployeeField.EMPID, empID );
+        check( result, EmployeeField.LNAME, lName );
+        check( result, EmployeeField.FNAME, fName );
+        check( result, EmployeeField.SALARY, salary );
+        check( result, EmployeeField.STREET, street );
+        check( result, EmployeeField.CITY, city );
+        check( result, EmployeeField.STATE, state );
+        check( result, EmployeeField.ZIP, zip );
+        check( result, EmployeeField.REVNUM, revnum );
+        return result.isValid();
+    }
+
+    /**
+     * @param field Field being set.
+     * @param value Text value, null is never valid.
+     * @return true if the value fits the field's column.
+     */
+    public static boolean isValid( EmployeeField field, String value ) {
+        return value != null && value.length() <= field.getMaxLength();
+    }
+
+    /**
+     * @param field Field being set.
+     * @param value Numeric value.
+     * @return true if the value, written in decimal, fits the field's column.
+     */
+    public static boolean isValid( EmployeeField field, int value ) {
+        return decimalLength( value ) <= field.getMaxLength();
+    }
+
+    /**
+     * Count the characters of an int written in decimal, including a minus sign, without building the String.
+     * @param value Value to measure.
+     * @return Same as Integer.toString( value ).length().
+     */
+    public static int decimalLength( int value ) {
+        if( value == Integer.MIN_VALUE ) {
+            return 11;
+        }
+
+        int length = 1;
+        if( value < 0 ) {
+            length++;
+            value = -value;
+        }
+        while( value >= 10 ) {
+            value /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    private static void check( ValidationResult result, EmployeeField field, String value ) {
+        if( !isValid( field, value ) ) {
+            result.add( field );
+        }
+    }
+
+    private static void check( ValidationResult result, EmployeeField field, int value ) {
+        if( !isValid( field, value ) ) {
+            result.add( field );
+        }
+    }
+}
@@ -1,177 +1,1707 @@
 package db;
 
-import java.io.File;
+import db.FactoryMetrics.Operation;
+import db.FactoryMetrics.Phase;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.sql.*;
-import java.util.Scanner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /** The Factory class is responsible for handling all communication between the Application and the database. */
 public class Factory {
-    private static String SERVER = "";
-    private static String USERNAME = "";
-    private static String PASSWORD = "";
+    private static final String SELECT_EMPLOYEE_SQL = "SELECT * FROM EMPS WHERE empid=?";
+    private static final String COUNT_EMPLOYEES_SQL = "SELECT COUNT(*) FROM EMPS";
+    private static final String SELECT_FIRST_PAGE_SQL = "SELECT * FROM EMPS ORDER BY empid FETCH FIRST ? ROWS ONLY";
+    private static final String SELECT_PAGE_AFTER_SQL =
+            "SELECT * FROM EMPS WHERE empid > ? ORDER BY empid FETCH FIRST ? ROWS ONLY";
+    private static final String SELECT_PAGE_AT_SQL = "SELECT * FROM EMPS ORDER BY empid OFFSET ? ROWS FETCH NEXT ? ROWS ONLY";
+    private static final String SELECT_REVNUM_SQL = "SELECT revnum FROM EMPS WHERE empid=?";
+    private static final String[] REVNUM_COLUMN = { "REVNUM" };
+    private static final String SELECT_LAST_CHANGE_SQL = "SELECT COALESCE(MAX(seq), 0) FROM EMPS_CHANGES";
+    private static final String SELECT_CHANGES_SQL =
+            "SELECT seq, empid, revnum, op FROM EMPS_CHANGES WHERE seq > ? ORDER BY seq FETCH FIRST ? ROWS ONLY";
+    private static final String SELECT_CHANGES_IN_SQL = "SELECT seq, empid, revnum, op FROM EMPS_CHANGES WHERE seq IN ("
+            + placeholders( ChangeFeed.GAP_LOOKUP_SIZE ) + ")";
+
+    // UPDATE statements only set the changed columns, their SQL is built once per field mask.  The optimistic flag
+    // sits above the field bits.  Every UPDATE bumps REVNUM itself, the schema has no trigger doing it, see emps.sql.
+    private static final int OPTIMISTIC_UPDATE = 1 << EmployeeField.count();
+    private static final ConcurrentHashMap<Integer, String> updateSql = new ConcurrentHashMap<>();
+
+    // Set-based statements bind a fixed number of EMPIDs so the SQL text, and so the cached statement, never changes
+    private static final int IN_LIST_SIZE = 100;
+    private static final String SELECT_REVNUMS_SQL =
+            "SELECT empid, revnum FROM EMPS WHERE empid IN (" + placeholders( IN_LIST_SIZE ) + ")";
+    private static final String SELECT_EMPLOYEES_SQL =
+            "SELECT * FROM EMPS WHERE empid IN (" + placeholders( IN_LIST_SIZE ) + ")";
+
+    private static volatile DbConfig config;
+    private static volatile ConnectionPool pool;
+    private static DbConfigWatcher configWatcher;
+    private static volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private static ChangeFeed changeFeed;
+    private static WriteBehindQueue writeBehindQueue;
+    private static volatile ReplicaRouter replicaRouter;
+    private static EmployeeCacheSnapshot cacheSnapshot;
+    private static final Object searchIndexLock = new Object();
+    private static volatile EmployeeSearchIndex searchIndex;
+    private static boolean configLoaded;
+    private static final EmployeeCache employeeCache =
+            new EmployeeCache( EmployeeCache.DEFAULT_MAX_SIZE, EmployeeCache.DEFAULT_TTL_MILLIS );
+    private static final FactoryMetrics metrics = new FactoryMetrics();
+    private static final EmployeeRowMapper rowMapper = new EmployeeRowMapper( EmployeeRowMapper.DEFAULT_CANONICAL_SIZE );
+
+    // Loads currently running, so concurrent requests for the same EMPID can wait for one query instead of each
+    // running their own
+    private static final ConcurrentHashMap<String, CompletableFuture<Employee>> loadsInFlight =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Get the database settings, reading them on first use.  Settings read from a file are watched, and edits to the
+     * file are applied without a restart.
+     * @return The current settings, or null if none could be found.
+     */
+    public static DbConfig getConfig() {
+        DbConfig current = config;
+        if( current == null ) {
+            synchronized( Factory.class ) {
+                if( !configLoaded ) {
+                    configLoaded = true;
+                    try {
+                        config = DbConfig.load();
+                        if( config.getSource() != null ) {
+                            configWatcher = new DbConfigWatcher( config, Factory::applyConfig );
+                        }
+                    }
+                    catch( IOException e ) {
+                        System.err.println( "Error loading DB data from file." + e );
+                    }
+                }
+                current = config;
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Use the given settings instead of the ones found on startup, which stop being watched.  The connection pool is
+     * replaced if the new settings change it.
+     * @param newConfig Settings to use for all further calls.
+     */
+    public static void setConfig( DbConfig newConfig ) {
+        synchronized( Factory.class ) {
+            configLoaded = true;
+            if( configWatcher != null ) {
+                configWatcher.close();
+                configWatcher = null;
+            }
+        }
+
+        applyConfig( newConfig );
+    }
+
+    /**
+     * Switch to new settings.  A new pool is only built if the URL, credentials, size or timeouts changed, new replica
+     * pools also if the replica URLs changed.  AsyncFactory's executor follows the pool size.  Calls already holding a connection finish on the old pool, which closes
+     * each connection as it comes back.
+     * @param newConfig Settings to switch to.
+     */
+    private static void applyConfig( DbConfig newConfig ) {
+        ConnectionPool old = null;
+        synchronized( Factory.class ) {
+            DbConfig previous = config;
+            config = newConfig;
+            if( pool != null && newConfig.needsNewPool( previous ) ) {
+                old = pool;
+                pool = newConfig.createPool();
+            }
+            if( pool != null && newConfig.needsNewReplicas( previous ) ) {
+                setReplicaRouter( newConfig.createReplicaRouter() );
+            }
+        }
+
+        if( old != null ) {
+            old.close();
+        }
+        AsyncFactory.onConfigChanged( newConfig );
+    }
+
+    /**
+     * Get the shared connection pool, creating it from the settings on first use.
+     * @return The pool every Factory call borrows from.
+     * @throws SQLException If there are no settings to create it from.
+     */
+    private static ConnectionPool getPool() throws SQLException {
+        ConnectionPool current = pool;
+        if( current == null ) {
+            synchronized( Factory.class ) {
+                current = pool;
+                if( current == null ) {
+                    DbConfig settings = getConfig();
+                    if( settings == null ) {
+                        throw new SQLException( "No database settings available." );
+                    }
+                    current = settings.createPool();
+                    pool = current;
+                    if( replicaRouter == null ) {
+                        replicaRouter = settings.createReplicaRouter();
+                    }
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Replace the shared connection pool, e.g. to point the Factory at an embedded database.  The previous pool is
+     * closed.
+     * @param newPool Pool to use for all further calls.
+     */
+    public static void setConnectionPool( ConnectionPool newPool ) {
+        ConnectionPool old;
+        synchronized( Factory.class ) {
+            old = pool;
+            pool = newPool;
+        }
+
+        if( old != null && old != newPool ) {
+            old.close();
+        }
+    }
+
+    /**
+     * Spread plain reads over read replicas, or stop doing so.  Saves, reads that lock rows and the change log stay on
+     * the primary pool.  The previous router and its replica pools are closed.
+     * @param router Router over the replica pools, or null to read from the primary only.
+     */
+    public static void setReplicaRouter( ReplicaRouter router ) {
+        ReplicaRouter old;
+        synchronized( Factory.class ) {
+            old = replicaRouter;
+            replicaRouter = router;
+        }
+
+        if( old != null && old != router ) {
+            old.close();
+        }
+    }
+
+    /** @return The router spreading reads over replicas, or null if all reads go to the primary. */
+    public static ReplicaRouter getReplicaRouter() {
+        return replicaRouter;
+    }
+
+    /**
+     * @return Latencies and error counts of every Factory operation.  Call registerMBean() on it to publish them over
+     * JMX, which the GUI does on startup; the command line skips it, starting the MBean server costs a few hundred ms.
+     */
+    public static FactoryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** @return The mapper every query over EMPS builds its Employees with, for its throughput and allocation counts. */
+    public static EmployeeRowMapper getRowMapper() {
+        return rowMapper;
+    }
+
+    /** @return The policy saves use when their row is locked by another session. */
+    public static RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Change how saves react to rows locked by another session.
+     * @param policy Policy for all further saves, RetryPolicy.NONE to fail at once.
+     */
+    public static void setRetryPolicy( RetryPolicy policy ) {
+        retryPolicy = policy;
+    }
+
+    /**
+     * Get the feed of changes made to EMPS by any session, creating it on first use.  The feed keeps the employee
+     * cache current, but only polls once started.  It also tells the replica router about each change before any
+     * other subscriber hears of it, so reads the change triggers don't get an older revision from a lagging replica.
+     * @return The shared change feed.
+     */
+    public static synchronized ChangeFeed getChangeFeed() {
+        if( changeFeed == null ) {
+            changeFeed = new ChangeFeed( ChangeFeed.DEFAULT_BATCH_SIZE, ChangeFeed.DEFAULT_MIN_INTERVAL_MILLIS,
+                                         ChangeFeed.DEFAULT_MAX_INTERVAL_MILLIS );
+            changeFeed.subscribe( events -> {
+                ReplicaRouter router = replicaRouter;
+                if( router != null ) {
+                    router.recordChanges( events );
+                }
+                for( ChangeEvent event : events ) {
+                    employeeCache.onChanged( event.getEmpID(), event.getRevnum() );
+                }
+            } );
+        }
+        return changeFeed;
+    }
+
+    /**
+     * Get the write-behind queue, creating and starting it on first use.  Saves submitted to it are committed in
+     * groups through {@link #saveEmployees(Collection)}, for callers that save at a high rate and can wait a few
+     * milliseconds for the outcome.
+     * @return The shared write-behind queue.
+     */
+    public static synchronized WriteBehindQueue getWriteBehindQueue() {
+        if( writeBehindQueue == null ) {
+            writeBehindQueue = new WriteBehindQueue( WriteBehindQueue.DEFAULT_CAPACITY, WriteBehindQueue.DEFAULT_GROUP_SIZE,
+                                                     WriteBehindQueue.DEFAULT_WINDOW_MILLIS,
+                                                     WriteBehindQueue.DEFAULT_OFFER_TIMEOUT_MILLIS );
+            writeBehindQueue.start();
+        }
+        return writeBehindQueue;
+    }
+
+    /**
+     * Commit every save waiting in the write-behind queue and stop it, if it was ever used.  A later
+     * getWriteBehindQueue() starts a new one.
+     * @param timeoutMillis Longest to wait for the queue to drain.
+     * @return true if the queue drained in time or was never used.
+     */
+    public static synchronized boolean shutdownWriteBehindQueue( long timeoutMillis ) {
+        if( writeBehindQueue == null ) {
+            return true;
+        }
+
+        boolean drained = writeBehindQueue.shutdown( timeoutMillis );
+        if( !drained ) {
+            System.err.println( "Write-behind queue not drained after " + timeoutMillis + "ms: " + writeBehindQueue );
+        }
+        writeBehindQueue = null;
+        return drained;
+    }
+
+    /**
+     * Get the search index over employee names and addresses, loading the whole table into it on first use.  The index
+     * follows the change feed, re-reading each employee whose REVNUM moved on.
+     * @return The index, or null if the table couldn't be loaded.
+     */
+    public static EmployeeSearchIndex getSearchIndex() {
+        EmployeeSearchIndex current = searchIndex;
+        if( current == null ) {
+            synchronized( searchIndexLock ) {
+                current = searchIndex;
+                if( current == null ) {
+                    EmployeeSearchIndex index = new EmployeeSearchIndex();
+
+                    // Follow the feed before loading so nothing changed during the load is missed, the index keeps
+                    // whichever revision of a row is newer
+                    Consumer<List<ChangeEvent>> listener = events -> AsyncFactory.submit( () -> {
+                        updateSearchIndex( index, events );
+                        return null;
+                    } );
+                    getChangeFeed().subscribe( listener );
 
+                    EmployeeTable table = loadEmployeeTable( EmployeeExporter.DEFAULT_FETCH_SIZE );
+                    if( table == null ) {
+                        getChangeFeed().unsubscribe( listener );
+                        return null;
+                    }
+                    index.putAll( table );
+                    searchIndex = current = index;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Apply a batch of changes to the search index, reading the changed rows with one lookup.  The replica router
+     * already knows the reported revisions, so rows a replica hasn't caught up on are read from the primary.
+     * @param index  Index to update.
+     * @param events Changes reported by the change feed.
+     */
+    private static void updateSearchIndex( EmployeeSearchIndex index, List<ChangeEvent> events ) {
+        List<String> changed = new ArrayList<>();
+        for( ChangeEvent event : events ) {
+            if( event.getType() == ChangeEvent.Type.DELETE ) {
+                index.remove( event.getEmpID() );
+            }
+            else if( index.getRevnum( event.getEmpID() ) < event.getRevnum() ) {
+                changed.add( event.getEmpID() );
+            }
+        }
 
-    private static void loadSettings(){
-        try{
-            Scanner fileScanner = new Scanner( new File(Factory.class.getResource( "db_settings.ini").toURI()) );
-            fileScanner.useDelimiter( "\\s" );
-            if(fileScanner.hasNext()){
-                SERVER = fileScanner.nextLine();
-                USERNAME = fileScanner.nextLine();
-                PASSWORD = fileScanner.nextLine();
+        EmployeeLookup lookup = changed.isEmpty() ? null : getEmployees( changed );
+        if( lookup != null ) {
+            for( Employee employee : lookup.getFound().values() ) {
+                index.put( employee );
             }
-            fileScanner.close();
         }
-        catch(Exception e){
-            System.err.println("Error loading DB data from file.");
+    }
+
+    /**
+     * Get the on-disk snapshot of the employee cache, creating it on first use.  Restoring it at startup lets the first
+     * reads of recently used employees get by with a REVNUM probe, starting it keeps the file current.
+     * @return The snapshot, or null if there are no database settings to tie it to.
+     */
+    public static synchronized EmployeeCacheSnapshot getCacheSnapshot() {
+        if( cacheSnapshot == null ) {
+            DbConfig settings = getConfig();
+            if( settings == null ) {
+                return null;
+            }
+            cacheSnapshot = new EmployeeCacheSnapshot( employeeCache, EmployeeCacheSnapshot.defaultFile(), settings.getUrl() );
         }
+        return cacheSnapshot;
+    }
+
+    /** @return The read-through cache in front of getEmployee, mostly for its statistics. */
+    public static EmployeeCache getEmployeeCache() {
+        return employeeCache;
     }
 
     /**
-     * Read an employee from the database, parse the data from it and insert into an Employee object.
+     * Read an employee from the database, parse the data from it and insert into an Employee object.  A cached copy is
+     * returned instead when the row's REVNUM shows it hasn't changed since it was cached.  If another thread is
+     * already loading the same EMPID this waits for its result rather than querying again.
      * @param empID EMPID of the row to load.
      * @return The Employee containing the row information or null if not found.
      */
     public static Employee getEmployee( String empID ) {
-        if(SERVER.isEmpty()){
-            loadSettings();
+        long start = System.nanoTime();
+        if( empID == null ) {
+            return null;
         }
 
-        Employee employee = null;
-        Connection conn = null;
+        CompletableFuture<Employee> load = new CompletableFuture<>();
+        CompletableFuture<Employee> inFlight = loadsInFlight.putIfAbsent( empID, load );
+        if( inFlight != null ) {
+            metrics.recordCoalescedLoad();
+            try {
+                Employee shared = inFlight.join();
+                // A load that read a lagging replica before a change was reported can't answer for it, read again
+                ReplicaRouter router = replicaRouter;
+                if( router != null && router.isStale( empID, shared == null ? -1 : shared.getRevnum() ) ) {
+                    return loadEmployee( empID );
+                }
+                // Callers edit the Employee they get, each one needs its own
+                return shared == null ? null : new Employee( shared );
+            }
+            catch( CompletionException e ) {
+                return null;
+            }
+            finally {
+                metrics.record( Operation.GET, start );
+            }
+        }
 
         try {
-            conn = DriverManager.getConnection( SERVER, USERNAME, PASSWORD );
+            Employee employee = loadEmployee( empID );
+            load.complete( employee == null ? null : new Employee( employee ) );
+            return employee;
+        }
+        catch( RuntimeException e ) {
+            load.completeExceptionally( e );
+            throw e;
+        }
+        finally {
+            loadsInFlight.remove( empID, load );
+            metrics.record( Operation.GET, start );
+        }
+    }
 
-            CallableStatement statement = conn.prepareCall( "SELECT * FROM EMPS WHERE empid=?" );
-            statement.setString( 1, empID );
+    /**
+     * Load an employee through the cache.
+     * @param empID EMPID of the row to load.
+     * @return The Employee or null if not found or the load failed.
+     */
+    private static Employee loadEmployee( String empID ) {
+        Employee employee = null;
+        PooledConnection conn = null;
+        SQLException failure = null;
+        ReplicaRouter router = replicaRouter;
+        int written = router == null ? -1 : router.getWrittenRevnum( empID );
+
+        try {
+            conn = borrowForRead();
 
-            ResultSet rset = statement.executeQuery();
+            // A lagging replica may not show this process's own save yet, a cached copy of that save is still current
+            PooledConnection probeConn = conn;
+            employee = employeeCache.get( empID, id -> {
+                int revnum = getRevNum( probeConn, id );
+                return revnum == -1 ? -1 : Math.max( revnum, written );
+            } );
+            if( employee != null ) {
+                return employee;
+            }
 
-            if( rset.next() ) {
-                employee = new Employee(
-                        rset.getString( "EMPID" ),
-                        rset.getString( "LNAME" ),
-                        rset.getString( "FNAME" ),
-                        rset.getInt( "SALARY" ),
-                        rset.getString( "STREET" ),
-                        rset.getString( "CITY" ),
-                        rset.getString( "STATE" ),
-                        rset.getString( "ZIP" ),
-                        rset.getInt( "REVNUM" )
-                );
+            employee = selectEmployee( conn, empID );
+            if( router != null && router.isStale( empID, employee == null ? -1 : employee.getRevnum() ) ) {
+                closeRead( conn, null );
+                conn = null;
+                conn = borrow();
+                employee = selectEmployee( conn, empID );
+            }
+            if( employee != null ) {
+                employeeCache.put( employee );
             }
         }
         catch( SQLException e ) {
+            failure = e;
+            metrics.recordError( e );
             System.err.println( "Could not load the db" + e );
         }
         catch( LengthException le ) {
             System.err.println( "Issue with field lengths." + le );
         }
         finally {
-            try {
-                if( conn != null ) {
-                    conn.close();
+            closeRead( conn, failure );
+        }
+
+        return employee;
+    }
+
+    /**
+     * Read one row of EMPS.
+     * @param conn  Connection to read on.
+     * @param empID EMPID of the row.
+     * @return The Employee, or null if there is no such row.
+     * @throws SQLException    If the query failed.
+     * @throws LengthException If a column doesn't fit the Employee limits.
+     */
+    private static Employee selectEmployee( PooledConnection conn, String empID ) throws SQLException, LengthException {
+        Employee employee = null;
+        ResultSet rset = null;
+
+        try {
+            PreparedStatement statement = prepare( conn, SELECT_EMPLOYEE_SQL );
+            statement.setString( 1, empID );
+
+            rset = executeQuery( statement );
+
+            long fetchStart = System.nanoTime();
+            try( EmployeeRowMapper.Binding rows = rowMapper.bind( rset ) ) {
+                if( rset.next() ) {
+                    employee = rows.map();
                 }
             }
-            catch( SQLException e ) {
-                e.printStackTrace();
-            }
+            metrics.record( Phase.FETCH, fetchStart );
+        }
+        finally {
+            closeResultSet( rset );
         }
 
         return employee;
     }
 
     /**
-     * Update an employee's information in the database.
-     * @param employee Employee to update in the database.
-     * @return String containing the results of the transaction.  "SUCCESS" of there were no errors.
+     * Read many employees over one connection, IN_LIST_SIZE EMPIDs per query.  Duplicate and null EMPIDs are dropped
+     * before querying.  Every employee read is also put in the cache.
+     * @param empIDs EMPIDs of the rows to load.
+     * @return The employees found and the EMPIDs that weren't, or null if a query failed.
      */
-    public static String saveEmployee( Employee employee ) {
-        if(SERVER.isEmpty()){
-            loadSettings();
-        }
+    public static EmployeeLookup getEmployees( Collection<String> empIDs ) {
+        long start = System.nanoTime();
+        Set<String> missing = new LinkedHashSet<>( empIDs );
+        missing.remove( null );
+        List<String> ids = new ArrayList<>( missing );
 
-        Connection conn = null;
-        String result;
+        Map<String, Employee> rows = new HashMap<>();
+        PooledConnection conn = null;
+        SQLException failure = null;
+        ReplicaRouter router = replicaRouter;
 
         try {
-            conn = DriverManager.getConnection( "jdbc:oracle:thin:@Picard2:1521:itec2", USERNAME, PASSWORD );
-            conn.setAutoCommit( false );
+            if( !ids.isEmpty() ) {
+                conn = borrowForRead();
+                selectEmployees( conn, ids, rows );
 
-            int revnum = getRevNumWithLock( conn, employee.getEmpID() );
-            if( revnum == employee.getRevnum() ) {
-                CallableStatement statement = conn.prepareCall(
-                        "UPDATE EMPS SET LNAME = ?, FNAME = ?, SALARY = ?, STREET = ?, CITY = ?, STATE = ?, ZIP = ? " +
-                                "WHERE empid = ?"
-                );
-                createUpdateCommand( employee, statement );
-                statement.executeUpdate();
+                // Rows a lagging replica shows older than this process saved them are read again from the primary
+                List<String> stale = new ArrayList<>();
+                if( router != null ) {
+                    for( String empID : ids ) {
+                        Employee employee = rows.get( empID );
+                        if( router.isStale( empID, employee == null ? -1 : employee.getRevnum() ) ) {
+                            stale.add( empID );
+                        }
+                    }
+                }
+                if( !stale.isEmpty() ) {
+                    closeRead( conn, null );
+                    conn = null;
+                    conn = borrow();
+                    // A row deleted on the primary must not keep its replica copy
+                    rows.keySet().removeAll( stale );
+                    selectEmployees( conn, stale, rows );
+                }
 
-                conn.commit();
-                result = "SUCCESS";
+                for( Employee employee : rows.values() ) {
+                    employeeCache.put( employee );
+                }
             }
-            else {
-                result = "REVNUM_ERROR";
-                conn.rollback();
+        }
+        catch( SQLException e ) {
+            failure = e;
+            metrics.recordError( e );
+            System.err.println( "Could not load the db" + e );
+            return null;
+        }
+        catch( LengthException le ) {
+            System.err.println( "Issue with field lengths." + le );
+            return null;
+        }
+        finally {
+            closeRead( conn, failure );
+            metrics.record( Operation.GET_MANY, start );
+        }
+
+        // Report in the order the EMPIDs were asked for
+        Map<String, Employee> found = new LinkedHashMap<>();
+        for( String empID : ids ) {
+            Employee employee = rows.get( empID );
+            if( employee != null ) {
+                found.put( empID, employee );
+                missing.remove( empID );
+            }
+        }
+
+        return new EmployeeLookup( found, missing );
+    }
+
+    /**
+     * Read rows of EMPS, IN_LIST_SIZE EMPIDs per query.
+     * @param conn Connection to read on.
+     * @param ids  EMPIDs of the rows, without duplicates.
+     * @param rows Receives each row found, by EMPID.
+     * @throws SQLException    If a query failed.
+     * @throws LengthException If a column doesn't fit the Employee limits.
+     */
+    private static void selectEmployees( PooledConnection conn, List<String> ids, Map<String, Employee> rows )
+            throws SQLException, LengthException {
+        PreparedStatement statement = prepare( conn, SELECT_EMPLOYEES_SQL );
+        ResultSet rset = null;
+
+        try {
+            for( int from = 0; from < ids.size(); from += IN_LIST_SIZE ) {
+                bindInList( statement, 1, ids.subList( from, Math.min( from + IN_LIST_SIZE, ids.size() ) ) );
+                rset = executeQuery( statement );
+
+                long fetchStart = System.nanoTime();
+                try( EmployeeRowMapper.Binding mapped = rowMapper.bind( rset ) ) {
+                    while( rset.next() ) {
+                        Employee employee = mapped.map();
+                        rows.put( employee.getEmpID(), employee );
+                    }
+                }
+                metrics.record( Phase.FETCH, fetchStart );
+
+                closeResultSet( rset );
+                rset = null;
             }
+        }
+        finally {
+            closeResultSet( rset );
+        }
+    }
+
+    /**
+     * @return Highest sequence number in the change log, 0 if it is empty, or -1 if it couldn't be read.
+     */
+    static long getLastChangeSeq() {
+        long seq = -1;
+        PooledConnection conn = null;
+        ResultSet rset = null;
 
-            conn.close();
+        try {
+            conn = borrow();
+            rset = executeQuery( prepare( conn, SELECT_LAST_CHANGE_SQL ) );
+            if( rset.next() ) {
+                seq = rset.getLong( 1 );
+            }
         }
         catch( SQLException e ) {
-            result = e.getMessage();
+            metrics.recordError( e );
+            System.err.println( "Could not read the change log" + e );
         }
         finally {
-            try {
-                if( conn != null ) {
-                    conn.close();
+            closeResultSet( rset );
+            if( conn != null ) {
+                conn.close();
+            }
+        }
+
+        return seq;
+    }
+
+    /**
+     * Read the next changes from the change log.
+     * @param afterSeq Highest sequence number already read.
+     * @param limit    Maximum number of changes to read.
+     * @return The changes in sequence order, or null if the log couldn't be read.
+     */
+    static List<ChangeEvent> getChanges( long afterSeq, int limit ) {
+        return readChanges( SELECT_CHANGES_SQL, statement -> {
+            statement.setLong( 1, afterSeq );
+            statement.setInt( 2, limit );
+        } );
+    }
+
+    /**
+     * Read specific entries of the change log.
+     * @param seqs Between 1 and ChangeFeed.GAP_LOOKUP_SIZE sequence numbers.
+     * @return The entries that exist, or null if the log couldn't be read.
+     */
+    static List<ChangeEvent> getChangesIn( List<Long> seqs ) {
+        return readChanges( SELECT_CHANGES_IN_SQL, statement -> {
+            for( int i = 0; i < ChangeFeed.GAP_LOOKUP_SIZE; i++ ) {
+                statement.setLong( i + 1, seqs.get( Math.min( i, seqs.size() - 1 ) ) );
+            }
+        } );
+    }
+
+    /** Sets the parameters of a statement. */
+    @FunctionalInterface
+    private interface Binder {
+        void bind( PreparedStatement statement ) throws SQLException;
+    }
+
+    private static List<ChangeEvent> readChanges( String sql, Binder binder ) {
+        List<ChangeEvent> changes = null;
+        PooledConnection conn = null;
+        ResultSet rset = null;
+
+        try {
+            conn = borrow();
+            PreparedStatement statement = prepare( conn, sql );
+            binder.bind( statement );
+            rset = executeQuery( statement );
+
+            changes = new ArrayList<>();
+            while( rset.next() ) {
+                int revnum = rset.getInt( "revnum" );
+                if( rset.wasNull() ) {
+                    revnum = -1;
                 }
+                changes.add( new ChangeEvent( rset.getLong( "seq" ), rset.getString( "empid" ), revnum,
+                                              ChangeEvent.Type.of( rset.getString( "op" ) ) ) );
             }
-            catch( SQLException e ) {
-                e.printStackTrace();
+        }
+        catch( SQLException e ) {
+            metrics.recordError( e );
+            System.err.println( "Could not read the change log" + e );
+            changes = null;
+        }
+        finally {
+            closeResultSet( rset );
+            if( conn != null ) {
+                conn.close();
             }
         }
 
-        return result;
+        return changes;
     }
 
     /**
-     * Helper to insert an Employee's data into a CallableStatement.
-     * @param employee  source of the data.
-     * @param statement destination for the data.
-     * @throws SQLException CallableStatement may throw an exception when setting variables.
+     * Count the rows of EMPS.
+     * @return Number of employees, or -1 if the count failed.
      */
-    private static void createUpdateCommand( Employee employee, CallableStatement statement ) throws SQLException {
-        statement.setString( 1, employee.getlName() );
-        statement.setString( 2, employee.getfName() );
-        statement.setInt( 3, employee.getSalary() );
-        statement.setString( 4, employee.getStreet() );
-        statement.setString( 5, employee.getCity() );
-        statement.setString( 6, employee.getState() );
-        statement.setString( 7, employee.getZip() );
-        statement.setString( 8, employee.getEmpID() );
+    public static long countEmployees() {
+        long start = System.nanoTime();
+        long count = -1;
+        PooledConnection conn = null;
+        SQLException failure = null;
+        ResultSet rset = null;
+
+        try {
+            conn = borrowForRowSetRead();
+            rset = executeQuery( prepare( conn, COUNT_EMPLOYEES_SQL ) );
+            if( rset.next() ) {
+                count = rset.getLong( 1 );
+            }
+        }
+        catch( SQLException e ) {
+            failure = e;
+            metrics.recordError( e );
+            System.err.println( "Could not load the db" + e );
+        }
+        finally {
+            closeResultSet( rset );
+            closeRead( conn, failure );
+            metrics.record( Operation.COUNT, start );
+        }
+
+        return count;
     }
 
     /**
-     * Create a lock on a row and get obtain the revnum of the row.
-     * @param conn  DB Connection to use.
-     * @param empID EMPID of the row.
-     * @return The current revnum of the row or -1 if no row was found.
-     * @throws SQLException CallableStatement and ResultSet may throw exceptions.
+     * Read a page of employees in EMPID order using keyset pagination, so the cost of a page doesn't depend on how
+     * deep into the table it is.
+     * @param afterEmpID Last EMPID of the previous page, or null for the first page.
+     * @param pageSize   Maximum number of employees in the page.
+     * @return The page, shorter than pageSize at the end of the table, or null if the query failed.
      */
-    private static int getRevNumWithLock( Connection conn, String empID ) throws SQLException {
-        int revnum = -1;
+    public static List<Employee> getEmployeePage( String afterEmpID, int pageSize ) {
+        return readPage( afterEmpID == null ? SELECT_FIRST_PAGE_SQL : SELECT_PAGE_AFTER_SQL, afterEmpID, -1, pageSize );
+    }
 
-        CallableStatement statement = conn.prepareCall( "SELECT revnum FROM EMPS WHERE empid=? FOR UPDATE NOWAIT" );
-        statement.setString( 1, empID );
+    /**
+     * Read a page of employees by row offset.  Only meant for jumping to a position whose preceding EMPID isn't known,
+     * the database must skip every row before the offset.
+     * @param offset   Number of rows, in EMPID order, before the page.
+     * @param pageSize Maximum number of employees in the page.
+     * @return The page, or null if the query failed.
+     */
+    public static List<Employee> getEmployeePageAt( long offset, int pageSize ) {
+        return readPage( SELECT_PAGE_AT_SQL, null, offset, pageSize );
+    }
 
-        ResultSet rset = statement.executeQuery();
+    private static List<Employee> readPage( String sql, String afterEmpID, long offset, int pageSize ) {
+        long start = System.nanoTime();
+        List<Employee> page = null;
+        PooledConnection conn = null;
+        SQLException failure = null;
+        ReplicaRouter router = replicaRouter;
 
+        try {
+            conn = borrowForRowSetRead();
+            page = selectPage( conn, sql, afterEmpID, offset, pageSize );
 
-        if( rset.next() ) {
-            revnum = rset.getInt( "revnum" );
+            // A row a lagging replica shows older than a save or reported change means the page is read again
+            if( router != null && hasStaleRow( router, page ) ) {
+                closeRead( conn, null );
+                conn = null;
+                conn = borrow();
+                page = selectPage( conn, sql, afterEmpID, offset, pageSize );
+            }
+        }
+        catch( SQLException e ) {
+            failure = e;
+            metrics.recordError( e );
+            System.err.println( "Could not load the db" + e );
+            page = null;
+        }
+        catch( LengthException le ) {
+            System.err.println( "Issue with field lengths." + le );
+            page = null;
+        }
+        finally {
+            closeRead( conn, failure );
+            metrics.record( Operation.GET_PAGE, start );
         }
 
-        return revnum;
+        return page;
+    }
+
+    private static List<Employee> selectPage( PooledConnection conn, String sql, String afterEmpID, long offset,
+                                              int pageSize ) throws SQLException, LengthException {
+        List<Employee> page = new ArrayList<>( pageSize );
+        ResultSet rset = null;
+
+        try {
+            PreparedStatement statement = prepare( conn, sql );
+            int index = 1;
+            if( afterEmpID != null ) {
+                statement.setString( index++, afterEmpID );
+            }
+            if( offset >= 0 ) {
+                statement.setLong( index++, offset );
+            }
+            statement.setInt( index, pageSize );
+
+            rset = executeQuery( statement );
+
+            long fetchStart = System.nanoTime();
+            try( EmployeeRowMapper.Binding rows = rowMapper.bind( rset ) ) {
+                while( rset.next() ) {
+                    page.add( rows.map() );
+                }
+            }
+            metrics.record( Phase.FETCH, fetchStart );
+        }
+        finally {
+            closeResultSet( rset );
+        }
+
+        return page;
+    }
+
+    private static boolean hasStaleRow( ReplicaRouter router, List<Employee> page ) {
+        for( Employee employee : page ) {
+            if( router.isStale( employee.getEmpID(), employee.getRevnum() ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Update an employee's information in the database, retrying under the Factory's retry policy if another session
+     * has the row locked.
+     * @param employee Employee to update in the database.
+     * @return The outcome of the transaction, including the row's new revnum on success.
+     */
+    public static SaveResult saveEmployee( Employee employee ) {
+        return saveEmployee( employee, retryPolicy );
+    }
+
+    /**
+     * Update an employee's information in the database.  An attempt that finds the row locked by another session
+     * releases its connection, backs off and tries again until the policy runs out of attempts.
+     * @param employee Employee to update in the database.
+     * @param policy   How to wait for and retry a locked row.
+     * @return The outcome of the transaction, including the row's new revnum on success.
+     */
+    public static SaveResult saveEmployee( Employee employee, RetryPolicy policy ) {
+        long start = System.nanoTime();
+
+        try {
+            for( int attempt = 1; ; attempt++ ) {
+                SaveResult result = trySaveEmployee( employee, policy );
+                if( result.getStatus() != SaveResult.Status.LOCKED ) {
+                    return result;
+                }
+
+                if( attempt >= policy.getMaxAttempts() || !backOff( policy, attempt ) ) {
+                    metrics.recordSaveGivenUp();
+                    return SaveResult.locked( employee.getEmpID(), attempt );
+                }
+                metrics.recordSaveRetry();
+            }
+        }
+        finally {
+            metrics.record( Operation.SAVE, start );
+        }
+    }
+
+    /**
+     * Make one attempt at saving an employee.
+     * @param employee Employee to update in the database.
+     * @param policy   Supplies the lock clause.
+     * @return The outcome, LOCKED if the row's lock couldn't be taken.
+     */
+    private static SaveResult trySaveEmployee( Employee employee, RetryPolicy policy ) {
+        PooledConnection pooled = null;
+        SaveResult result;
+
+        try {
+            int mask = employee.getUpdateMask();
+            if( mask == 0 ) {
+                return SaveResult.noChanges( employee.getEmpID(), employee.getRevnum() );
+            }
+
+            pooled = borrow();
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit( false );
+
+            int revnum = getRevNumWithLock( pooled, employee.getEmpID(), policy );
+            if( revnum == employee.getRevnum() ) {
+                PreparedStatement statement = prepareReturning( pooled, getUpdateSql( mask ), REVNUM_COLUMN );
+                createUpdateCommand( employee, mask, statement );
+                long executeStart = System.nanoTime();
+                statement.executeUpdate();
+                metrics.record( Phase.EXECUTE, executeStart );
+
+                int newRevnum = readNewRevnum( pooled, statement, employee.getEmpID() );
+                conn.commit();
+                result = SaveResult.success( employee.getEmpID(), newRevnum );
+
+                cacheSavedEmployee( employee, newRevnum );
+            }
+            else if( revnum == -1 ) {
+                result = SaveResult.notFound( employee.getEmpID() );
+                conn.rollback();
+                employeeCache.invalidate( employee.getEmpID() );
+            }
+            else {
+                metrics.recordRevnumConflict();
+                result = SaveResult.revnumError( employee.getEmpID(), revnum );
+                conn.rollback();
+                employeeCache.invalidate( employee.getEmpID() );
+            }
+        }
+        catch( SQLException e ) {
+            metrics.recordError( e );
+            if( FactoryMetrics.isLockFailure( e ) ) {
+                result = SaveResult.locked( employee.getEmpID(), 1 );
+            }
+            else {
+                result = SaveResult.error( employee.getEmpID(), e.getMessage() );
+                employeeCache.invalidate( employee.getEmpID() );
+            }
+        }
+        finally {
+            if( pooled != null ) {
+                pooled.close();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Update an employee's information in one round trip.  Instead of locking the row and comparing its revnum first,
+     * the UPDATE only matches the row if its revnum is still the Employee's and bumps it in the same statement, so the
+     * row lock is held just for the UPDATE and its commit.  Only a save that matched no row needs a second query, to
+     * tell a revnum conflict from a missing row.
+     * @param employee Employee to update in the database.
+     * @return The outcome of the transaction, including the row's new revnum on success.
+     */
+    public static SaveResult saveEmployeeOptimistic( Employee employee ) {
+        long start = System.nanoTime();
+        PooledConnection pooled = null;
+        SaveResult result;
+
+        try {
+            int mask = employee.getUpdateMask();
+            if( mask == 0 ) {
+                return SaveResult.noChanges( employee.getEmpID(), employee.getRevnum() );
+            }
+
+            pooled = borrow();
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit( false );
+
+            PreparedStatement statement = prepareReturning( pooled, getUpdateSql( mask | OPTIMISTIC_UPDATE ), REVNUM_COLUMN );
+            int revnumIndex = createUpdateCommand( employee, mask, statement );
+            statement.setInt( revnumIndex, employee.getRevnum() );
+
+            long executeStart = System.nanoTime();
+            int updated = statement.executeUpdate();
+            metrics.record( Phase.EXECUTE, executeStart );
+
+            if( updated == 1 ) {
+                int newRevnum = readNewRevnum( pooled, statement, employee.getEmpID() );
+                conn.commit();
+                result = SaveResult.success( employee.getEmpID(), newRevnum );
+
+                cacheSavedEmployee( employee, newRevnum );
+            }
+            else {
+                conn.rollback();
+                int revnum = getRevNum( pooled, employee.getEmpID() );
+                if( revnum == -1 ) {
+                    result = SaveResult.notFound( employee.getEmpID() );
+                }
+                else {
+                    metrics.recordRevnumConflict();
+                    result = SaveResult.revnumError( employee.getEmpID(), revnum );
+                }
+                employeeCache.invalidate( employee.getEmpID() );
+            }
+        }
+        catch( SQLException e ) {
+            metrics.recordError( e );
+            result = SaveResult.error( employee.getEmpID(), e.getMessage() );
+            employeeCache.invalidate( employee.getEmpID() );
+        }
+        finally {
+            if( pooled != null ) {
+                pooled.close();
+            }
+            metrics.record( Operation.SAVE_OPTIMISTIC, start );
+        }
+
+        return result;
+    }
+
+    /**
+     * Update many employees in a single transaction under the Factory's retry policy.
+     * @param employees Employees to update in the database.
+     * @return One result per Employee, in the iteration order of the collection.
+     * @see #saveEmployees(Collection, RetryPolicy)
+     */
+    public static List<SaveResult> saveEmployees( Collection<Employee> employees ) {
+        return saveEmployees( employees, retryPolicy );
+    }
+
+    /**
+     * Update many employees in a single transaction.  Rows are locked and their revnums checked a chunk at a time with
+     * one set-based query, and the updates are sent as JDBC batches.  Rows whose revnum doesn't match are skipped
+     * while the rest are saved.  If any row is locked by another session the whole transaction is rolled back and
+     * retried under the policy.  Any other SQL error rolls back the whole transaction and every row reports that error.
+     * @param employees Employees to update in the database.
+     * @param policy    How to wait for and retry locked rows.
+     * @return One result per Employee, in the iteration order of the collection.
+     */
+    public static List<SaveResult> saveEmployees( Collection<Employee> employees, RetryPolicy policy ) {
+        long batchStart = System.nanoTime();
+        List<Employee> batch = new ArrayList<>( employees );
+        SaveResult[] results = new SaveResult[batch.size()];
+
+        // A second update of the same row would be checked against a revnum the first one has already replaced
+        Map<String, Integer> positions = new LinkedHashMap<>();
+        for( int i = 0; i < batch.size(); i++ ) {
+            String empID = batch.get( i ).getEmpID();
+            if( positions.putIfAbsent( empID, i ) != null ) {
+                results[i] = SaveResult.error( empID, "Duplicate EMPID in batch." );
+            }
+        }
+        List<Integer> unique = new ArrayList<>( positions.size() );
+        for( int index : positions.values() ) {
+            Employee employee = batch.get( index );
+            if( employee.getUpdateMask() == 0 ) {
+                results[index] = SaveResult.noChanges( employee.getEmpID(), employee.getRevnum() );
+            }
+            else {
+                unique.add( index );
+            }
+        }
+
+        try {
+            for( int attempt = 1; !unique.isEmpty(); attempt++ ) {
+                try {
+                    trySaveEmployees( batch, unique, results, policy );
+                    break;
+                }
+                catch( SQLException e ) {
+                    metrics.recordError( e );
+                    boolean locked = FactoryMetrics.isLockFailure( e );
+                    if( locked && attempt < policy.getMaxAttempts() && backOff( policy, attempt ) ) {
+                        metrics.recordSaveRetry();
+                        continue;
+                    }
+
+                    if( locked ) {
+                        metrics.recordSaveGivenUp();
+                    }
+                    for( int index : unique ) {
+                        String empID = batch.get( index ).getEmpID();
+                        results[index] = locked ? SaveResult.locked( empID, attempt ) : SaveResult.error( empID, e.getMessage() );
+                        employeeCache.invalidate( empID );
+                    }
+                    break;
+                }
+            }
+        }
+        finally {
+            metrics.record( Operation.SAVE_BATCH, batchStart );
+        }
+
+        return Arrays.asList( results );
+    }
+
+    /**
+     * Make one attempt at saving a batch, filling in the result of every unique row once it commits.  Rows are sent in
+     * one JDBC batch per distinct set of changed columns.
+     * @param batch   Employees to save.
+     * @param unique  Positions in batch of the first occurrence of each EMPID.
+     * @param results Receives the result of each unique position.
+     * @param policy  Supplies the lock clause.
+     * @throws SQLException If the transaction failed and was rolled back.
+     */
+    private static void trySaveEmployees( List<Employee> batch, List<Integer> unique, SaveResult[] results,
+                                          RetryPolicy policy ) throws SQLException {
+        SaveResult[] attempt = new SaveResult[results.length];
+        List<Integer> saved = new ArrayList<>();
+        String lockSql = forUpdate( SELECT_REVNUMS_SQL, policy );
+        PooledConnection pooled = null;
+
+        try {
+            pooled = borrow();
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit( false );
+
+            for( int start = 0; start < unique.size(); start += IN_LIST_SIZE ) {
+                List<Integer> chunk = unique.subList( start, Math.min( start + IN_LIST_SIZE, unique.size() ) );
+                List<String> ids = new ArrayList<>( chunk.size() );
+                for( int index : chunk ) {
+                    ids.add( batch.get( index ).getEmpID() );
+                }
+
+                Map<String, Integer> revnums = getRevNums( pooled, lockSql, ids );
+
+                List<Integer> updated = new ArrayList<>( chunk.size() );
+                Map<Integer, List<Integer>> byMask = new LinkedHashMap<>();
+                for( int index : chunk ) {
+                    Employee employee = batch.get( index );
+                    Integer revnum = revnums.get( employee.getEmpID() );
+
+                    if( revnum == null ) {
+                        attempt[index] = SaveResult.notFound( employee.getEmpID() );
+                    }
+                    else if( revnum != employee.getRevnum() ) {
+                        attempt[index] = SaveResult.revnumError( employee.getEmpID(), revnum );
+                    }
+                    else {
+                        byMask.computeIfAbsent( employee.getUpdateMask(), mask -> new ArrayList<>() ).add( index );
+                        updated.add( index );
+                    }
+                }
+
+                if( !updated.isEmpty() ) {
+                    Map<String, Integer> newRevnums = new HashMap<>();
+                    for( Map.Entry<Integer, List<Integer>> group : byMask.entrySet() ) {
+                        PreparedStatement update = prepareReturning( pooled, getUpdateSql( group.getKey() ), REVNUM_COLUMN );
+                        for( int index : group.getValue() ) {
+                            createUpdateCommand( batch.get( index ), group.getKey(), update );
+                            update.addBatch();
+                        }
+
+                        long executeStart = System.nanoTime();
+                        update.executeBatch();
+                        metrics.record( Phase.EXECUTE, executeStart );
+
+                        readNewRevnums( update, batch, group.getValue(), newRevnums );
+                    }
+
+                    // Drivers that can't return columns from a batch leave some rows out, the rows are still locked
+                    // by the updates so reading them back is exact
+                    List<String> unread = new ArrayList<>();
+                    for( int index : updated ) {
+                        if( !newRevnums.containsKey( batch.get( index ).getEmpID() ) ) {
+                            unread.add( batch.get( index ).getEmpID() );
+                        }
+                    }
+                    if( !unread.isEmpty() ) {
+                        newRevnums.putAll( getRevNums( pooled, SELECT_REVNUMS_SQL, unread ) );
+                    }
+
+                    for( int index : updated ) {
+                        Employee employee = batch.get( index );
+                        attempt[index] = SaveResult.success( employee.getEmpID(), newRevnums.get( employee.getEmpID() ) );
+                        saved.add( index );
+                    }
+                }
+            }
+
+            conn.commit();
+        }
+        finally {
+            if( pooled != null ) {
+                pooled.close();
+            }
+        }
+
+        // Only a committed attempt counts, a rolled back one may be retried
+        for( int index : unique ) {
+            results[index] = attempt[index];
+            if( attempt[index].getStatus() == SaveResult.Status.REVNUM_ERROR ) {
+                metrics.recordRevnumConflict();
+            }
+        }
+        for( int index : saved ) {
+            cacheSavedEmployee( batch.get( index ), results[index].getRevnum() );
+        }
+    }
+
+    /**
+     * Read the REVNUM an UPDATE left its row with, rather than assuming it went up by one, so a leftover trigger that
+     * also bumps REVNUM can't make the reported revision wrong.
+     * @param conn      Connection the UPDATE ran on, its transaction still open.
+     * @param statement The executed UPDATE, prepared to return REVNUM.
+     * @param empID     EMPID of the updated row.
+     * @return The row's new REVNUM.
+     * @throws SQLException If it couldn't be read.
+     */
+    private static int readNewRevnum( PooledConnection conn, PreparedStatement statement, String empID )
+            throws SQLException {
+        try( ResultSet keys = statement.getGeneratedKeys() ) {
+            if( keys != null && keys.next() ) {
+                return keys.getInt( 1 );
+            }
+        }
+        // Driver can't return columns, the row is still locked by the update so this read is exact
+        return getRevNum( conn, empID );
+    }
+
+    /**
+     * Collect the REVNUMs an executed batch of UPDATEs returned, one per batched row in batch order.
+     * @param statement  The executed batch, prepared to return REVNUM.
+     * @param batch      Employees being saved.
+     * @param indexes    Positions in batch of the rows, in the order they were added to the batch.
+     * @param newRevnums Receives the new REVNUM of each row returned, by EMPID.
+     * @throws SQLException If the keys couldn't be read.
+     */
+    private static void readNewRevnums( PreparedStatement statement, List<Employee> batch, List<Integer> indexes,
+                                        Map<String, Integer> newRevnums ) throws SQLException {
+        try( ResultSet keys = statement.getGeneratedKeys() ) {
+            for( int i = 0; keys != null && i < indexes.size() && keys.next(); i++ ) {
+                newRevnums.put( batch.get( indexes.get( i ) ).getEmpID(), keys.getInt( 1 ) );
+            }
+        }
+    }
+
+    /**
+     * Stream the whole EMPS table to a file.
+     * @param file      File to write, replaced if it exists.
+     * @param format    CSV or JSON lines.
+     * @param fetchSize Rows fetched per round trip.
+     * @return Row count and throughput of the export, or null if it failed.
+     */
+    public static TransferStats exportEmployees( Path file, RecordEncoder.Format format, int fetchSize ) {
+        try( FileChannel channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                     StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            return exportEmployees( channel, format, fetchSize );
+        }
+        catch( IOException e ) {
+            System.err.println( "Could not open the export file." + e );
+            return null;
+        }
+    }
+
+    /**
+     * Stream the whole EMPS table to a channel, such as standard output.  The channel is not closed.
+     * @param channel   Destination of the rows.
+     * @param format    CSV or JSON lines.
+     * @param fetchSize Rows fetched per round trip.
+     * @return Row count and throughput of the export, or null if it failed.
+     */
+    public static TransferStats exportEmployees( WritableByteChannel channel, RecordEncoder.Format format, int fetchSize ) {
+        long start = System.nanoTime();
+        TransferStats stats = null;
+        PooledConnection conn = null;
+        SQLException failure = null;
+
+        try {
+            conn = borrowForRead();
+            stats = new EmployeeExporter( format, fetchSize ).export( conn.getConnection(), channel );
+        }
+        catch( SQLException e ) {
+            failure = e;
+            metrics.recordError( e );
+            System.err.println( "Could not export the db" + e );
+        }
+        catch( IOException e ) {
+            System.err.println( "Could not write the export." + e );
+        }
+        finally {
+            closeRead( conn, failure );
+            metrics.record( Operation.EXPORT, start );
+        }
+
+        return stats;
+    }
+
+    /**
+     * Load the whole EMPS table into a columnar in-memory table for analytics.
+     * @param fetchSize Rows fetched per round trip.
+     * @return The loaded table, or null if the load failed.
+     */
+    public static EmployeeTable loadEmployeeTable( int fetchSize ) {
+        long start = System.nanoTime();
+        EmployeeTable table = null;
+        PooledConnection conn = null;
+        SQLException failure = null;
+
+        try {
+            conn = borrowForRead();
+            table = EmployeeTable.load( conn.getConnection(), fetchSize );
+        }
+        catch( SQLException e ) {
+            failure = e;
+            metrics.recordError( e );
+            System.err.println( "Could not load the db" + e );
+        }
+        finally {
+            closeRead( conn, failure );
+            metrics.record( Operation.LOAD_TABLE, start );
+        }
+
+        return table;
+    }
+
+    /**
+     * Insert the rows of a CSV file into EMPS.
+     * @param csv     File to import.
+     * @param rejects File that rows failing validation are written to.
+     * @return Rows inserted and rejected and the import throughput, or null if it failed.
+     */
+    public static TransferStats importEmployees( Path csv, Path rejects ) {
+        long start = System.nanoTime();
+        TransferStats stats = null;
+        PooledConnection conn = null;
+
+        try {
+            conn = borrow();
+            EmployeeImporter importer = new EmployeeImporter( Runtime.getRuntime().availableProcessors(),
+                                                              EmployeeImporter.DEFAULT_CHUNK_BYTES,
+                                                              EmployeeImporter.DEFAULT_COMMIT_INTERVAL );
+            stats = importer.importFile( conn.getConnection(), csv, rejects );
+        }
+        catch( SQLException e ) {
+            metrics.recordError( e );
+            System.err.println( "Could not import into the db" + e );
+        }
+        catch( IOException e ) {
+            System.err.println( "Could not read the import file." + e );
+        }
+        finally {
+            if( conn != null ) {
+                conn.close();
+            }
+            metrics.record( Operation.IMPORT, start );
+        }
+
+        return stats;
+    }
+
+    /**
+     * Borrow a connection from the pool, timing the wait.
+     * @return A connection to close when done.
+     * @throws SQLException If no connection could be obtained.
+     */
+    private static PooledConnection borrow() throws SQLException {
+        long start = System.nanoTime();
+        ConnectionPool current = getPool();
+        PooledConnection conn;
+        try {
+            conn = current.borrow();
+        }
+        catch( SQLException e ) {
+            // The pool may have been replaced and closed by a settings reload since it was read
+            ConnectionPool replacement = pool;
+            if( replacement == null || replacement == current ) {
+                throw e;
+            }
+            conn = replacement.borrow();
+        }
+        metrics.record( Phase.CONNECT, start );
+        return conn;
+    }
+
+    /**
+     * Borrow a connection for a plain read, from a replica if the router has one available and from the primary
+     * otherwise.  Return it with closeRead().
+     * @return A connection to close when done.
+     * @throws SQLException If no connection could be obtained.
+     */
+    private static PooledConnection borrowForRead() throws SQLException {
+        getPool(); // Creates the configured replica router along with the pool
+        ReplicaRouter router = replicaRouter;
+        if( router != null ) {
+            long start = System.nanoTime();
+            PooledConnection conn = router.borrow();
+            if( conn != null ) {
+                metrics.record( Phase.CONNECT, start );
+                return conn;
+            }
+        }
+        return borrow();
+    }
+
+    /**
+     * Borrow a connection for a read over a range of rows, such as a count or a page.  Shortly after an insert or delete
+     * the primary is used, a replica may not have the new row set yet.  Return it with closeRead().
+     * @return A connection to close when done.
+     * @throws SQLException If no connection could be obtained.
+     */
+    private static PooledConnection borrowForRowSetRead() throws SQLException {
+        getPool();
+        ReplicaRouter router = replicaRouter;
+        if( router != null && router.isRowSetChanging() ) {
+            return borrow();
+        }
+        return borrowForRead();
+    }
+
+    /**
+     * Give back a connection from borrowForRead(), telling the router whether the read on it worked so a failing
+     * replica is ejected.
+     * @param conn    Connection to close, may be null.
+     * @param failure Error the read ended with, or null if it worked.
+     */
+    private static void closeRead( PooledConnection conn, SQLException failure ) {
+        if( conn == null ) {
+            return;
+        }
+
+        ReplicaRouter router = replicaRouter;
+        if( router != null ) {
+            if( failure == null ) {
+                router.recordSuccess( conn.getPool() );
+            }
+            else {
+                router.recordFailure( conn.getPool(), failure );
+            }
+        }
+        conn.close();
+    }
+
+    /**
+     * Get a cached statement from a connection, timing how long it takes to find or prepare it.
+     * @param conn DB Connection to use.
+     * @param sql  SQL of the statement.
+     * @return The prepared statement.
+     * @throws SQLException If the statement could not be prepared.
+     */
+    private static PreparedStatement prepare( PooledConnection conn, String sql ) throws SQLException {
+        long start = System.nanoTime();
+        PreparedStatement statement = conn.prepare( sql );
+        metrics.record( Phase.PREPARE, start );
+        return statement;
+    }
+
+    /**
+     * Get a cached DML statement that returns columns of the rows it changes, timing it like prepare().
+     * @param conn          DB Connection to use.
+     * @param sql           SQL of the statement.
+     * @param returnColumns Columns to read back through getGeneratedKeys().
+     * @return The prepared statement.
+     * @throws SQLException If the statement could not be prepared.
+     */
+    private static PreparedStatement prepareReturning( PooledConnection conn, String sql, String[] returnColumns )
+            throws SQLException {
+        long start = System.nanoTime();
+        PreparedStatement statement = conn.prepare( sql, returnColumns );
+        metrics.record( Phase.PREPARE, start );
+        return statement;
+    }
+
+    /**
+     * Run a query, timing the round trip until the first rows are available.
+     * @param statement Statement with all parameters bound.
+     * @return The open ResultSet.
+     * @throws SQLException If the query failed.
+     */
+    private static ResultSet executeQuery( PreparedStatement statement ) throws SQLException {
+        long start = System.nanoTime();
+        ResultSet rset = statement.executeQuery();
+        metrics.record( Phase.EXECUTE, start );
+        return rset;
+    }
+
+    /**
+     * Write a just-saved Employee through to the cache with the REVNUM the save left the row at, and tell the replica
+     * router so later reads don't go back to an older revision.
+     * @param employee Employee that was saved.
+     * @param revnum   REVNUM of the row after the save.
+     */
+    private static void cacheSavedEmployee( Employee employee, int revnum ) {
+        try {
+            Employee saved = new Employee( employee );
+            saved.setRevnum( revnum );
+            saved.markClean();
+            employeeCache.put( saved );
+
+            ReplicaRouter router = replicaRouter;
+            if( router != null ) {
+                router.recordWrite( saved.getEmpID(), revnum );
+            }
+        }
+        catch( LengthException le ) {
+            employeeCache.invalidate( employee.getEmpID() );
+        }
+    }
+
+    /**
+     * Get the UPDATE statement that sets only some columns and bumps REVNUM, building it the first time the mask is seen.
+     * @param mask EmployeeField masks of the columns to set, plus OPTIMISTIC_UPDATE to also check REVNUM.
+     * @return SQL whose parameters are the columns in field order, then EMPID, then REVNUM if optimistic.
+     */
+    private static String getUpdateSql( int mask ) {
+        return updateSql.computeIfAbsent( mask, key -> {
+            StringBuilder sql = new StringBuilder( "UPDATE EMPS SET " );
+            String separator = "";
+            for( int i = 0; i < EmployeeField.count(); i++ ) {
+                EmployeeField field = EmployeeField.of( i );
+                if( (key & field.mask()) != 0 ) {
+                    sql.append( separator ).append( field.getColumn() ).append( " = ?" );
+                    separator = ", ";
+                }
+            }
+
+            sql.append( ", REVNUM = REVNUM + 1 WHERE empid = ?" );
+            if( (key & OPTIMISTIC_UPDATE) != 0 ) {
+                sql.append( " AND revnum = ?" );
+            }
+            return sql.toString();
+        } );
+    }
+
+    /**
+     * Helper to insert an Employee's changed data into a PreparedStatement built by getUpdateSql.
+     * @param employee  source of the data.
+     * @param mask      EmployeeField masks of the columns the statement sets.
+     * @param statement destination for the data.
+     * @return Index of the next parameter after EMPID.
+     * @throws SQLException PreparedStatement may throw an exception when setting variables.
+     */
+    private static int createUpdateCommand( Employee employee, int mask, PreparedStatement statement ) throws SQLException {
+        int index = 1;
+        if( (mask & EmployeeField.LNAME.mask()) != 0 ) {
+            statement.setString( index++, employee.getlName() );
+        }
+        if( (mask & EmployeeField.FNAME.mask()) != 0 ) {
+            statement.setString( index++, employee.getfName() );
+        }
+        if( (mask & EmployeeField.SALARY.mask()) != 0 ) {
+            statement.setInt( index++, employee.getSalary() );
+        }
+        if( (mask & EmployeeField.STREET.mask()) != 0 ) {
+            statement.setString( index++, employee.getStreet() );
+        }
+        if( (mask & EmployeeField.CITY.mask()) != 0 ) {
+            statement.setString( index++, employee.getCity() );
+        }
+        if( (mask & EmployeeField.STATE.mask()) != 0 ) {
+            statement.setString( index++, employee.getState() );
+        }
+        if( (mask & EmployeeField.ZIP.mask()) != 0 ) {
+            statement.setString( index++, employee.getZip() );
+        }
+        statement.setString( index++, employee.getEmpID() );
+        return index;
+    }
+
+    /**
+     * Create a lock on a row and get obtain the revnum of the row.
+     * @param conn   DB Connection to use.
+     * @param empID  EMPID of the row.
+     * @param policy Decides whether to wait for a row someone else has locked.
+     * @return The current revnum of the row or -1 if no row was found.
+     * @throws SQLException PreparedStatement and ResultSet may throw exceptions, including when the row is locked.
+     */
+    private static int getRevNumWithLock( PooledConnection conn, String empID, RetryPolicy policy ) throws SQLException {
+        int revnum = -1;
+
+        PreparedStatement statement = prepare( conn, forUpdate( SELECT_REVNUM_SQL, policy ) );
+        statement.setString( 1, empID );
+
+        ResultSet rset = executeQuery( statement );
+        try {
+            if( rset.next() ) {
+                revnum = rset.getInt( "revnum" );
+            }
+        }
+        finally {
+            closeResultSet( rset );
+        }
+
+        return revnum;
+    }
+
+    /**
+     * Get the revnum of a row without locking it.
+     * @param conn  DB Connection to use.
+     * @param empID EMPID of the row.
+     * @return The current revnum of the row or -1 if no row was found.
+     * @throws SQLException PreparedStatement and ResultSet may throw exceptions.
+     */
+    private static int getRevNum( PooledConnection conn, String empID ) throws SQLException {
+        int revnum = -1;
+
+        PreparedStatement statement = prepare( conn, SELECT_REVNUM_SQL );
+        statement.setString( 1, empID );
+
+        ResultSet rset = executeQuery( statement );
+        try {
+            if( rset.next() ) {
+                revnum = rset.getInt( "revnum" );
+            }
+        }
+        finally {
+            closeResultSet( rset );
+        }
+
+        return revnum;
+    }
+
+    /**
+     * Get the revnums of a set of rows with one query.
+     * @param conn DB Connection to use.
+     * @param sql  One of the IN-list revnum queries, optionally locking the rows.
+     * @param ids  At most IN_LIST_SIZE EMPIDs.
+     * @return The revnum of every row found, keyed by EMPID.
+     * @throws SQLException PreparedStatement and ResultSet may throw exceptions.
+     */
+    private static Map<String, Integer> getRevNums( PooledConnection conn, String sql, List<String> ids ) throws SQLException {
+        Map<String, Integer> revnums = new HashMap<>();
+
+        PreparedStatement statement = prepare( conn, sql );
+        bindInList( statement, 1, ids );
+
+        ResultSet rset = executeQuery( statement );
+        try {
+            while( rset.next() ) {
+                revnums.put( rset.getString( "empid" ), rset.getInt( "revnum" ) );
+            }
+        }
+        finally {
+            closeResultSet( rset );
+        }
+
+        return revnums;
+    }
+
+    /**
+     * Bind EMPIDs to a fixed-size IN-list, repeating the last one to fill unused slots.
+     * @param statement Statement containing the IN-list.
+     * @param first     Parameter index of the first slot.
+     * @param ids       Between 1 and IN_LIST_SIZE EMPIDs.
+     * @throws SQLException PreparedStatement may throw an exception when setting variables.
+     */
+    private static void bindInList( PreparedStatement statement, int first, List<String> ids ) throws SQLException {
+        String last = ids.get( ids.size() - 1 );
+        for( int i = 0; i < IN_LIST_SIZE; i++ ) {
+            statement.setString( first + i, i < ids.size() ? ids.get( i ) : last );
+        }
+    }
+
+    /**
+     * @param sql    A query of EMPS.
+     * @param policy Supplies NOWAIT or WAIT n.
+     * @return The query locking the rows it selects.
+     */
+    private static String forUpdate( String sql, RetryPolicy policy ) {
+        return sql + " FOR UPDATE " + policy.getLockClause();
+    }
+
+    /**
+     * Sleep before retrying a locked row.
+     * @param policy  Supplies the backoff.
+     * @param attempt Number of attempts that have failed so far.
+     * @return false if interrupted, in which case no more attempts should be made.
+     */
+    private static boolean backOff( RetryPolicy policy, int attempt ) {
+        try {
+            Thread.sleep( policy.backoffMillis( attempt ) );
+            return true;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @param count Number of bind variables.
+     * @return A comma separated list of count question marks.
+     */
+    private static String placeholders( int count ) {
+        StringBuilder builder = new StringBuilder( count * 2 );
+        for( int i = 0; i < count; i++ ) {
+            builder.append( i == 0 ? "?" : ",?" );
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Close a result set if one was opened.  Statements are cached on the pooled connection, so their result sets must
+     * be closed to release the cursor.
+     * @param rset ResultSet to close, may be null.
+     */
+    private static void closeResultSet( ResultSet rset ) {
+        try {
+            if( rset != null ) {
+                rset.close();
+            }
+        }
+        catch( SQLException e ) {
+            e.printStackTrace();
+        }
     }
 }
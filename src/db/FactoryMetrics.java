@@ -0,0 +1,262 @@
+package db;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * FactoryMetrics records how long every Factory operation and each phase of its DB calls take, along with counters for
+ * the ways a call can fail.  Everything recorded on the hot path is a lock-free histogram or adder.  The metrics are
+ * published over JMX and can be written to a log periodically.
+ */
+public class FactoryMetrics implements FactoryMetricsMXBean {
+    public static final String OBJECT_NAME = "db:type=FactoryMetrics";
+
+    // Oracle error codes for a row locked by another session, with NOWAIT and once a WAIT timeout runs out
+    public static final int ORA_RESOURCE_BUSY = 54;
+    public static final int ORA_WAIT_TIMEOUT = 30006;
+    // H2, the embedded stand-in for Oracle, reports both as a lock timeout, whose SQLState sets it apart from Oracle codes
+    public static final int H2_LOCK_TIMEOUT = 50200;
+    public static final String H2_LOCK_TIMEOUT_STATE = "HYT00";
+
+    /** The phases of a single DB call. */
+    public enum Phase {
+        CONNECT, PREPARE, EXECUTE, FETCH
+    }
+
+    /** The public Factory operations. */
+    public enum Operation {
+        GET, GET_MANY, GET_PAGE, COUNT, SAVE, SAVE_OPTIMISTIC, SAVE_BATCH, EXPORT, IMPORT, LOAD_TABLE
+    }
+
+    private final Map<Phase, LatencyHistogram> phases = new EnumMap<>( Phase.class );
+    private final Map<Operation, LatencyHistogram> operations = new EnumMap<>( Operation.class );
+    private final LongAdder revnumConflicts = new LongAdder();
+    private final LongAdder lockFailures = new LongAdder();
+    private final LongAdder coalescedLoads = new LongAdder();
+    private final LongAdder saveRetries = new LongAdder();
+    private final LongAdder savesGivenUp = new LongAdder();
+    private final ConcurrentHashMap<Integer, LongAdder> sqlErrors = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService reporter;
+
+    public FactoryMetrics() {
+        for( Phase phase : Phase.values() ) {
+            phases.put( phase, new LatencyHistogram() );
+        }
+        for( Operation operation : Operation.values() ) {
+            operations.put( operation, new LatencyHistogram() );
+        }
+    }
+
+    /**
+     * Record the time spent in a phase.
+     * @param phase      Phase that finished.
+     * @param startNanos Value of System.nanoTime() when the phase began.
+     */
+    public void record( Phase phase, long startNanos ) {
+        phases.get( phase ).recordSince( startNanos );
+    }
+
+    /**
+     * Record the time spent in an operation.
+     * @param operation  Operation that finished.
+     * @param startNanos Value of System.nanoTime() when the operation began.
+     */
+    public void record( Operation operation, long startNanos ) {
+        operations.get( operation ).recordSince( startNanos );
+    }
+
+    public void recordRevnumConflict() {
+        revnumConflicts.increment();
+    }
+
+    public void recordSaveRetry() {
+        saveRetries.increment();
+    }
+
+    public void recordSaveGivenUp() {
+        savesGivenUp.increment();
+    }
+
+    public void recordCoalescedLoad() {
+        coalescedLoads.increment();
+    }
+
+    /**
+     * Count an SQL error by its vendor code, and as a lock failure if it was one.
+     * @param e Error reported by the driver.
+     */
+    public void recordError( SQLException e ) {
+        sqlErrors.computeIfAbsent( e.getErrorCode(), code -> new LongAdder() ).increment();
+        if( isLockFailure( e ) ) {
+            lockFailures.increment();
+        }
+    }
+
+    /**
+     * @param e Error reported by the Oracle or H2 driver.
+     * @return true if the error means the row was locked by another session.
+     */
+    public static boolean isLockFailure( SQLException e ) {
+        int code = e.getErrorCode();
+        if( code == ORA_RESOURCE_BUSY || code == ORA_WAIT_TIMEOUT ) {
+            return true;
+        }
+        return code == H2_LOCK_TIMEOUT && H2_LOCK_TIMEOUT_STATE.equals( e.getSQLState() );
+    }
+
+    /** @return The histogram of a phase, for callers that want more than the snapshot. */
+    public LatencyHistogram getHistogram( Phase phase ) {
+        return phases.get( phase );
+    }
+
+    /** @return The histogram of an operation, for callers that want more than the snapshot. */
+    public LatencyHistogram getHistogram( Operation operation ) {
+        return operations.get( operation );
+    }
+
+    /** Publish these metrics over JMX.  Does nothing if another instance is already registered. */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean( this, new ObjectName( OBJECT_NAME ) );
+        }
+        catch( InstanceAlreadyExistsException e ) {
+            // Keep the first registration
+        }
+        catch( JMException e ) {
+            System.err.println( "Could not register DB metrics with JMX." + e );
+        }
+    }
+
+    /**
+     * Periodically hand a summary of the metrics to a sink such as a logger.  Replaces any previous schedule.
+     * @param period How often to report.
+     * @param unit   Unit of the period.
+     * @param sink   Receives each summary.
+     */
+    public synchronized void startReporting( long period, TimeUnit unit, Consumer<String> sink ) {
+        stopReporting();
+
+        reporter = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "db-metrics-reporter" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        reporter.scheduleAtFixedRate( () -> sink.accept( getSummary() ), period, period, unit );
+    }
+
+    public synchronized void stopReporting() {
+        if( reporter != null ) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    //---------------------------------- JMX ----------------------------------
+    //-------------------------------------------------------------------------
+    @Override
+    public Map<String, LatencySnapshot> getPhaseLatencies() {
+        Map<String, LatencySnapshot> result = new LinkedHashMap<>();
+        for( Map.Entry<Phase, LatencyHistogram> entry : phases.entrySet() ) {
+            result.put( entry.getKey().name(), entry.getValue().snapshot() );
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getOperationLatencies() {
+        Map<String, LatencySnapshot> result = new LinkedHashMap<>();
+        for( Map.Entry<Operation, LatencyHistogram> entry : operations.entrySet() ) {
+            result.put( entry.getKey().name(), entry.getValue().snapshot() );
+        }
+        return result;
+    }
+
+    @Override
+    public long getRevnumConflicts() {
+        return revnumConflicts.sum();
+    }
+
+    @Override
+    public long getCoalescedLoads() {
+        return coalescedLoads.sum();
+    }
+
+    @Override
+    public long getSaveRetries() {
+        return saveRetries.sum();
+    }
+
+    @Override
+    public long getSavesGivenUp() {
+        return savesGivenUp.sum();
+    }
+
+    @Override
+    public long getLockFailures() {
+        return lockFailures.sum();
+    }
+
+    @Override
+    public Map<Integer, Long> getSqlErrorsByVendorCode() {
+        Map<Integer, Long> result = new TreeMap<>();
+        for( Map.Entry<Integer, LongAdder> entry : sqlErrors.entrySet() ) {
+            result.put( entry.getKey(), entry.getValue().sum() );
+        }
+        return result;
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder builder = new StringBuilder( "DB metrics" );
+
+        for( Map.Entry<String, LatencySnapshot> entry : getOperationLatencies().entrySet() ) {
+            if( entry.getValue().getCount() > 0 ) {
+                builder.append( "\n  op " ).append( entry.getKey() ).append( ": " ).append( entry.getValue() );
+            }
+        }
+        for( Map.Entry<String, LatencySnapshot> entry : getPhaseLatencies().entrySet() ) {
+            if( entry.getValue().getCount() > 0 ) {
+                builder.append( "\n  phase " ).append( entry.getKey() ).append( ": " ).append( entry.getValue() );
+            }
+        }
+        builder.append( "\n  revnumConflicts=" ).append( getRevnumConflicts() )
+                .append( " lockFailures=" ).append( getLockFailures() )
+                .append( " saveRetries=" ).append( getSaveRetries() )
+                .append( " savesGivenUp=" ).append( getSavesGivenUp() )
+                .append( " coalescedLoads=" ).append( getCoalescedLoads() )
+                .append( " sqlErrors=" ).append( getSqlErrorsByVendorCode() );
+
+        return builder.toString();
+    }
+
+    @Override
+    public void reset() {
+        for( LatencyHistogram histogram : phases.values() ) {
+            histogram.reset();
+        }
+        for( LatencyHistogram histogram : operations.values() ) {
+            histogram.reset();
+        }
+        revnumConflicts.reset();
+        lockFailures.reset();
+        coalescedLoads.reset();
+        saveRetries.reset();
+        savesGivenUp.reset();
+        sqlErrors.clear();
+    }
+}
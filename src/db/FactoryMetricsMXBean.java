@@ -0,0 +1,36 @@
+package db;
+
+import java.util.Map;
+
+/** JMX view of FactoryMetrics, registered as db:type=FactoryMetrics. */
+public interface FactoryMetricsMXBean {
+    /** @return Latency of each phase of a DB call (CONNECT, PREPARE, EXECUTE, FETCH). */
+    Map<String, LatencySnapshot> getPhaseLatencies();
+
+    /** @return End to end latency of each Factory operation. */
+    Map<String, LatencySnapshot> getOperationLatencies();
+
+    /** @return Saves rejected because the row's REVNUM had changed. */
+    long getRevnumConflicts();
+
+    /** @return Loads that shared another thread's in-flight query for the same EMPID instead of running their own. */
+    long getCoalescedLoads();
+
+    /** @return Save attempts repeated after a lock conflict. */
+    long getSaveRetries();
+
+    /** @return Saves that gave up because the row stayed locked through every attempt. */
+    long getSavesGivenUp();
+
+    /** @return Saves that couldn't lock their row because someone else held it. */
+    long getLockFailures();
+
+    /** @return SQL errors seen, keyed by the driver's vendor error code. */
+    Map<Integer, Long> getSqlErrorsByVendorCode();
+
+    /** @return Human readable dump of every metric. */
+    String getSummary();
+
+    /** Zero every metric. */
+    void reset();
+}
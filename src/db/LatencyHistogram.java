@@ -0,0 +1,122 @@
+package db;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram records durations into log-linear buckets in the style of HdrHistogram: every power of two is split
+ * into 16 sub-buckets, so any recorded value is reported within about 6% of its true value while the whole range from
+ * nanoseconds to hours fits in under a thousand counters.  Recording is a couple of atomic increments and never blocks.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKET_COUNT );
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record one duration.
+     * @param nanos Duration in nanoseconds, negative values are counted as 0.
+     */
+    public void record( long nanos ) {
+        long value = Math.max( 0, nanos );
+
+        counts.incrementAndGet( indexOf( value ) );
+        total.increment();
+        sum.add( value );
+
+        long current;
+        while( value > (current = max.get()) ) {
+            if( max.compareAndSet( current, value ) ) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Record the time elapsed since a start time.
+     * @param startNanos Value of System.nanoTime() when the timed work began.
+     */
+    public void recordSince( long startNanos ) {
+        record( System.nanoTime() - startNanos );
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long count = total.sum();
+        return count == 0 ? 0 : ( double ) sum.sum() / count;
+    }
+
+    /**
+     * Estimate a percentile.  Counts are read without stopping writers, so a percentile taken under load is a close
+     * approximation rather than an exact snapshot.
+     * @param percentile Percentile between 0 and 100.
+     * @return Upper bound of the bucket holding that percentile, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentileNanos( double percentile ) {
+        long count = total.sum();
+        if( count == 0 ) {
+            return 0;
+        }
+
+        long target = Math.max( 1, ( long ) Math.ceil( count * percentile / 100.0 ) );
+        long seen = 0;
+        for( int i = 0; i < BUCKET_COUNT; i++ ) {
+            seen += counts.get( i );
+            if( seen >= target ) {
+                return Math.min( upperBoundOf( i ), max.get() );
+            }
+        }
+        return max.get();
+    }
+
+    /** @return A point in time summary of this histogram in microseconds. */
+    public LatencySnapshot snapshot() {
+        return new LatencySnapshot( getCount(), getMeanNanos() / 1000.0, getPercentileNanos( 50 ) / 1000.0,
+                                    getPercentileNanos( 90 ) / 1000.0, getPercentileNanos( 99 ) / 1000.0,
+                                    getMaxNanos() / 1000.0 );
+    }
+
+    /** Forget everything recorded so far. */
+    public void reset() {
+        for( int i = 0; i < BUCKET_COUNT; i++ ) {
+            counts.set( i, 0 );
+        }
+        total.reset();
+        sum.reset();
+        max.set( 0 );
+    }
+
+    private static int indexOf( long value ) {
+        if( value < SUB_BUCKETS ) {
+            return ( int ) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros( value ) - (SUB_BUCKET_BITS - 1);
+        int top = ( int ) (value >>> shift); // Between HALF and SUB_BUCKETS - 1
+        return SUB_BUCKETS + (shift - 1) * HALF + (top - HALF);
+    }
+
+    private static long upperBoundOf( int index ) {
+        if( index < SUB_BUCKETS ) {
+            return index;
+        }
+
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long top = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((top + 1) << shift) - 1;
+    }
+}
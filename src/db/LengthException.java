@@ -1,5 +1,25 @@
 package db;
 
-/** LengthException is a custom exception that indicates a piece of data is too long for it's specified column. */
+/**
+ * LengthException is a custom exception that indicates a piece of data is too long for it's specified column.  It
+ * doesn't capture a stack trace, the field it names is all a caller needs to report the problem.
+ */
 public class LengthException extends Exception {
+    private final EmployeeField field;
+
+    public LengthException() {
+        this( null );
+    }
+
+    /** @param field Field whose value was too long, may be null if unknown. */
+    public LengthException( EmployeeField field ) {
+        super( field == null ? "Value too long for its column." : "Value too long for " + field.getColumn() +
+                " (max " + field.getMaxLength() + ").", null, false, false );
+        this.field = field;
+    }
+
+    /** @return The field whose value was too long, or null if unknown. */
+    public EmployeeField getField() {
+        return field;
+    }
 }
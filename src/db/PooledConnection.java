@@ -0,0 +1,122 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * PooledConnection is a physical JDBC Connection on loan from a ConnectionPool.  Closing it hands the connection back
+ * to the pool instead of tearing down the session.
+ */
+public class PooledConnection implements AutoCloseable {
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final StatementCache statementCache;
+    private final long createdAt;
+
+    private volatile long lastUsedAt;
+    private volatile long borrowedAt;
+    private volatile Throwable borrowTrace;
+    private volatile boolean leakReported;
+
+    PooledConnection( ConnectionPool pool, Connection connection ) {
+        this.pool = pool;
+        this.connection = connection;
+        this.statementCache = new StatementCache( connection, StatementCache.DEFAULT_MAX_SIZE );
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsedAt = createdAt;
+    }
+
+    /** @return The underlying JDBC connection.  Do not close it directly, close this wrapper instead. */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Get a cached prepared statement for some SQL on this connection.  The statement stays open for the next borrower
+     * and must not be closed by the caller, only its ResultSets.
+     * @param sql SQL text of the statement.
+     * @return A statement ready to have its parameters set.
+     * @throws SQLException If the statement could not be prepared.
+     */
+    public PreparedStatement prepare( String sql ) throws SQLException {
+        return statementCache.prepare( sql );
+    }
+
+    /**
+     * Get a cached prepared statement for DML whose changed rows' column values are read back with getGeneratedKeys().
+     * @param sql           SQL text of the statement.
+     * @param returnColumns Columns to return from each changed row.
+     * @return A statement ready to have its parameters set.
+     * @throws SQLException If the statement could not be prepared.
+     */
+    public PreparedStatement prepare( String sql, String[] returnColumns ) throws SQLException {
+        return statementCache.prepare( sql, returnColumns );
+    }
+
+    /** @return The statement cache of this connection. */
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /** Return the connection to the pool it was borrowed from. */
+    @Override
+    public void close() {
+        pool.release( this );
+    }
+
+    /**
+     * Mark the connection as handed out to a caller.
+     * @param trace Stack of the borrowing call, or null if leak detection is disabled.
+     */
+    void markBorrowed( Throwable trace ) {
+        borrowedAt = System.currentTimeMillis();
+        borrowTrace = trace;
+        leakReported = false;
+    }
+
+    /** Mark the connection as back in the idle set. */
+    void markReturned() {
+        lastUsedAt = System.currentTimeMillis();
+        borrowTrace = null;
+    }
+
+    /** Close the physical connection, ignoring any errors since the connection is being discarded anyway. */
+    void closePhysical() {
+        statementCache.clear();
+        try {
+            connection.close();
+        }
+        catch( SQLException e ) {
+            System.err.println( "Error closing pooled connection." + e );
+        }
+    }
+
+    ConnectionPool getPool() {
+        return pool;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    long getBorrowedAt() {
+        return borrowedAt;
+    }
+
+    Throwable getBorrowTrace() {
+        return borrowTrace;
+    }
+
+    boolean isLeakReported() {
+        return leakReported;
+    }
+
+    void setLeakReported( boolean leakReported ) {
+        this.leakReported = leakReported;
+    }
+}
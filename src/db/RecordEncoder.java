@@ -0,0 +1,267 @@
+package db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * RecordEncoder writes EMPS rows as CSV or JSON lines straight into a buffer that is drained to a channel whenever it
+ * fills up.  Fields are encoded to UTF-8 by hand, so no intermediate Strings or byte arrays are created per row.
+ */
+public class RecordEncoder {
+    /** Output formats, one record per line. */
+    public enum Format {
+        CSV, JSON
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /** Column names in the order fields are written. */
+    public static final String[] COLUMNS = { "EMPID", "LNAME", "FNAME", "SALARY", "STREET", "CITY", "STATE", "ZIP", "REVNUM" };
+
+    // Worst case bytes for one field: every char written as a 6 byte JSON unicode escape, plus quotes and the separator
+    private static final int MAX_FIELD_BYTES = Employee.STREET_LENGTH * 6 + 32;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final Format format;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private int column;
+    private long bytesWritten;
+
+    /**
+     * @param format     Format to write.
+     * @param channel    Destination of the encoded bytes.
+     * @param bufferSize Size of the direct buffer between the encoder and the channel.
+     */
+    public RecordEncoder( Format format, WritableByteChannel channel, int bufferSize ) {
+        this.format = format;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect( Math.max( bufferSize, MAX_FIELD_BYTES * 2 ) );
+    }
+
+    /**
+     * Write the CSV header line.  Does nothing for JSON, whose records name their own fields.
+     * @throws IOException If the channel can't be written.
+     */
+    public void writeHeader() throws IOException {
+        if( format == Format.CSV ) {
+            beginRecord();
+            for( String name : COLUMNS ) {
+                stringField( name );
+            }
+            endRecord();
+        }
+    }
+
+    /**
+     * Write a whole Employee as one record.
+     * @param employee Employee to write.
+     * @throws IOException If the channel can't be written.
+     */
+    public void write( Employee employee ) throws IOException {
+        beginRecord();
+        stringField( employee.getEmpID() );
+        stringField( employee.getlName() );
+        stringField( employee.getfName() );
+        intField( employee.getSalary() );
+        stringField( employee.getStreet() );
+        stringField( employee.getCity() );
+        stringField( employee.getState() );
+        stringField( employee.getZip() );
+        intField( employee.getRevnum() );
+        endRecord();
+    }
+
+    /** Start a record, fields must then be written in COLUMNS order. */
+    public void beginRecord() throws IOException {
+        column = 0;
+        if( format == Format.JSON ) {
+            ensure( 1 );
+            buffer.put( ( byte ) '{' );
+        }
+    }
+
+    /**
+     * Write the next field as text.
+     * @param value Field value, may be null.
+     */
+    public void stringField( String value ) throws IOException {
+        ensure( MAX_FIELD_BYTES );
+        separator();
+
+        if( value == null ) {
+            if( format == Format.JSON ) {
+                putAscii( "null" );
+            }
+        }
+        else if( format == Format.JSON ) {
+            buffer.put( ( byte ) '"' );
+            putJsonEscaped( value );
+            buffer.put( ( byte ) '"' );
+        }
+        else if( needsCsvQuotes( value ) ) {
+            buffer.put( ( byte ) '"' );
+            for( int i = 0; i < value.length(); ) {
+                if( value.charAt( i ) == '"' ) {
+                    buffer.put( ( byte ) '"' );
+                }
+                i = putChar( value, i );
+            }
+            buffer.put( ( byte ) '"' );
+        }
+        else {
+            for( int i = 0; i < value.length(); ) {
+                i = putChar( value, i );
+            }
+        }
+    }
+
+    /**
+     * Write the next field as a number.
+     * @param value Field value.
+     */
+    public void intField( int value ) throws IOException {
+        ensure( MAX_FIELD_BYTES );
+        separator();
+        putInt( value );
+    }
+
+    /** Finish the current record and its line. */
+    public void endRecord() throws IOException {
+        ensure( 2 );
+        if( format == Format.JSON ) {
+            buffer.put( ( byte ) '}' );
+        }
+        buffer.put( ( byte ) '\n' );
+    }
+
+    /**
+     * Drain everything buffered so far to the channel.
+     * @throws IOException If the channel can't be written.
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while( buffer.hasRemaining() ) {
+            bytesWritten += channel.write( buffer );
+        }
+        buffer.clear();
+    }
+
+    /** @return Bytes handed to the channel so far. */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void ensure( int bytes ) throws IOException {
+        if( buffer.remaining() < bytes ) {
+            flush();
+        }
+    }
+
+    private void separator() {
+        if( format == Format.JSON ) {
+            if( column > 0 ) {
+                buffer.put( ( byte ) ',' );
+            }
+            buffer.put( ( byte ) '"' );
+            putAscii( COLUMNS[column] );
+            buffer.put( ( byte ) '"' );
+            buffer.put( ( byte ) ':' );
+        }
+        else if( column > 0 ) {
+            buffer.put( ( byte ) ',' );
+        }
+        column++;
+    }
+
+    private static boolean needsCsvQuotes( String value ) {
+        for( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt( i );
+            if( c == ',' || c == '"' || c == '\n' || c == '\r' ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void putJsonEscaped( String value ) {
+        for( int i = 0; i < value.length(); ) {
+            char c = value.charAt( i );
+            if( c == '"' || c == '\\' ) {
+                buffer.put( ( byte ) '\\' );
+                buffer.put( ( byte ) c );
+                i++;
+            }
+            else if( c < 0x20 ) {
+                putAscii( "\\u00" );
+                buffer.put( HEX[c >> 4] );
+                buffer.put( HEX[c & 0xF] );
+                i++;
+            }
+            else {
+                i = putChar( value, i );
+            }
+        }
+    }
+
+    private void putAscii( String value ) {
+        for( int i = 0; i < value.length(); i++ ) {
+            buffer.put( ( byte ) value.charAt( i ) );
+        }
+    }
+
+    /**
+     * UTF-8 encode the character at an index, combining surrogate pairs.
+     * @param value String being written.
+     * @param index Index of the character.
+     * @return Index of the next character.
+     */
+    private int putChar( String value, int index ) {
+        char c = value.charAt( index );
+
+        if( Character.isHighSurrogate( c ) && index + 1 < value.length() && Character.isLowSurrogate( value.charAt( index + 1 ) ) ) {
+            int codePoint = Character.toCodePoint( c, value.charAt( index + 1 ) );
+            buffer.put( ( byte ) (0xF0 | (codePoint >> 18)) );
+            buffer.put( ( byte ) (0x80 | ((codePoint >> 12) & 0x3F)) );
+            buffer.put( ( byte ) (0x80 | ((codePoint >> 6) & 0x3F)) );
+            buffer.put( ( byte ) (0x80 | (codePoint & 0x3F)) );
+            return index + 2;
+        }
+
+        if( c < 0x80 ) {
+            buffer.put( ( byte ) c );
+        }
+        else if( c < 0x800 ) {
+            buffer.put( ( byte ) (0xC0 | (c >> 6)) );
+            buffer.put( ( byte ) (0x80 | (c & 0x3F)) );
+        }
+        else {
+            buffer.put( ( byte ) (0xE0 | (c >> 12)) );
+            buffer.put( ( byte ) (0x80 | ((c >> 6) & 0x3F)) );
+            buffer.put( ( byte ) (0x80 | (c & 0x3F)) );
+        }
+        return index + 1;
+    }
+
+    /** Write the decimal digits of an int without going through Integer.toString. */
+    private void putInt( int value ) {
+        if( value == Integer.MIN_VALUE ) {
+            putAscii( "-2147483648" );
+            return;
+        }
+        if( value < 0 ) {
+            buffer.put( ( byte ) '-' );
+            value = -value;
+        }
+
+        int divisor = 1;
+        while( value / divisor >= 10 ) {
+            divisor *= 10;
+        }
+        while( divisor > 0 ) {
+            buffer.put( ( byte ) ('0' + value / divisor % 10) );
+            divisor /= 10;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReplicaRouter spreads plain reads over read replicas of the primary database.  Writes and reads that lock rows stay
+ * on the primary, the Factory only asks the router for read connections.
+ * <p>
+ * Each read goes to the healthy replica with the fewest connections on loan, ties rotating, so a slow replica takes
+ * less traffic on its own.  Replica borrows never wait: a replica whose pool is at its maximum is skipped, and with
+ * every replica busy or unhealthy reads fall back to the primary.  A replica that fails a number of borrows or queries
+ * in a row is ejected; a background check validates ejected replicas and readmits one after it passes a number of
+ * checks in a row.
+ * <p>
+ * Replicas lag behind the primary, so a row this process just saved, or that the change feed just reported, may still
+ * read as its old revision there.  The router remembers those revisions for a while, and the Factory re-reads a row
+ * from the primary when a replica returns an older revision than that.  Counts and pages go to the primary for a
+ * while after an insert or delete, a replica may not have the row set yet.
+ */
+public class ReplicaRouter {
+    public static final int DEFAULT_FAILURES_TO_EJECT = 3;
+    public static final int DEFAULT_CHECKS_TO_READMIT = 2;
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 5_000;
+    public static final long DEFAULT_STICKY_MILLIS = 30_000;
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final int MAX_WRITES_REMEMBERED = 10_000;
+
+    private final List<Replica> replicas;
+    private final int failuresToEject;
+    private final int checksToReadmit;
+    private final long stickyMillis;
+    private final AtomicInteger nextStart = new AtomicInteger();
+    private final ScheduledExecutorService checker;
+
+    // REVNUM and time of the latest save or reported change of each EMPID, forgotten once replicas should have caught up
+    private final ConcurrentHashMap<String, long[]> writes = new ConcurrentHashMap<>();
+    private volatile long rowSetChangedAt;
+
+    private final AtomicLong primaryFallbackCount = new AtomicLong();
+    private final AtomicLong saturatedCount = new AtomicLong();
+    private final AtomicLong staleReadCount = new AtomicLong();
+
+    /**
+     * @param replicas            Pools of the read replicas, the router closes them when it is closed.
+     * @param failuresToEject     Consecutive failures that take a replica out of rotation.
+     * @param checksToReadmit     Consecutive passed health checks that put it back.
+     * @param checkIntervalMillis Delay between health checks.
+     * @param stickyMillis        How long reads of a saved or changed row must see at least that revision.
+     */
+    public ReplicaRouter( List<ConnectionPool> replicas, int failuresToEject, int checksToReadmit,
+                          long checkIntervalMillis, long stickyMillis ) {
+        if( failuresToEject < 1 || checksToReadmit < 1 || checkIntervalMillis < 1 || stickyMillis < 0 ) {
+            throw new IllegalArgumentException( "Invalid replica router settings." );
+        }
+
+        List<Replica> list = new ArrayList<>( replicas.size() );
+        for( ConnectionPool pool : replicas ) {
+            list.add( new Replica( pool ) );
+        }
+        this.replicas = Collections.unmodifiableList( list );
+        this.failuresToEject = failuresToEject;
+        this.checksToReadmit = checksToReadmit;
+        this.stickyMillis = stickyMillis;
+
+        checker = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "db-replica-check" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        checker.scheduleWithFixedDelay( this::checkHealth, checkIntervalMillis, checkIntervalMillis,
+                                        TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Borrow a connection from the least busy healthy replica without waiting for one.  A replica with no free
+     * connection is skipped, one whose borrow fails counts a failure, and either way the next one is tried.
+     * @return A replica connection, or null if no replica is available and the caller should use the primary.
+     */
+    public PooledConnection borrow() {
+        int count = replicas.size();
+        int start = Math.floorMod( nextStart.getAndIncrement(), Math.max( count, 1 ) );
+
+        boolean[] tried = new boolean[count];
+        for( int attempt = 0; attempt < count; attempt++ ) {
+            int best = -1;
+            int bestActive = Integer.MAX_VALUE;
+            for( int i = 0; i < count; i++ ) {
+                int index = (start + i) % count;
+                Replica replica = replicas.get( index );
+                int active = replica.pool.getActiveCount();
+                if( replica.healthy && !tried[index] && active < bestActive ) {
+                    best = index;
+                    bestActive = active;
+                }
+            }
+            if( best < 0 ) {
+                break;
+            }
+
+            Replica replica = replicas.get( best );
+            tried[best] = true;
+            try {
+                PooledConnection conn = replica.pool.tryBorrow();
+                if( conn != null ) {
+                    replica.readCount.incrementAndGet();
+                    return conn;
+                }
+                saturatedCount.incrementAndGet();
+            }
+            catch( SQLException e ) {
+                recordFailure( replica.pool, e );
+            }
+        }
+
+        primaryFallbackCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Count a failed query against the replica it ran on.
+     * @param pool Pool the failing connection came from.
+     * @param e    The error.
+     */
+    public void recordFailure( ConnectionPool pool, SQLException e ) {
+        Replica replica = find( pool );
+        if( replica == null ) {
+            return;
+        }
+
+        replica.failureCount.incrementAndGet();
+        if( replica.consecutiveFailures.incrementAndGet() >= failuresToEject && replica.healthy ) {
+            replica.healthy = false;
+            replica.consecutivePasses.set( 0 );
+            replica.ejectCount.incrementAndGet();
+            System.err.println( "Ejected read replica " + pool.getUrl() + "." + e );
+        }
+    }
+
+    /**
+     * Clear the failure streak of the replica a query just succeeded on.
+     * @param pool Pool the connection came from.
+     */
+    public void recordSuccess( ConnectionPool pool ) {
+        Replica replica = find( pool );
+        if( replica != null ) {
+            replica.consecutiveFailures.set( 0 );
+        }
+    }
+
+    /**
+     * Remember a save, so reads of the row keep seeing at least this revision.
+     * @param empID  EMPID of the saved row.
+     * @param revnum REVNUM the save produced.
+     */
+    public void recordWrite( String empID, int revnum ) {
+        if( stickyMillis == 0 ) {
+            return;
+        }
+        if( writes.size() >= MAX_WRITES_REMEMBERED ) {
+            forgetOldWrites();
+        }
+        writes.merge( empID, new long[]{ revnum, System.currentTimeMillis() },
+                      ( previous, latest ) -> previous[0] > latest[0] ? previous : latest );
+    }
+
+    /**
+     * Remember changes reported by the change feed, so reads they trigger see at least the reported revisions.  A
+     * deleted row is remembered with a revision no replica copy can reach, which keeps its reads on the primary.
+     * @param events Changes made by any session.
+     */
+    public void recordChanges( List<ChangeEvent> events ) {
+        for( ChangeEvent event : events ) {
+            if( event.getType() == ChangeEvent.Type.DELETE ) {
+                recordWrite( event.getEmpID(), Integer.MAX_VALUE );
+            }
+            else {
+                recordWrite( event.getEmpID(), event.getRevnum() );
+            }
+            if( event.getType() != ChangeEvent.Type.UPDATE ) {
+                rowSetChangedAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * @return true if a row was inserted or deleted too recently for counts and pages read from a replica to be
+     * trusted.
+     */
+    public boolean isRowSetChanging() {
+        return System.currentTimeMillis() - rowSetChangedAt <= stickyMillis;
+    }
+
+    /**
+     * @param empID EMPID of a row.
+     * @return REVNUM this process last saved the row with, or the feed last reported for it, or -1 if neither happened
+     * recently.
+     */
+    public int getWrittenRevnum( String empID ) {
+        long[] written = writes.get( empID );
+        return written == null || System.currentTimeMillis() - written[1] > stickyMillis ? -1 : ( int ) written[0];
+    }
+
+    /**
+     * Check a row read from a replica against the revision this process last saved.
+     * @param empID  EMPID of the row.
+     * @param revnum REVNUM the replica returned, -1 if it didn't find the row.
+     * @return true if the replica is behind a save or reported change and the row must be read from the primary.
+     */
+    public boolean isStale( String empID, int revnum ) {
+        long[] written = writes.get( empID );
+        if( written == null ) {
+            return false;
+        }
+        if( System.currentTimeMillis() - written[1] > stickyMillis ) {
+            writes.remove( empID, written );
+            return false;
+        }
+        if( revnum < written[0] ) {
+            staleReadCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /** Stop the health checks and close every replica pool. */
+    public void close() {
+        checker.shutdownNow();
+        for( Replica replica : replicas ) {
+            replica.pool.close();
+        }
+    }
+
+    /** Validate every ejected replica, readmitting those that pass enough checks in a row. */
+    private void checkHealth() {
+        for( Replica replica : replicas ) {
+            if( replica.healthy ) {
+                continue;
+            }
+
+            boolean passed;
+            try( PooledConnection conn = replica.pool.borrow() ) {
+                Connection physical = conn.getConnection();
+                passed = physical.isValid( VALIDATION_TIMEOUT_SECONDS );
+            }
+            catch( SQLException e ) {
+                passed = false;
+            }
+
+            if( !passed ) {
+                replica.consecutivePasses.set( 0 );
+            }
+            else if( replica.consecutivePasses.incrementAndGet() >= checksToReadmit ) {
+                replica.consecutiveFailures.set( 0 );
+                replica.healthy = true;
+                System.err.println( "Readmitted read replica " + replica.pool.getUrl() + "." );
+            }
+        }
+        forgetOldWrites();
+    }
+
+    private void forgetOldWrites() {
+        long cutoff = System.currentTimeMillis() - stickyMillis;
+        writes.values().removeIf( written -> written[1] < cutoff );
+    }
+
+    private Replica find( ConnectionPool pool ) {
+        for( Replica replica : replicas ) {
+            if( replica.pool == pool ) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    //---- Statistics ----
+
+    /** @return Number of replicas currently taking reads. */
+    public int getHealthyCount() {
+        int healthy = 0;
+        for( Replica replica : replicas ) {
+            if( replica.healthy ) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    /** @return Reads sent to the primary because no replica was available. */
+    public long getPrimaryFallbackCount() {
+        return primaryFallbackCount.get();
+    }
+
+    /** @return Replicas skipped because every connection in their pool was on loan. */
+    public long getSaturatedCount() {
+        return saturatedCount.get();
+    }
+
+    /** @return Replica reads that returned an older revision than this process had saved. */
+    public long getStaleReadCount() {
+        return staleReadCount.get();
+    }
+
+    /** @return Reads, failures, ejections and health of each replica, keyed by URL. */
+    public Map<String, String> getReplicaStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        for( Replica replica : replicas ) {
+            stats.put( replica.pool.getUrl(), replica.toString() );
+        }
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "db.ReplicaRouter{" +
+                "replicas=" + getReplicaStats().values() +
+                ", primaryFallbacks=" + primaryFallbackCount +
+                ", saturated=" + saturatedCount +
+                ", staleReads=" + staleReadCount +
+                '}';
+    }
+
+    /** One replica's pool and health. */
+    private static class Replica {
+        private final ConnectionPool pool;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicInteger consecutivePasses = new AtomicInteger();
+        private final AtomicLong readCount = new AtomicLong();
+        private final AtomicLong failureCount = new AtomicLong();
+        private final AtomicLong ejectCount = new AtomicLong();
+        private volatile boolean healthy = true;
+
+        Replica( ConnectionPool pool ) {
+            this.pool = pool;
+        }
+
+        @Override
+        public String toString() {
+            return "{url=" + pool.getUrl() +
+                    ", healthy=" + healthy +
+                    ", active=" + pool.getActiveCount() +
+                    ", reads=" + readCount +
+                    ", failures=" + failureCount +
+                    ", ejections=" + ejectCount +
+                    '}';
+        }
+    }
+}
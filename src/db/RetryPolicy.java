@@ -0,0 +1,85 @@
+package db;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * RetryPolicy decides how a save reacts to a row that another session has locked: how long to wait for the lock in
+ * the database, how many times to try, and how long to back off between attempts.  Backoff grows exponentially and is
+ * fully jittered, so sessions that collided once don't collide again in lockstep.
+ */
+public class RetryPolicy {
+    /** Fail on the first lock conflict, the original behaviour. */
+    public static final RetryPolicy NONE = new RetryPolicy( 1, 0, 0, 0 );
+    /** A few quick retries, enough to ride out another session's save. */
+    public static final RetryPolicy DEFAULT = new RetryPolicy( 5, 10, 500, 0 );
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int lockWaitSeconds;
+
+    /**
+     * @param maxAttempts          Attempts in total, at least 1.
+     * @param initialBackoffMillis Upper bound of the first backoff, doubled after every further attempt.
+     * @param maxBackoffMillis     Cap on the backoff upper bound.
+     * @param lockWaitSeconds      Seconds the database waits for a locked row before failing, 0 to fail at once.
+     */
+    public RetryPolicy( int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, int lockWaitSeconds ) {
+        if( maxAttempts < 1 ) {
+            throw new IllegalArgumentException( "maxAttempts must be at least 1: " + maxAttempts );
+        }
+        if( initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis ) {
+            throw new IllegalArgumentException( "Invalid backoff " + initialBackoffMillis + ".." + maxBackoffMillis );
+        }
+        if( lockWaitSeconds < 0 ) {
+            throw new IllegalArgumentException( "lockWaitSeconds must not be negative: " + lockWaitSeconds );
+        }
+
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.lockWaitSeconds = lockWaitSeconds;
+    }
+
+    /**
+     * Pick how long to sleep before the next attempt.
+     * @param attempt Number of attempts that have failed so far, starting at 1.
+     * @return Milliseconds to back off, uniformly random below the exponential bound for this attempt.
+     */
+    public long backoffMillis( int attempt ) {
+        if( maxBackoffMillis == 0 ) {
+            return 0;
+        }
+
+        int doublings = Math.min( attempt - 1, 30 );
+        long bound = Math.min( maxBackoffMillis, initialBackoffMillis << doublings );
+        return bound == 0 ? 0 : ThreadLocalRandom.current().nextLong( bound + 1 );
+    }
+
+    /** @return The lock clause to append to SELECT ... FOR UPDATE. */
+    public String getLockClause() {
+        return lockWaitSeconds == 0 ? "NOWAIT" : "WAIT " + lockWaitSeconds;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public int getLockWaitSeconds() {
+        return lockWaitSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{maxAttempts=" + maxAttempts + ", backoff=" + initialBackoffMillis + ".." + maxBackoffMillis
+                + "ms, lock=" + getLockClause() + '}';
+    }
+}
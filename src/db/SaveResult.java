@@ -0,0 +1,93 @@
+package db;
+
+/** SaveResult is the outcome of writing a single Employee to the database. */
+public class SaveResult {
+    /** The possible outcomes of a save. */
+    public enum Status {
+        /** The row was updated. */
+        SUCCESS,
+        /** The Employee had no changed fields, nothing was sent to the database. */
+        NO_CHANGES,
+        /** The row's REVNUM no longer matched the Employee's, someone else changed it first. */
+        REVNUM_ERROR,
+        /** No row exists with the Employee's EMPID. */
+        NOT_FOUND,
+        /** Another session held the row's lock through every attempt, the save can be tried again later. */
+        LOCKED,
+        /** The database reported an error, see the message. */
+        ERROR
+    }
+
+    private final String empID;
+    private final Status status;
+    private final int revnum;
+    private final String message;
+
+    /**
+     * @param empID   EMPID of the row that was saved.
+     * @param status  Outcome of the save.
+     * @param revnum  REVNUM of the row after the save, or -1 if unknown.
+     * @param message Detail of the outcome, the database's message for errors.
+     */
+    public SaveResult( String empID, Status status, int revnum, String message ) {
+        this.empID = empID;
+        this.status = status;
+        this.revnum = revnum;
+        this.message = message;
+    }
+
+    public static SaveResult success( String empID, int revnum ) {
+        return new SaveResult( empID, Status.SUCCESS, revnum, "SUCCESS" );
+    }
+
+    public static SaveResult noChanges( String empID, int revnum ) {
+        return new SaveResult( empID, Status.NO_CHANGES, revnum, "NO_CHANGES" );
+    }
+
+    public static SaveResult revnumError( String empID, int revnum ) {
+        return new SaveResult( empID, Status.REVNUM_ERROR, revnum, "REVNUM_ERROR" );
+    }
+
+    public static SaveResult notFound( String empID ) {
+        return new SaveResult( empID, Status.NOT_FOUND, -1, "NOT_FOUND" );
+    }
+
+    public static SaveResult locked( String empID, int attempts ) {
+        return new SaveResult( empID, Status.LOCKED, -1,
+                               "Row locked by another session, gave up after " + attempts + " attempt(s)." );
+    }
+
+    public static SaveResult error( String empID, String message ) {
+        return new SaveResult( empID, Status.ERROR, -1, message );
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+
+    public String getEmpID() {
+        return empID;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getRevnum() {
+        return revnum;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "db.SaveResult{" +
+                "empID='" + empID + '\'' +
+                ", status=" + status +
+                ", revnum=" + revnum +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
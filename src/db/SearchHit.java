@@ -0,0 +1,40 @@
+package db;
+
+/** SearchHit is one employee found by an EmployeeSearchIndex, with enough text to show it in a result list. */
+public class SearchHit {
+    private final String empID;
+    private final String label;
+    private final int score;
+
+    /**
+     * @param empID EMPID of the employee found.
+     * @param label Name and city of the employee, for display.
+     * @param score Relevance, higher is better.
+     */
+    public SearchHit( String empID, String label, int score ) {
+        this.empID = empID;
+        this.label = label;
+        this.score = score;
+    }
+
+    public String getEmpID() {
+        return empID;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return "db.SearchHit{" +
+                "empID='" + empID + '\'' +
+                ", label='" + label + '\'' +
+                ", score=" + score +
+                '}';
+    }
+}
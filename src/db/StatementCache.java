@@ -0,0 +1,111 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * StatementCache holds the prepared statements of a single connection keyed by their SQL text, so repeated queries
+ * skip the prepare step.  The least recently used statement is closed once the cache grows past its size.  A cache
+ * belongs to one connection and, like the connection, is only ever used by one thread at a time.
+ */
+public class StatementCache {
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param connection Connection that statements are prepared on.
+     * @param maxSize    Maximum number of statements kept open.
+     */
+    public StatementCache( Connection connection, int maxSize ) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, PreparedStatement> eldest ) {
+                if( size() > maxSize ) {
+                    close( eldest.getValue() );
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the prepared statement for some SQL, preparing it if it isn't cached.  The returned statement is owned by the
+     * cache and must not be closed by the caller.
+     * @param sql SQL text of the statement.
+     * @return A statement ready to have its parameters set, holding no parameters or batched rows from its last use.
+     * @throws SQLException If the statement could not be prepared.
+     */
+    public PreparedStatement prepare( String sql ) throws SQLException {
+        return prepare( sql, sql, null );
+    }
+
+    /**
+     * Get the prepared statement for some DML that hands back column values of the rows it changes through
+     * getGeneratedKeys(), preparing it if it isn't cached.
+     * @param sql           SQL text of the statement.
+     * @param returnColumns Columns to return from each changed row.
+     * @return A statement ready to have its parameters set.
+     * @throws SQLException If the statement could not be prepared.
+     */
+    public PreparedStatement prepare( String sql, String[] returnColumns ) throws SQLException {
+        return prepare( sql + " /* returning " + String.join( ",", returnColumns ) + " */", sql, returnColumns );
+    }
+
+    private PreparedStatement prepare( String key, String sql, String[] returnColumns ) throws SQLException {
+        PreparedStatement statement = statements.get( key );
+
+        if( statement == null || statement.isClosed() ) {
+            misses++;
+            statement = returnColumns == null
+                    ? connection.prepareStatement( sql )
+                    : connection.prepareStatement( sql, returnColumns );
+            statements.put( key, statement );
+        }
+        else {
+            hits++;
+            // A batch that failed partway may still hold rows, the JDBC spec doesn't say it is cleared
+            statement.clearParameters();
+            statement.clearBatch();
+        }
+
+        return statement;
+    }
+
+    /** Close every cached statement. */
+    public void clear() {
+        for( PreparedStatement statement : statements.values() ) {
+            close( statement );
+        }
+        statements.clear();
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    private static void close( PreparedStatement statement ) {
+        try {
+            statement.close();
+        }
+        catch( SQLException e ) {
+            System.err.println( "Error closing cached statement." + e );
+        }
+    }
+}
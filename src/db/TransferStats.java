@@ -0,0 +1,53 @@
+package db;
+
+/** TransferStats summarises a bulk export or import: how many rows moved, how many bytes and how fast. */
+public class TransferStats {
+    private final long rows;
+    private final long rejectedRows;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    /**
+     * @param rows         Rows successfully transferred.
+     * @param rejectedRows Rows that were skipped as invalid.
+     * @param bytes        Bytes read or written.
+     * @param elapsedNanos Wall clock time of the whole transfer.
+     */
+    public TransferStats( long rows, long rejectedRows, long bytes, long elapsedNanos ) {
+        this.rows = rows;
+        this.rejectedRows = rejectedRows;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getRejectedRows() {
+        return rejectedRows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "db.TransferStats{" +
+                "rows=" + rows +
+                ", rejectedRows=" + rejectedRows +
+                ", bytes=" + bytes +
+                ", elapsedMs=" + elapsedNanos / 1_000_000 +
+                ", rowsPerSecond=" + ( long ) getRowsPerSecond() +
+                '}';
+    }
+}
@@ -0,0 +1,57 @@
+package db;
+
+/**
+ * ValidationResult collects every field of an Employee that failed validation.  Violations are kept as a bitmask, so a
+ * single instance can be reset and reused across many rows without allocating.
+ */
+public class ValidationResult {
+    private int violations;
+
+    /** Forget any previous violations. */
+    public void reset() {
+        violations = 0;
+    }
+
+    /**
+     * Record a violation.
+     * @param field Field that failed validation.
+     */
+    public void add( EmployeeField field ) {
+        violations |= field.mask();
+    }
+
+    public boolean isValid() {
+        return violations == 0;
+    }
+
+    public boolean hasViolation( EmployeeField field ) {
+        return (violations & field.mask()) != 0;
+    }
+
+    /** @return Bitmask of the failed fields, bit n being the field with ordinal n. */
+    public int getViolationMask() {
+        return violations;
+    }
+
+    /** @return The first failed field, or null if there are none. */
+    public EmployeeField firstViolation() {
+        return violations == 0 ? null : EmployeeField.of( Integer.numberOfTrailingZeros( violations ) );
+    }
+
+    /** @return Comma separated column names of the failed fields, empty if valid. */
+    public String describe() {
+        StringBuilder builder = new StringBuilder();
+        for( int bits = violations; bits != 0; bits &= bits - 1 ) {
+            if( builder.length() > 0 ) {
+                builder.append( ", " );
+            }
+            builder.append( EmployeeField.of( Integer.numberOfTrailingZeros( bits ) ).getColumn() );
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "db.ValidationResult{" + "violations=[" + describe() + "]}";
+    }
+}
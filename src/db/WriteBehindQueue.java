@@ -0,0 +1,370 @@
+package db;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * WriteBehindQueue collects saves and commits them in groups, so a burst of updates pays for one transaction and one
+ * log flush per group instead of one per save.  A group is written through {@link Factory#saveEmployees(java.util.Collection)}
+ * once it reaches the group size or its oldest save has waited for the window, whichever comes first.
+ * <p>
+ * Saves of the same EMPID based on the same revnum are merged while they wait, each field taking its latest value, and
+ * every merged save's future completes with the one result.  A save based on a different revnum is queued behind the
+ * earlier one and goes in a later group.
+ * <p>
+ * The queue holds at most its capacity of distinct rows.  A save that finds it full waits for room up to the offer
+ * timeout and then fails with a RejectedExecutionException, so producers slow down to the rate the database takes.
+ * Shutting down refuses new saves and commits everything already queued.
+ */
+public class WriteBehindQueue {
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final int DEFAULT_GROUP_SIZE = 500;
+    public static final long DEFAULT_WINDOW_MILLIS = 20;
+    public static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 5_000;
+
+    // While shutting down the flusher re-checks this often for saves that were already on their way in
+    private static final long DRAIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos( 1 );
+
+    private final int groupSize;
+    private final long windowNanos;
+    private final long offerTimeoutMillis;
+
+    // The latest entry of each EMPID that saves may still merge into, and every entry in arrival order
+    private final ConcurrentHashMap<String, Pending> open = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Pending> order = new ConcurrentLinkedQueue<>();
+    private final Semaphore space;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger arriving = new AtomicInteger();
+
+    // Only touched by the flusher, entries that had to wait for a group without their EMPID
+    private final ArrayDeque<Pending> deferred = new ArrayDeque<>();
+
+    private final AtomicLong submitCount = new AtomicLong();
+    private final AtomicLong mergeCount = new AtomicLong();
+    private final AtomicLong rejectCount = new AtomicLong();
+    private final AtomicLong groupCount = new AtomicLong();
+    private final AtomicLong rowCount = new AtomicLong();
+
+    private volatile boolean accepting = true;
+    private volatile Thread flusher;
+
+    /**
+     * @param capacity           Most distinct rows waiting at once.
+     * @param groupSize          Most rows committed in one transaction.
+     * @param windowMillis       Longest a save waits for its group to fill.
+     * @param offerTimeoutMillis Longest a save waits for room in a full queue.
+     */
+    public WriteBehindQueue( int capacity, int groupSize, long windowMillis, long offerTimeoutMillis ) {
+        if( capacity < 1 || groupSize < 1 || windowMillis < 0 || offerTimeoutMillis < 0 ) {
+            throw new IllegalArgumentException( "Invalid write-behind settings." );
+        }
+
+        this.groupSize = groupSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos( windowMillis );
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.space = new Semaphore( capacity );
+    }
+
+    /** Start the flusher thread.  Does nothing if already started. */
+    public synchronized void start() {
+        if( flusher != null ) {
+            return;
+        }
+
+        flusher = new Thread( this::flushLoop, "db-write-behind" );
+        flusher.setDaemon( true );
+        flusher.start();
+    }
+
+    /**
+     * Queue an employee to be saved with the next group.  The employee is copied, later changes to it aren't saved.
+     * Blocks while the queue is full, up to the offer timeout.
+     * @param employee Employee to update in the database.
+     * @return Future of the outcome, shared with any saves merged into this one.  Fails with a
+     *         RejectedExecutionException if the queue stayed full or is shut down.
+     */
+    public CompletableFuture<SaveResult> submit( Employee employee ) {
+        CompletableFuture<SaveResult> result = new CompletableFuture<>();
+        Employee copy = new Employee( employee );
+        submitCount.incrementAndGet();
+
+        // Counted before accepting is checked, so a drain that sees no arrivals also sees no later entries
+        arriving.incrementAndGet();
+        try {
+            if( !accepting ) {
+                throw new RejectedExecutionException( "Write-behind queue is shut down." );
+            }
+            if( merge( copy, result ) ) {
+                return result;
+            }
+
+            if( !space.tryAcquire( offerTimeoutMillis, TimeUnit.MILLISECONDS ) ) {
+                throw new RejectedExecutionException( "Write-behind queue full for " + offerTimeoutMillis + "ms." );
+            }
+            if( merge( copy, result ) ) {
+                space.release(); // Someone else queued the row while this save waited for room
+                return result;
+            }
+
+            Pending entry = new Pending( copy, result );
+            open.compute( copy.getEmpID(), ( empID, previous ) -> {
+                if( previous != null && previous.tryMerge( copy, result ) ) {
+                    space.release();
+                    return previous;
+                }
+                order.offer( entry );
+                int size = queued.incrementAndGet();
+                if( size == 1 || size == groupSize ) {
+                    LockSupport.unpark( flusher );
+                }
+                return entry;
+            } );
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            rejectCount.incrementAndGet();
+            result.completeExceptionally( new RejectedExecutionException( "Interrupted waiting for the write-behind queue.", e ) );
+        }
+        catch( RejectedExecutionException e ) {
+            rejectCount.incrementAndGet();
+            result.completeExceptionally( e );
+        }
+        finally {
+            arriving.decrementAndGet();
+        }
+
+        return result;
+    }
+
+    /**
+     * Refuse new saves and wait for everything queued to be committed.
+     * @param timeoutMillis Longest to wait for the drain.
+     * @return true if the queue drained in time.
+     */
+    public boolean shutdown( long timeoutMillis ) {
+        Thread thread;
+        synchronized( this ) {
+            accepting = false;
+            thread = flusher;
+        }
+        if( thread == null ) {
+            drainOnCallerThread();
+            return true;
+        }
+
+        LockSupport.unpark( thread );
+        try {
+            thread.join( timeoutMillis );
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+
+    public boolean isAccepting() {
+        return accepting;
+    }
+
+    //---- Statistics ----
+
+    /** @return Distinct rows waiting to be committed. */
+    public int size() {
+        return queued.get();
+    }
+
+    /** @return Saves submitted, including rejected ones. */
+    public long getSubmitCount() {
+        return submitCount.get();
+    }
+
+    /** @return Saves folded into an earlier save of the same row. */
+    public long getMergeCount() {
+        return mergeCount.get();
+    }
+
+    /** @return Saves refused because the queue was full or shut down. */
+    public long getRejectCount() {
+        return rejectCount.get();
+    }
+
+    /** @return Transactions committed. */
+    public long getGroupCount() {
+        return groupCount.get();
+    }
+
+    /** @return Rows sent to the database, after merging. */
+    public long getRowCount() {
+        return rowCount.get();
+    }
+
+    /**
+     * Fold a save into the waiting entry of its row, if there is one it can merge with.
+     * @return true if merged.
+     */
+    private boolean merge( Employee employee, CompletableFuture<SaveResult> result ) {
+        boolean[] merged = { false };
+        open.computeIfPresent( employee.getEmpID(), ( empID, previous ) -> {
+            merged[0] = previous.tryMerge( employee, result );
+            return previous;
+        } );
+        return merged[0];
+    }
+
+    /** The flusher was never started, commit whatever was queued on this thread instead. */
+    private void drainOnCallerThread() {
+        int flushed;
+        do {
+            flushed = flushGroup();
+        } while( flushed > 0 );
+    }
+
+    private void flushLoop() {
+        while( true ) {
+            Pending head = deferred.isEmpty() ? order.peek() : deferred.peek();
+            if( head == null ) {
+                if( !accepting && arriving.get() == 0 && order.isEmpty() ) {
+                    return;
+                }
+                if( accepting ) {
+                    LockSupport.park( this );
+                }
+                else {
+                    LockSupport.parkNanos( this, DRAIN_POLL_NANOS );
+                }
+                continue;
+            }
+
+            long wait = head.queuedAt + windowNanos - System.nanoTime();
+            if( accepting && wait > 0 && queued.get() < groupSize ) {
+                LockSupport.parkNanos( this, wait );
+                continue;
+            }
+
+            try {
+                flushGroup();
+            }
+            catch( RuntimeException e ) {
+                System.err.println( "Write-behind flush failed." + e );
+            }
+        }
+    }
+
+    /**
+     * Commit the next group of queued saves in one transaction and complete their futures.
+     * @return Number of rows in the group, 0 if nothing was queued.
+     */
+    private int flushGroup() {
+        List<Pending> group = new ArrayList<>( Math.min( groupSize, queued.get() ) );
+        List<Pending> later = new ArrayList<>();
+        Set<String> empIDs = new HashSet<>();
+
+        while( group.size() < groupSize ) {
+            Pending entry = deferred.isEmpty() ? order.poll() : deferred.poll();
+            if( entry == null ) {
+                break;
+            }
+
+            // Once out of the map no save can merge into the entry, so its Employee is final from here on
+            open.remove( entry.employee.getEmpID(), entry );
+            if( empIDs.add( entry.employee.getEmpID() ) ) {
+                group.add( entry );
+            }
+            else {
+                later.add( entry ); // A second revision of a row in the same batch would fail its revnum check
+            }
+        }
+        for( int i = later.size() - 1; i >= 0; i-- ) {
+            deferred.addFirst( later.get( i ) );
+        }
+        if( group.isEmpty() ) {
+            return 0;
+        }
+
+        queued.addAndGet( -group.size() );
+        space.release( group.size() );
+
+        List<Employee> employees = new ArrayList<>( group.size() );
+        for( Pending entry : group ) {
+            employees.add( entry.employee );
+        }
+
+        try {
+            List<SaveResult> results = Factory.saveEmployees( employees );
+            for( int i = 0; i < group.size(); i++ ) {
+                group.get( i ).complete( results.get( i ) );
+            }
+        }
+        catch( RuntimeException e ) {
+            for( Pending entry : group ) {
+                entry.fail( e );
+            }
+            throw e;
+        }
+        finally {
+            groupCount.incrementAndGet();
+            rowCount.addAndGet( group.size() );
+        }
+
+        return group.size();
+    }
+
+    @Override
+    public String toString() {
+        return "db.WriteBehindQueue{" +
+                "size=" + size() +
+                ", submitted=" + submitCount +
+                ", merged=" + mergeCount +
+                ", rejected=" + rejectCount +
+                ", groups=" + groupCount +
+                ", rows=" + rowCount +
+                '}';
+    }
+
+    /** One row waiting to be saved and the futures of every save merged into it. */
+    private class Pending {
+        private final Employee employee;
+        private final List<CompletableFuture<SaveResult>> futures = new ArrayList<>( 1 );
+        private final long queuedAt = System.nanoTime();
+
+        Pending( Employee employee, CompletableFuture<SaveResult> future ) {
+            this.employee = employee;
+            this.futures.add( future );
+        }
+
+        /** Called inside the map's lock for the EMPID, so never at the same time as the flusher's removal. */
+        boolean tryMerge( Employee later, CompletableFuture<SaveResult> future ) {
+            if( later.getRevnum() != employee.getRevnum() ) {
+                return false;
+            }
+            employee.mergeChanges( later );
+            futures.add( future );
+            mergeCount.incrementAndGet();
+            return true;
+        }
+
+        void complete( SaveResult result ) {
+            for( CompletableFuture<SaveResult> future : futures ) {
+                future.complete( result );
+            }
+        }
+
+        void fail( Throwable error ) {
+            for( CompletableFuture<SaveResult> future : futures ) {
+                future.completeExceptionally( error );
+            }
+        }
+    }
+}
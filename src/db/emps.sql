@@ -0,0 +1,20 @@
+-- The EMPS table the Factory reads and writes.  Run once per schema, before emps_changes.sql.
+--
+-- REVNUM is the row's revision, used to detect concurrent edits.  Inserts give it a starting value and every UPDATE
+-- the application sends bumps it in the same statement (SET ..., REVNUM = REVNUM + 1), whether the save locks the row
+-- first or matches on the old REVNUM.  The application is the only thing meant to change REVNUM, and it reads the new
+-- value back from each UPDATE rather than assuming it went up by one.  A trigger left over from before that also
+-- increments it makes every save bump it twice, which is harmless but wasteful, so drop it, e.g.
+--   DROP TRIGGER EMPS_REVNUM_TRG;
+
+CREATE TABLE EMPS (
+    empid  VARCHAR2(3)  PRIMARY KEY,
+    lname  VARCHAR2(20),
+    fname  VARCHAR2(20),
+    salary NUMBER(8),
+    street VARCHAR2(30),
+    city   VARCHAR2(18),
+    state  VARCHAR2(2),
+    zip    VARCHAR2(5),
+    revnum NUMBER(8)    DEFAULT 0 NOT NULL
+);
@@ -0,0 +1,29 @@
+-- Change log read by db.ChangeFeed.  Every insert, update and delete of EMPS appends a row, numbered by a sequence,
+-- recording the EMPID and the REVNUM the row was left with.  Run once per schema.
+--
+-- Rows are only read, never removed, by the application.  Purge old ones periodically, e.g.
+--   DELETE FROM EMPS_CHANGES WHERE changed_at < SYSTIMESTAMP - INTERVAL '1' DAY;
+
+CREATE SEQUENCE EMPS_CHANGES_SEQ;
+
+CREATE TABLE EMPS_CHANGES (
+    seq        NUMBER(19)   PRIMARY KEY,
+    empid      VARCHAR2(3)  NOT NULL,
+    revnum     NUMBER(8),
+    op         CHAR(1)      NOT NULL,
+    changed_at TIMESTAMP    DEFAULT SYSTIMESTAMP NOT NULL
+);
+
+CREATE OR REPLACE TRIGGER EMPS_CHANGES_TRG
+    AFTER INSERT OR UPDATE OR DELETE ON EMPS
+    FOR EACH ROW
+BEGIN
+    IF DELETING THEN
+        INSERT INTO EMPS_CHANGES (seq, empid, revnum, op) VALUES (EMPS_CHANGES_SEQ.NEXTVAL, :OLD.empid, NULL, 'D');
+    ELSIF INSERTING THEN
+        INSERT INTO EMPS_CHANGES (seq, empid, revnum, op) VALUES (EMPS_CHANGES_SEQ.NEXTVAL, :NEW.empid, :NEW.revnum, 'I');
+    ELSE
+        INSERT INTO EMPS_CHANGES (seq, empid, revnum, op) VALUES (EMPS_CHANGES_SEQ.NEXTVAL, :NEW.empid, :NEW.revnum, 'U');
+    END IF;
+END;
+/
@@ -1,5 +1,8 @@
 package view;
 
+import db.AsyncFactory;
+import db.EmployeeCacheSnapshot;
+import db.Factory;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -8,8 +11,18 @@ import javafx.stage.Stage;
 
 /** The ApplicationController is responsible for loading the View and connecting it to the Controller. */
 public class ApplicationController extends Application {
+    // Longest to wait at exit for queued saves to be committed
+    private static final long SHUTDOWN_DRAIN_MILLIS = 10_000;
+
     @Override
     public void start( Stage primaryStage ) throws Exception {
+        // Warm the employee cache before the view starts reading
+        EmployeeCacheSnapshot snapshot = Factory.getCacheSnapshot();
+        if( snapshot != null ) {
+            snapshot.restore();
+            snapshot.start( EmployeeCacheSnapshot.DEFAULT_PERIOD_MILLIS );
+        }
+
         FXMLLoader loader = new FXMLLoader( ApplicationController.class.getResource( "MainView.fxml" ) );
         Pane root = loader.load();
 
@@ -17,5 +30,20 @@ public class ApplicationController extends Application {
         primaryStage.setScene( scene );
         primaryStage.setTitle( "ITEC340 - HW11" );
         primaryStage.show();
+
+        Factory.getMetrics().registerMBean();
+        Factory.getRowMapper().setTrackAllocations( true );
+        Factory.getChangeFeed().start();
+    }
+
+    @Override
+    public void stop() {
+        Factory.getChangeFeed().stop();
+        Factory.shutdownWriteBehindQueue( SHUTDOWN_DRAIN_MILLIS );
+        EmployeeCacheSnapshot snapshot = Factory.getCacheSnapshot();
+        if( snapshot != null ) {
+            snapshot.stop();
+        }
+        AsyncFactory.shutdown();
     }
 }
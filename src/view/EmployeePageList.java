@@ -0,0 +1,211 @@
+package view;
+
+import db.AsyncFactory;
+import db.ChangeEvent;
+import db.Employee;
+import db.Factory;
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * EmployeePageList is a read-only list of every row of EMPS in EMPID order that only holds a few pages in memory.  A
+ * virtualized TableView asks for the rows it displays, missing pages are loaded in the background (returning null
+ * until they arrive) and the page after each loaded page is prefetched.  Pages are read by keyset pagination, the
+ * last EMPID of each page is remembered so the next one can start right after it.  Only a jump to a page whose
+ * predecessor was never loaded falls back to an offset query.
+ * <p>
+ * All state is confined to the JavaFX Application Thread.
+ */
+public class EmployeePageList extends ObservableListBase<Employee> {
+    public static final int PAGE_SIZE = 100;
+    private static final int MAX_CACHED_PAGES = 20;
+
+    private final Map<Integer, List<Employee>> pages = new LinkedHashMap<Integer, List<Employee>>( 16, 0.75f, true ) {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Integer, List<Employee>> eldest ) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    private final Map<Integer, String> lastKeys = new HashMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+
+    private int size;
+    private int generation;
+
+    /** Discard everything and count the table again.  The list is empty until the count arrives. */
+    public void refresh() {
+        int oldSize = size;
+        int current = ++generation;
+
+        pages.clear();
+        lastKeys.clear();
+        loading.clear();
+        setSize( 0, oldSize );
+
+        AsyncFactory.submit( Factory::countEmployees ).thenAccept( count -> Platform.runLater( () -> {
+            if( current == generation && count != null && count > 0 ) {
+                setSize( ( int ) Math.min( count, Integer.MAX_VALUE ), 0 );
+            }
+        } ) );
+    }
+
+    /**
+     * Bring the list up to date with rows changed in the database.  Updated rows are reloaded with their pages, an
+     * insert or delete shifts the rows after it, so everything is counted and loaded again.
+     * @param events Changes reported by the change feed.
+     */
+    public void onEmployeesChanged( List<ChangeEvent> events ) {
+        Set<String> updated = new HashSet<>();
+        for( ChangeEvent event : events ) {
+            if( event.getType() != ChangeEvent.Type.UPDATE ) {
+                refresh();
+                return;
+            }
+            updated.add( event.getEmpID() );
+        }
+
+        List<Integer> stale = new ArrayList<>();
+        for( Map.Entry<Integer, List<Employee>> entry : pages.entrySet() ) {
+            for( Employee employee : entry.getValue() ) {
+                if( updated.contains( employee.getEmpID() ) ) {
+                    stale.add( entry.getKey() );
+                    break;
+                }
+            }
+        }
+        if( stale.isEmpty() ) {
+            return;
+        }
+
+        // Dropped pages read as null, which makes the table ask for them again and so reload them
+        beginChange();
+        for( int pageNumber : stale ) {
+            pages.remove( pageNumber );
+            int from = pageNumber * PAGE_SIZE;
+            int to = Math.min( size, from + PAGE_SIZE );
+            for( int i = from; i < to; i++ ) {
+                nextSet( i, null );
+            }
+        }
+        endChange();
+    }
+
+    @Override
+    public Employee get( int index ) {
+        if( index < 0 || index >= size ) {
+            throw new IndexOutOfBoundsException( "Index " + index + " of " + size );
+        }
+
+        int pageNumber = index / PAGE_SIZE;
+        List<Employee> page = pages.get( pageNumber );
+        if( page == null ) {
+            load( pageNumber, false );
+            return null;
+        }
+
+        int offset = index % PAGE_SIZE;
+        return offset < page.size() ? page.get( offset ) : null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** @return Number of pages currently held in memory. */
+    public int getCachedPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Start loading a page unless it is cached or already on its way.
+     * @param pageNumber Page to load.
+     * @param prefetch   true if nothing is displaying the page yet.
+     */
+    private void load( int pageNumber, boolean prefetch ) {
+        if( pageNumber * ( long ) PAGE_SIZE >= size || pages.containsKey( pageNumber ) || !loading.add( pageNumber ) ) {
+            return;
+        }
+
+        int current = generation;
+        String afterKey = pageNumber == 0 ? null : lastKeys.get( pageNumber - 1 );
+        boolean keyset = pageNumber == 0 || afterKey != null;
+
+        AsyncFactory.submit( () -> keyset
+                ? Factory.getEmployeePage( afterKey, PAGE_SIZE )
+                : Factory.getEmployeePageAt( pageNumber * ( long ) PAGE_SIZE, PAGE_SIZE )
+        ).whenComplete( ( page, error ) -> Platform.runLater( () -> {
+            if( current == generation ) {
+                onPageLoaded( pageNumber, error == null ? page : null, prefetch );
+            }
+        } ) );
+    }
+
+    private void onPageLoaded( int pageNumber, List<Employee> page, boolean prefetch ) {
+        loading.remove( pageNumber );
+        if( page == null ) {
+            return; // Failed, the next get() will try again
+        }
+
+        pages.put( pageNumber, page );
+        if( !page.isEmpty() ) {
+            lastKeys.put( pageNumber, page.get( page.size() - 1 ).getEmpID() );
+        }
+
+        int from = pageNumber * PAGE_SIZE;
+        int to = Math.min( size, from + PAGE_SIZE );
+        if( from < to ) {
+            beginChange();
+            for( int i = from; i < to; i++ ) {
+                nextSet( i, null );
+            }
+            endChange();
+        }
+
+        // Scrolling is usually forward, have the next page ready before it is needed
+        if( !prefetch && page.size() == PAGE_SIZE ) {
+            load( pageNumber + 1, true );
+        }
+    }
+
+    private void setSize( int newSize, int oldSize ) {
+        size = newSize;
+
+        beginChange();
+        if( oldSize > 0 ) {
+            nextRemove( 0, new PlaceholderList( oldSize ) );
+        }
+        if( newSize > 0 ) {
+            nextAdd( 0, newSize );
+        }
+        endChange();
+    }
+
+    /** A list of nulls standing in for removed rows, so a removal doesn't need the rows themselves. */
+    private static class PlaceholderList extends AbstractList<Employee> {
+        private final int size;
+
+        private PlaceholderList( int size ) {
+            this.size = size;
+        }
+
+        @Override
+        public Employee get( int index ) {
+            return null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
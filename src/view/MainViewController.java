@@ -1,23 +1,46 @@
 package view;
 
+import db.AsyncFactory;
+import db.ChangeEvent;
 import db.Employee;
+import db.EmployeeSearchIndex;
 import db.Factory;
 import db.LengthException;
+import db.SaveResult;
+import db.SearchHit;
+import db.ValidationResult;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.geometry.Side;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
 /**
  * Controller class for the MainView.  This class handles communication with the DB through the Factory class.  The
  * only data model manipulated is an Employee.  Basic flow is the user specifies an EmployeeID, which is used to query
  * the DB.  The data is brought back as an Employee object then parsed into the View's textfields.  The user modifies
- * the textfields and clicks save, which will send the data back to the DB as an update.
+ * the textfields and clicks save, which will send the data back to the DB as an update.  All DB work runs in the
+ * background through AsyncFactory, results are applied back on the JavaFX Application Thread.
  */
 public class MainViewController {
+    private static final int SEARCH_RESULTS = 10;
+
     private AppState currentState = AppState.CLEAR;
     private Employee currentEmployeeData;
+    private CompletableFuture<Employee> pendingLoad;
+    private boolean busy;
+    private int notifiedRevnum = -1;
 
     @FXML private TextField fNameField;
     @FXML private TextField lNameField;
@@ -28,20 +51,77 @@ public class MainViewController {
     @FXML private TextField zipField;
     @FXML private TextField revNumField;
     @FXML private TextField empIDField;
+    @FXML private TextField searchField;
     @FXML private Button saveButton;
     @FXML private Button loadButton;
     @FXML private Button clearButton;
+    @FXML private TableView<Employee> browseTable;
+    @FXML private TableColumn<Employee, String> browseEmpIDColumn;
+    @FXML private TableColumn<Employee, String> browseLNameColumn;
+    @FXML private TableColumn<Employee, String> browseFNameColumn;
+    @FXML private TableColumn<Employee, String> browseCityColumn;
+    @FXML private TableColumn<Employee, String> browseStateColumn;
+    private final EmployeePageList browseList = new EmployeePageList();
+    private final ContextMenu searchResults = new ContextMenu();
+    private EmployeeSearchIndex searchIndex;
 
     /** Setup the GUI for first use. */
     @FXML
     public void initialize() {
         installValidators();
+        installBrowser();
+        installSearch();
 
         saveButton.setOnAction( this::onSaveClicked );
         loadButton.setOnAction( this::onLoadClicked );
         clearButton.setOnAction( this::onClearClicked );
 
         saveButton.setDisable( true );
+
+        Factory.getChangeFeed().subscribe( events -> Platform.runLater( () -> onEmployeesChanged( events ) ) );
+    }
+
+    /**
+     * Keep the browser and the loaded employee current with changes made by other sessions.  A loaded employee without
+     * unsaved edits is simply reloaded, otherwise the user is warned once that their save will hit a revision error.
+     * Reloads see at least the reported revision, the Factory reads rows a lagging replica hasn't caught up on from the
+     * primary.
+     * @param events Changes reported by the change feed.
+     */
+    private void onEmployeesChanged( List<ChangeEvent> events ) {
+        browseList.onEmployeesChanged( events );
+
+        if( currentState != AppState.LOADED || busy ) {
+            return; // Our own save or reload is in flight and will bring the form up to date
+        }
+
+        for( ChangeEvent event : events ) {
+            // Late events for older revisions, such as our own earlier saves, are ignored.  A delete beats any revision.
+            int revnum = event.getType() == ChangeEvent.Type.DELETE ? Integer.MAX_VALUE : event.getRevnum();
+            if( event.getEmpID().equals( currentEmployeeData.getEmpID() )
+                    && revnum > currentEmployeeData.getRevnum() ) {
+                if( !hasUnsavedEdits() ) {
+                    onLoadClicked( null );
+                }
+                else if( revnum > notifiedRevnum ) {
+                    notifiedRevnum = revnum;
+                    displayError( "Employee Changed", "This employee has been changed by someone else.  Saving your edits will fail, reload to see the new data." );
+                }
+                return;
+            }
+        }
+    }
+
+    /** @return true if the form differs from the loaded employee. */
+    private boolean hasUnsavedEdits() {
+        Employee loaded = currentEmployeeData;
+        return !( lNameField.getText().equals( loaded.getlName() )
+                && fNameField.getText().equals( loaded.getfName() )
+                && salaryField.getText().equals( Integer.toString( loaded.getSalary() ) )
+                && streetField.getText().equals( loaded.getStreet() )
+                && cityField.getText().equals( loaded.getCity() )
+                && stateField.getText().equals( loaded.getState() )
+                && zipField.getText().equals( loaded.getZip() ) );
     }
 
     /**
@@ -49,33 +129,93 @@ public class MainViewController {
      * @param event unused.
      */
     private void onSaveClicked( ActionEvent event ) {
-        Employee newEmployeeData = getEmployeeFromFields();
+        Employee formData = getEmployeeFromFields();
+        Employee newEmployeeData = formData == null ? null : applyChanges( currentEmployeeData, formData );
 
         if( newEmployeeData != null ) {
-            if( currentEmployeeData.equals( newEmployeeData ) ) {
+            if( newEmployeeData.getUpdateMask() == 0 ) {
                 displayMessage( "No Changes", "Not Data Changes", "The data in the form has not been altered, ignoring save request." );
             }
             else {
-                String result = Factory.saveEmployee( newEmployeeData );
-
-                switch( result ) {
-                    case "SUCCESS":
-                        displayMessage( "Success", "Data Saved Successfully", "Your data was successfully written to the database.  Revision number and fields have been updated." );
-                        onLoadClicked( null );
-                        break;
-                    case "REVNUM_ERROR":
-                        displayError( "Revision Error", "Revision number mismatch from current DB revision number, updating local state." );
-                        onLoadClicked( null );
-                        break;
-                    default: // Handle all other SQL errors
-                        displayError( "Error Writing to DB", "Unhandled Error: " + result );
-                        onClearClicked( null );
-                        break;
-                }
+                setBusy( true, true );
+                AsyncFactory.saveEmployeeOptimistic( newEmployeeData ).whenComplete( ( result, error ) -> Platform.runLater( () -> {
+                    setBusy( false, false );
+                    onSaveCompleted( newEmployeeData, error == null ? result : SaveResult.error( newEmployeeData.getEmpID(), error.toString() ) );
+                } ) );
             }
         }
     }
 
+    /**
+     * Report the outcome of a save to the user and refresh the form.
+     * @param saved  Employee that was sent to the database.
+     * @param result Outcome of the save.
+     */
+    private void onSaveCompleted( Employee saved, SaveResult result ) {
+        switch( result.getStatus() ) {
+            case SUCCESS:
+                // The save reports the new revision number, so the form already matches the row without reloading it
+                try {
+                    saved.setRevnum( result.getRevnum() );
+                    saved.markClean();
+                    currentEmployeeData = saved;
+                    displayEmployee( currentEmployeeData );
+                }
+                catch( LengthException le ) {
+                    onLoadClicked( null );
+                }
+                displayMessage( "Success", "Data Saved Successfully", "Your data was successfully written to the database.  Revision number and fields have been updated." );
+                break;
+            case NO_CHANGES:
+                displayMessage( "No Changes", "Not Data Changes", "The data in the form has not been altered, ignoring save request." );
+                break;
+            case REVNUM_ERROR:
+                displayError( "Revision Error", "Revision number mismatch from current DB revision number, updating local state." );
+                onLoadClicked( null );
+                break;
+            case NOT_FOUND:
+                displayError( "Employee Not Found", "The employee no longer exists in the database." );
+                onClearClicked( null );
+                break;
+            case LOCKED: // Keep the user's edits so they can simply save again
+                displayError( "Employee Locked", "Someone else is saving this employee right now.  Your changes have not been saved, please try again." );
+                break;
+            default: // Handle all other SQL errors
+                displayError( "Error Writing to DB", "Unhandled Error: " + result.getMessage() );
+                onClearClicked( null );
+                break;
+        }
+    }
+
+    /**
+     * Copy the loaded Employee and set the form's values on the copy, so only the fields the user actually changed are
+     * marked dirty and written by the save.
+     * @param loaded   Employee as it was loaded.
+     * @param formData Validated values of the form.
+     * @return The edited copy, or null if a value was rejected.
+     */
+    private Employee applyChanges( Employee loaded, Employee formData ) {
+        Employee edited = new Employee( loaded );
+
+        try {
+            edited.setEmpID( formData.getEmpID() );
+            edited.setlName( formData.getlName() );
+            edited.setfName( formData.getfName() );
+            edited.setSalary( formData.getSalary() );
+            edited.setStreet( formData.getStreet() );
+            edited.setCity( formData.getCity() );
+            edited.setState( formData.getState() );
+            edited.setZip( formData.getZip() );
+            edited.setRevnum( formData.getRevnum() );
+        }
+        catch( LengthException le ) {
+            displayError( "Field Length", "This field is of invalid length: " + le.getField() );
+            edited = null;
+        }
+
+        return edited;
+    }
+
     /**
      * Parse the textfields of the form into a new Employee object.
      * @return an Employee if all is well, null otherwise.
@@ -84,7 +224,8 @@ public class MainViewController {
         Employee employeeData = null;
 
         try {
-            employeeData = new Employee(
+            ValidationResult validation = new ValidationResult();
+            employeeData = Employee.create(
                     empIDField.getText(),
                     lNameField.getText(),
                     fNameField.getText(),
@@ -93,16 +234,17 @@ public class MainViewController {
                     cityField.getText(),
                     stateField.getText(),
                     zipField.getText(),
-                    Integer.parseInt( revNumField.getText() )
+                    Integer.parseInt( revNumField.getText() ),
+                    validation
             );
 
+            if( employeeData == null ) {
+                displayError( "Field Length", "These fields are of invalid length: " + validation.describe() );
+            }
         }
         catch( NumberFormatException nfe ) {
             displayError( "Not a Number", "Salary is not a valid number." );
         }
-        catch( LengthException le ) {
-            displayError( "Field Length", "One or more fields are of invalid length." );
-        }
         catch( Exception e ) {
             displayError( "Unknown Error", "There has been an unknown error.  No changes will be written." );
         }
@@ -111,20 +253,34 @@ public class MainViewController {
     }
 
     /**
-     * Load/Reload an employee's data from the DB and display it in the textfields.
+     * Load/Reload an employee's data from the DB and display it in the textfields.  A load still in flight is cancelled
+     * and its result ignored.
      * @param event unused.
      */
     private void onLoadClicked( ActionEvent event ) {
         String text = empIDField.getText();
         if( !text.isEmpty() ) {
-            currentEmployeeData = Factory.getEmployee( text );
-            if( currentEmployeeData != null ) {
-                displayEmployee( currentEmployeeData );
-                changeButtonState( AppState.LOADED );
-            }
-            else {
-                displayError( "Employee Not Found", "There was an error locating the specified employee." );
-            }
+            cancelPendingLoad();
+            setBusy( true, false );
+
+            CompletableFuture<Employee> load = AsyncFactory.getEmployee( text );
+            pendingLoad = load;
+            load.whenComplete( ( employee, error ) -> Platform.runLater( () -> {
+                if( load != pendingLoad ) {
+                    return; // Superseded or cancelled
+                }
+                pendingLoad = null;
+                setBusy( false, false );
+
+                if( employee != null ) {
+                    currentEmployeeData = employee;
+                    displayEmployee( currentEmployeeData );
+                    changeButtonState( AppState.LOADED );
+                }
+                else {
+                    displayError( "Employee Not Found", "There was an error locating the specified employee." );
+                }
+            } ) );
         }
         else {
             displayError( "Employee ID Empty", "Please specify the employee's ID." );
@@ -136,6 +292,8 @@ public class MainViewController {
      * @param event unused.
      */
     private void onClearClicked( ActionEvent event ) {
+        cancelPendingLoad();
+        setBusy( false, false );
         changeButtonState( AppState.CLEAR );
 
         currentEmployeeData = null;
@@ -154,6 +312,7 @@ public class MainViewController {
      * @param employee Source to read from.
      */
     public void displayEmployee( Employee employee ) {
+        notifiedRevnum = -1;
         empIDField.setText( employee.getEmpID() );
         lNameField.setText( employee.getlName() );
         fNameField.setText( employee.getfName() );
@@ -194,6 +353,26 @@ public class MainViewController {
         alert.showAndWait();
     }
 
+    /** Cancel the load in flight, if any, so its result is never displayed. */
+    private void cancelPendingLoad() {
+        if( pendingLoad != null ) {
+            pendingLoad.cancel( false );
+            pendingLoad = null;
+        }
+    }
+
+    /**
+     * Disable the DB interface buttons while work is in flight.  Clear stays usable during a load so it can be aborted.
+     * @param busy   true while a DB call is running.
+     * @param saving true if the running call is a save, which can't be aborted.
+     */
+    private void setBusy( boolean busy, boolean saving ) {
+        this.busy = busy;
+        loadButton.setDisable( busy );
+        clearButton.setDisable( busy && saving );
+        saveButton.setDisable( busy || currentState != AppState.LOADED );
+    }
+
     /**
      * Change the state of the application's DB interface buttons.
      * @param newState State to change to.
@@ -219,6 +398,93 @@ public class MainViewController {
         currentState = newState;
     }
 
+    /** Connect the browse table to the paged employee list.  Double clicking a row loads that employee. */
+    private void installBrowser() {
+        bindColumn( browseEmpIDColumn, Employee::getEmpID );
+        bindColumn( browseLNameColumn, Employee::getlName );
+        bindColumn( browseFNameColumn, Employee::getfName );
+        bindColumn( browseCityColumn, Employee::getCity );
+        bindColumn( browseStateColumn, Employee::getState );
+
+        browseTable.setItems( browseList );
+        browseTable.setOnMouseClicked( event -> {
+            Employee selected = browseTable.getSelectionModel().getSelectedItem();
+            if( event.getClickCount() == 2 && selected != null ) {
+                onClearClicked( null );
+                empIDField.setText( selected.getEmpID() );
+                onLoadClicked( null );
+            }
+        } );
+
+        browseList.refresh();
+    }
+
+    /**
+     * Connect the search box to the search index, which is loaded in the background.  Matches are offered in a drop
+     * down as the user types, choosing one (or pressing Enter for the first) loads that employee.
+     */
+    private void installSearch() {
+        searchField.setDisable( true );
+        searchField.setPromptText( "Loading..." );
+        AsyncFactory.submit( Factory::getSearchIndex ).whenComplete( ( index, error ) -> Platform.runLater( () -> {
+            searchIndex = index;
+            searchField.setDisable( index == null );
+            searchField.setPromptText( index == null ? "Unavailable" : "Search" );
+        } ) );
+
+        searchField.textProperty().addListener( ( observable, oldText, newText ) -> showSearchResults( newText ) );
+        searchField.setOnAction( event -> {
+            if( !searchResults.getItems().isEmpty() ) {
+                searchResults.getItems().get( 0 ).fire();
+            }
+        } );
+    }
+
+    /**
+     * Replace the drop down of search results.
+     * @param query Text of the search box.
+     */
+    private void showSearchResults( String query ) {
+        searchResults.getItems().clear();
+        if( searchIndex != null ) {
+            for( SearchHit hit : searchIndex.search( query, SEARCH_RESULTS ) ) {
+                MenuItem item = new MenuItem( hit.getLabel() );
+                item.setMnemonicParsing( false );
+                item.setOnAction( event -> onSearchHitChosen( hit.getEmpID() ) );
+                searchResults.getItems().add( item );
+            }
+        }
+
+        if( searchResults.getItems().isEmpty() ) {
+            searchResults.hide();
+        }
+        else if( !searchResults.isShowing() ) {
+            searchResults.show( searchField, Side.BOTTOM, 0, 0 );
+        }
+    }
+
+    /**
+     * Load the employee chosen from the search results, like a double click in the browse table.
+     * @param empID EMPID of the chosen employee.
+     */
+    private void onSearchHitChosen( String empID ) {
+        searchResults.hide();
+        searchField.clear();
+        onClearClicked( null );
+        empIDField.setText( empID );
+        onLoadClicked( null );
+    }
+
+    /**
+     * Show one Employee property in a browse column.  Rows whose page hasn't arrived yet are null and show blank.
+     * @param column   Column to fill.
+     * @param property Getter of the displayed property.
+     */
+    private static void bindColumn( TableColumn<Employee, String> column, Function<Employee, String> property ) {
+        column.setCellValueFactory( cell -> new ReadOnlyStringWrapper(
+                cell.getValue() == null ? "" : property.apply( cell.getValue() ) ) );
+    }
+
     /** Install some simple length/input restrictions to the text fields. */
     private void installValidators() {
         empIDField.setOnKeyTyped( event -> {
@@ -0,0 +1,33 @@
+package db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * AsyncFactory's executor runs as many calls at once as the configured pool has connections.
+ */
+class AsyncFactoryTest {
+    @AfterEach
+    void restoreDefault() {
+        AsyncFactory.onConfigChanged( Factory.getConfig() );
+    }
+
+    @Test
+    void executorFollowsPoolSize() {
+        AsyncFactory.onConfigChanged( config( 3 ) );
+        assertEquals( 3, AsyncFactory.getMaxThreads() );
+
+        AsyncFactory.onConfigChanged( config( 12 ) );
+        assertEquals( 12, AsyncFactory.getMaxThreads() );
+
+        AsyncFactory.onConfigChanged( config( 2 ) );
+        assertEquals( 2, AsyncFactory.getMaxThreads() );
+        assertEquals( "done", AsyncFactory.submit( () -> "done" ).join() );
+    }
+
+    private static DbConfig config( int poolSize ) {
+        return new DbConfig( TestDatabase.url( "async" ), "sa", "", poolSize, 1_000, 0, 0, null );
+    }
+}
@@ -0,0 +1,123 @@
+package db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ChangeFeed over an EMPS_CHANGES table filled by hand, H2 has no PL/SQL triggers to fill it.
+ */
+class ChangeFeedTest {
+    private static final long TIMEOUT_MILLIS = 5_000;
+    private static int databaseCount;
+
+    private final List<ChangeEvent> received = new CopyOnWriteArrayList<>();
+    private String database;
+    private ChangeFeed feed;
+    private long nextSeq = 1;
+
+    @BeforeEach
+    void startDatabase() throws SQLException {
+        // A database per test, so a poll still finishing from the last test can't touch this one
+        database = "feed" + (++databaseCount);
+        Factory.setConnectionPool( TestDatabase.create( database, 1, 4 ) );
+        try( Connection conn = TestDatabase.connect( database ); Statement statement = conn.createStatement() ) {
+            statement.execute( "CREATE TABLE EMPS_CHANGES (seq NUMBER(19) PRIMARY KEY, empid VARCHAR2(3) NOT NULL, " +
+                                       "revnum NUMBER(8), op CHAR(1) NOT NULL)" );
+        }
+
+        feed = new ChangeFeed( 500, 1, 5 );
+        feed.subscribe( received::addAll );
+    }
+
+    @AfterEach
+    void stopDatabase() {
+        feed.stop();
+        Factory.setConnectionPool( null );
+    }
+
+    @Test
+    void deliversNewChanges() throws Exception {
+        feed.start();
+        awaitPositioned();
+
+        logChanges( 3 );
+        awaitEvents( 3 );
+
+        assertSequence( 3 );
+    }
+
+    @Test
+    void restartsDoNotDuplicatePolling() throws Exception {
+        feed.start();
+        awaitPositioned();
+
+        for( int i = 0; i < 50; i++ ) {
+            feed.stop();
+            feed.start();
+            logChanges( 1 );
+        }
+        awaitEvents( 50 );
+
+        // One chain of polls left, which keeps delivering each change once
+        logChanges( 10 );
+        awaitEvents( 60 );
+        Thread.sleep( 50 );
+        assertSequence( 60 );
+        assertTrue( feed.isRunning() );
+    }
+
+    private void logChanges( int count ) throws SQLException {
+        try( Connection conn = TestDatabase.connect( database );
+             PreparedStatement insert = conn.prepareStatement( "INSERT INTO EMPS_CHANGES VALUES (?, ?, ?, 'U')" ) ) {
+            for( int i = 0; i < count; i++ ) {
+                insert.setLong( 1, nextSeq );
+                insert.setString( 2, TestDatabase.empID( 0 ) );
+                insert.setInt( 3, ( int ) nextSeq + 1 );
+                insert.executeUpdate();
+                nextSeq++;
+            }
+        }
+    }
+
+    /** Every change seq 1 to count, each exactly once. */
+    private void assertSequence( int count ) {
+        List<Long> seqs = new ArrayList<>();
+        for( ChangeEvent event : received ) {
+            seqs.add( event.getSeq() );
+        }
+        List<Long> expected = new ArrayList<>();
+        for( long seq = 1; seq <= count; seq++ ) {
+            expected.add( seq );
+        }
+        assertEquals( expected, seqs );
+    }
+
+    /** Wait for the feed to find the end of the log, changes logged before that aren't delivered. */
+    private void awaitPositioned() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while( feed.getHighWaterMark() < 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 1 );
+        }
+        assertEquals( 0, feed.getHighWaterMark(), "feed never found the end of the log" );
+    }
+
+    private void awaitEvents( int count ) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while( received.size() < count && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 1 );
+        }
+        assertTrue( received.size() >= count, "only " + received.size() + " of " + count + " events arrived, " + feed );
+    }
+}
@@ -0,0 +1,160 @@
+package db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ConnectionPool against in-memory H2 databases, one per test.
+ */
+class ConnectionPoolTest {
+    private static int databaseCount;
+
+    private ConnectionPool pool;
+
+    @AfterEach
+    void closePool() {
+        if( pool != null ) {
+            pool.close();
+        }
+    }
+
+    @Test
+    void borrowTimesOutWhenFull() throws SQLException {
+        pool = newPool( 2, 100, 0, 0 );
+        PooledConnection first = pool.borrow();
+        PooledConnection second = pool.borrow();
+        assertEquals( 2, pool.getActiveCount() );
+
+        long start = System.nanoTime();
+        assertThrows( SQLException.class, pool::borrow );
+        assertTrue( System.nanoTime() - start >= 90_000_000L, "borrow should wait for the timeout" );
+        assertEquals( 1, pool.getTimeoutCount() );
+
+        first.close();
+        PooledConnection third = pool.borrow();
+        assertSame( first, third, "the returned connection should be reused" );
+        assertEquals( 2, pool.getCreatedCount() );
+
+        second.close();
+        third.close();
+        assertEquals( 0, pool.getActiveCount() );
+        assertEquals( 2, pool.getIdleCount() );
+    }
+
+    @Test
+    void releaseRollsBackOpenTransaction() throws SQLException {
+        pool = newPool( 1, 1_000, 0, 0 );
+        try( PooledConnection conn = pool.borrow(); Statement statement = conn.getConnection().createStatement() ) {
+            statement.execute( "CREATE TABLE T (ID INT)" );
+            conn.getConnection().setAutoCommit( false );
+            statement.execute( "INSERT INTO T VALUES (1)" );
+        }
+
+        try( PooledConnection conn = pool.borrow(); Statement statement = conn.getConnection().createStatement();
+             ResultSet rset = statement.executeQuery( "SELECT COUNT(*) FROM T" ) ) {
+            assertTrue( conn.getConnection().getAutoCommit() );
+            rset.next();
+            assertEquals( 0, rset.getInt( 1 ) );
+        }
+    }
+
+    @Test
+    void idleConnectionsAreEvicted() throws Exception {
+        pool = newPool( 2, 1_000, 1, 0 );
+        PooledConnection conn = pool.borrow();
+        Connection physical = conn.getConnection();
+        conn.close();
+        assertEquals( 1, pool.getIdleCount() );
+
+        Thread.sleep( 20 );
+        pool.housekeep();
+
+        assertEquals( 0, pool.getIdleCount() );
+        assertEquals( 1, pool.getEvictedCount() );
+        assertTrue( physical.isClosed() );
+    }
+
+    @Test
+    void deadIdleConnectionIsReplacedOnBorrow() throws Exception {
+        pool = newPool( 2, 1_000, 0, 0 );
+        PooledConnection dead = pool.borrow();
+        dead.close();
+        dead.getConnection().close();
+
+        // Connections returned moments ago skip validation, wait that out
+        Thread.sleep( 600 );
+        PooledConnection conn = pool.borrow();
+
+        assertNotSame( dead, conn );
+        assertFalse( conn.getConnection().isClosed() );
+        assertEquals( 1, pool.getValidationFailureCount() );
+        assertEquals( 2, pool.getCreatedCount() );
+        conn.close();
+    }
+
+    @Test
+    void leakDetectionIsOffByDefault() throws SQLException {
+        pool = new ConnectionPool( nextUrl(), "sa", "", 1 );
+        try( PooledConnection conn = pool.borrow() ) {
+            assertNull( conn.getBorrowTrace() );
+            pool.housekeep();
+            assertEquals( 0, pool.getLeakCount() );
+        }
+    }
+
+    @Test
+    void heldConnectionIsReportedOnce() throws Exception {
+        pool = newPool( 1, 1_000, 0, 1 );
+        try( PooledConnection conn = pool.borrow() ) {
+            assertNotNull( conn.getBorrowTrace() );
+
+            Thread.sleep( 20 );
+            pool.housekeep();
+            pool.housekeep();
+
+            assertTrue( conn.isLeakReported() );
+            assertEquals( 1, pool.getLeakCount() );
+        }
+    }
+
+    @Test
+    void releaseAfterCloseClosesConnection() throws SQLException {
+        pool = newPool( 2, 1_000, 0, 0 );
+        PooledConnection idle = pool.borrow();
+        PooledConnection held = pool.borrow();
+        idle.close();
+
+        pool.close();
+        assertTrue( idle.getConnection().isClosed() );
+        assertThrows( SQLException.class, pool::borrow );
+
+        held.close();
+        assertTrue( held.getConnection().isClosed() );
+        assertEquals( 0, pool.getIdleCount() );
+        assertEquals( 0, pool.getActiveCount() );
+    }
+
+    private static ConnectionPool newPool( int maxSize, long borrowTimeoutMillis, long idleTimeoutMillis,
+                                           long leakThresholdMillis ) {
+        return new ConnectionPool( nextUrl(), "sa", "", maxSize, borrowTimeoutMillis, idleTimeoutMillis,
+                                   leakThresholdMillis );
+    }
+
+    private static synchronized String nextUrl() {
+        return "jdbc:h2:mem:pool" + (++databaseCount) + ";DB_CLOSE_DELAY=-1";
+    }
+}
@@ -0,0 +1,61 @@
+package db;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * EmployeeCacheSnapshot files: what is written reads back, and only the owner may read it.
+ */
+class EmployeeCacheSnapshotTest {
+    private static final String SOURCE = "jdbc:h2:mem:snapshot";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void snapshotReadsBackAndCanBeReplaced() throws Exception {
+        Path file = dir.resolve( "cache.snapshot" );
+        EmployeeCacheSnapshot.write( file, SOURCE, employees( 1 ) );
+        List<Employee> restored = EmployeeCacheSnapshot.read( file, SOURCE );
+
+        // Replacing the file right after reading it must work, the read leaves nothing mapped
+        EmployeeCacheSnapshot.write( file, SOURCE, employees( 2 ) );
+        List<Employee> replaced = EmployeeCacheSnapshot.read( file, SOURCE );
+
+        assertEquals( 2, restored.size() );
+        assertEquals( "O'Neil", restored.get( 0 ).getlName() );
+        assertEquals( 1, restored.get( 1 ).getRevnum() );
+        assertEquals( 2, replaced.get( 1 ).getRevnum() );
+        assertNull( EmployeeCacheSnapshot.read( file, "jdbc:h2:mem:other" ) );
+        assertFalse( Files.exists( file.resolveSibling( "cache.snapshot.tmp" ) ) );
+    }
+
+    @Test
+    void snapshotIsOwnerOnly() throws Exception {
+        assumeTrue( dir.getFileSystem().supportedFileAttributeViews().contains( "posix" ) );
+        Path file = dir.resolve( "cache.snapshot" );
+
+        // A snapshot from before, written with the default permissions, is replaced by an owner-only one
+        Files.write( file, new byte[]{ 1 } );
+        Files.setPosixFilePermissions( file, PosixFilePermissions.fromString( "rw-r--r--" ) );
+        EmployeeCacheSnapshot.write( file, SOURCE, employees( 1 ) );
+
+        assertEquals( "rw-------", PosixFilePermissions.toString( Files.getPosixFilePermissions( file ) ) );
+    }
+
+    private static List<Employee> employees( int revnum ) throws LengthException {
+        return Arrays.asList( new Employee( "E00", "O'Neil", "Ann", 50_000, "12 Main St", "Radford", "VA", "24141", revnum ),
+                              new Employee( "E01", "Smith", "Bob", 40_000, "1 Elm St", "Blacksburg", "VA", "24060", revnum ) );
+    }
+}
@@ -0,0 +1,144 @@
+package db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * EmployeeImporter on H2, which has no INSERT ALL, so rows go in as batched single-row INSERTs.
+ */
+class EmployeeImporterTest {
+    private static final String DATABASE = "import";
+
+    @TempDir
+    Path dir;
+
+    private Connection conn;
+
+    @BeforeEach
+    void startDatabase() throws SQLException {
+        Factory.setConnectionPool( TestDatabase.create( DATABASE, 0, 2 ) );
+        conn = TestDatabase.connect( DATABASE );
+    }
+
+    @AfterEach
+    void stopDatabase() throws SQLException {
+        conn.close();
+        Factory.setConnectionPool( null );
+    }
+
+    @Test
+    void importsQuotedFieldsAfterHeader() throws Exception {
+        Path csv = write( "import.csv",
+                          "EMPID,LNAME,FNAME,SALARY,STREET,CITY,STATE,ZIP",
+                          "001,\"O\"\"Neil\",Ann,50000,\"12 Main St, Apt 4\",Radford,VA,24141",
+                          "002,Smith,Bob,40000,1 Elm St,Blacksburg,VA,24060,7" );
+
+        TransferStats stats = Factory.importEmployees( csv, dir.resolve( "rejects.txt" ) );
+
+        assertNotNull( stats );
+        assertEquals( 2, stats.getRows() );
+        assertEquals( 0, stats.getRejectedRows() );
+        assertEquals( "O\"Neil|12 Main St, Apt 4|0", select( "lname || '|' || street || '|' || revnum", "001" ) );
+        assertEquals( "Smith|1 Elm St|7", select( "lname || '|' || street || '|' || revnum", "002" ) );
+    }
+
+    @Test
+    void tooLongFieldGoesToRejects() throws Exception {
+        String tooLong = "L".repeat( Employee.LNAME_LENGTH + 1 );
+        Path csv = write( "import.csv",
+                          row( 1 ),
+                          "002," + tooLong + ",Bob,40000,1 Elm St,Blacksburg,VA,24060",
+                          row( 3 ) );
+        Path rejects = dir.resolve( "rejects.txt" );
+
+        TransferStats stats = new EmployeeImporter( 1, 1024, 50 ).importFile( conn, csv, rejects );
+
+        assertEquals( 2, stats.getRows() );
+        assertEquals( 1, stats.getRejectedRows() );
+        List<String> rejected = Files.readAllLines( rejects, StandardCharsets.UTF_8 );
+        assertEquals( 1, rejected.size() );
+        assertTrue( rejected.get( 0 ).startsWith( "2\tInvalid" ), rejected.get( 0 ) );
+        assertTrue( rejected.get( 0 ).endsWith( tooLong + ",Bob,40000,1 Elm St,Blacksburg,VA,24060" ) );
+        assertEquals( 2, countRows() );
+    }
+
+    @Test
+    void rowsSpanChunksAndCommits() throws Exception {
+        // 130 rows of about 50 bytes are several 1 KB chunks and two commits of 50 rows plus the rest
+        Path csv = write( "import.csv", rows( 130 ) );
+        Path rejects = dir.resolve( "rejects.txt" );
+
+        TransferStats stats = new EmployeeImporter( 2, 1024, 50 ).importFile( conn, csv, rejects );
+
+        assertEquals( 130, stats.getRows() );
+        assertEquals( 0, stats.getRejectedRows() );
+        assertEquals( 130, countRows() );
+        assertTrue( conn.getAutoCommit() );
+    }
+
+    @Test
+    void failureKeepsOnlyCommittedRows() throws Exception {
+        List<String> lines = rows( 130 );
+        lines.set( 119, row( 1 ) ); // Duplicate EMPID, valid until the INSERT
+        Path csv = write( "import.csv", lines );
+
+        assertThrows( SQLException.class,
+                      () -> new EmployeeImporter( 2, 1024, 50 ).importFile( conn, csv, dir.resolve( "rejects.txt" ) ) );
+
+        assertEquals( 100, countRows() );
+        assertTrue( conn.getAutoCommit() );
+    }
+
+    private static String row( int i ) {
+        return String.format( "%03d,Last%d,First%d,%d,%d Main Street,Radford,VA,24141", i, i, i, 40_000 + i, i );
+    }
+
+    private static List<String> rows( int count ) {
+        List<String> lines = new ArrayList<>( count );
+        for( int i = 1; i <= count; i++ ) {
+            lines.add( row( i ) );
+        }
+        return lines;
+    }
+
+    private Path write( String name, String... lines ) throws IOException {
+        return write( name, List.of( lines ) );
+    }
+
+    private Path write( String name, List<String> lines ) throws IOException {
+        return Files.write( dir.resolve( name ), lines, StandardCharsets.UTF_8 );
+    }
+
+    private String select( String expression, String empID ) throws SQLException {
+        try( Statement statement = conn.createStatement();
+             ResultSet rset = statement.executeQuery( "SELECT " + expression + " FROM EMPS WHERE empid = '" + empID + "'" ) ) {
+            return rset.next() ? rset.getString( 1 ) : null;
+        }
+    }
+
+    private int countRows() throws SQLException {
+        try( Statement statement = conn.createStatement();
+             ResultSet rset = statement.executeQuery( "SELECT COUNT(*) FROM EMPS" ) ) {
+            rset.next();
+            return rset.getInt( 1 );
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.IntSummaryStatistics;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * EmployeeTable aggregations over rows added by hand.
+ */
+class EmployeeTableTest {
+    @Test
+    void rowsWithoutStateAreGroupedUnderNoState() {
+        EmployeeTable table = new EmployeeTable();
+        table.add( "E00", "Last0", "First0", 40_000, "1 Main St", "Radford", "VA", "24141", 1 );
+        table.add( "E01", "Last1", "First1", 50_000, "2 Main St", "Austin", "TX", "73301", 1 );
+        table.add( "E02", "Last2", "First2", 60_000, "3 Main St", null, null, null, 1 );
+        table.add( "E03", "Last3", "First3", 70_000, "4 Main St", "", "", "", 1 );
+
+        Map<String, IntSummaryStatistics> stats = table.salaryStatsByState();
+
+        assertEquals( Arrays.asList( EmployeeTable.NO_STATE, "TX", "VA" ), Arrays.asList( stats.keySet().toArray() ) );
+        assertEquals( 2, stats.get( EmployeeTable.NO_STATE ).getCount() );
+        assertEquals( 130_000, stats.get( EmployeeTable.NO_STATE ).getSum() );
+        assertEquals( 40_000, stats.get( "VA" ).getSum() );
+    }
+}
@@ -0,0 +1,94 @@
+package db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ReplicaRouter over a "replica" that is a separate H2 database lagging the primary: E00 was updated to REVNUM 2 and
+ * E01 deleted on the primary only.
+ */
+class ReplicaRouterTest {
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+    private static final int ROWS = 3;
+
+    private ConnectionPool replicaPool;
+    private ReplicaRouter router;
+
+    @BeforeEach
+    void startDatabases() throws SQLException {
+        Factory.setConnectionPool( TestDatabase.create( PRIMARY, ROWS, 4 ) );
+        try( Connection conn = TestDatabase.connect( PRIMARY ); Statement statement = conn.createStatement() ) {
+            statement.execute( "UPDATE EMPS SET revnum = 2, lname = 'Changed' WHERE empid = 'E00'" );
+            statement.execute( "DELETE FROM EMPS WHERE empid = 'E01'" );
+        }
+
+        replicaPool = TestDatabase.create( REPLICA, ROWS, 1 );
+        router = new ReplicaRouter( Collections.singletonList( replicaPool ), 3, 2, 60_000, 60_000 );
+        Factory.setReplicaRouter( router );
+        Factory.getEmployeeCache().clear();
+    }
+
+    @AfterEach
+    void stopDatabases() {
+        Factory.setReplicaRouter( null );
+        Factory.setConnectionPool( null );
+    }
+
+    @Test
+    void busyReplicaFallsBackToPrimaryWithoutWaiting() throws SQLException {
+        try( PooledConnection held = replicaPool.borrow() ) {
+            long start = System.nanoTime();
+            assertNull( router.borrow() );
+            assertTrue( System.nanoTime() - start < 500_000_000L, "borrow should not wait for the replica" );
+
+            assertEquals( 1, router.getSaturatedCount() );
+            assertEquals( 1, router.getPrimaryFallbackCount() );
+            assertEquals( 1, router.getHealthyCount(), "a busy replica is not a failing one" );
+
+            // Reads carry on against the primary
+            assertEquals( 2, Factory.getEmployee( TestDatabase.empID( 0 ) ).getRevnum() );
+        }
+    }
+
+    @Test
+    void readsUseReplicaUntilAChangeIsReported() {
+        assertEquals( 1, Factory.getEmployee( TestDatabase.empID( 0 ) ).getRevnum() );
+        assertEquals( ROWS, Factory.countEmployees() );
+    }
+
+    @Test
+    void readsDrivenByAChangeSeeAtLeastItsRevision() {
+        Factory.getEmployee( TestDatabase.empID( 0 ) ); // Cache the replica's old revision
+        router.recordChanges( Arrays.asList( new ChangeEvent( 1, TestDatabase.empID( 0 ), 2, ChangeEvent.Type.UPDATE ),
+                                             new ChangeEvent( 2, TestDatabase.empID( 1 ), -1, ChangeEvent.Type.DELETE ) ) );
+
+        Employee updated = Factory.getEmployee( TestDatabase.empID( 0 ) );
+        assertEquals( 2, updated.getRevnum() );
+        assertEquals( "Changed", updated.getlName() );
+        assertNull( Factory.getEmployee( TestDatabase.empID( 1 ) ) );
+
+        EmployeeLookup lookup = Factory.getEmployees( Arrays.asList( TestDatabase.empID( 0 ), TestDatabase.empID( 1 ) ) );
+        assertEquals( 2, lookup.getFound().get( TestDatabase.empID( 0 ) ).getRevnum() );
+        assertFalse( lookup.getFound().containsKey( TestDatabase.empID( 1 ) ) );
+
+        // The delete changed the row set, counts and pages come from the primary for a while
+        assertEquals( ROWS - 1, Factory.countEmployees() );
+        List<Employee> page = Factory.getEmployeePage( null, 10 );
+        assertEquals( ROWS - 1, page.size() );
+        assertEquals( 2, page.get( 0 ).getRevnum() );
+    }
+}
@@ -0,0 +1,152 @@
+package db;
+
+import org.h2.api.Trigger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Every save path bumps REVNUM exactly once in its own UPDATE, with no trigger in the schema, so two editors of the
+ * same revision can't both win.  With a leftover trigger bumping it as well, saves still report the REVNUM the row
+ * really has.
+ */
+class RevnumTest {
+    private static final String DATABASE = "revnum";
+
+    @BeforeEach
+    void startDatabase() throws SQLException {
+        Factory.setConnectionPool( TestDatabase.create( DATABASE, 4, 4 ) );
+        Factory.getEmployeeCache().clear();
+    }
+
+    @AfterEach
+    void stopDatabase() {
+        Factory.setConnectionPool( null );
+    }
+
+    @Test
+    void lockingSaveBumpsRevnumOnce() throws Exception {
+        Employee employee = edit( TestDatabase.empID( 0 ) );
+
+        SaveResult result = Factory.saveEmployee( employee );
+
+        assertEquals( SaveResult.Status.SUCCESS, result.getStatus(), result.toString() );
+        assertEquals( 2, result.getRevnum() );
+        assertEquals( 2, revnumInDatabase( employee.getEmpID() ) );
+    }
+
+    @Test
+    void optimisticSaveBumpsRevnumOnce() throws Exception {
+        Employee employee = edit( TestDatabase.empID( 1 ) );
+
+        SaveResult result = Factory.saveEmployeeOptimistic( employee );
+
+        assertEquals( SaveResult.Status.SUCCESS, result.getStatus(), result.toString() );
+        assertEquals( 2, result.getRevnum() );
+        assertEquals( 2, revnumInDatabase( employee.getEmpID() ) );
+    }
+
+    @Test
+    void batchSaveBumpsRevnumOnce() throws Exception {
+        Employee first = edit( TestDatabase.empID( 2 ) );
+        Employee second = edit( TestDatabase.empID( 3 ) );
+
+        List<SaveResult> results = Factory.saveEmployees( Arrays.asList( first, second ) );
+
+        for( SaveResult result : results ) {
+            assertEquals( SaveResult.Status.SUCCESS, result.getStatus(), result.toString() );
+            assertEquals( 2, result.getRevnum() );
+            assertEquals( 2, revnumInDatabase( result.getEmpID() ) );
+        }
+    }
+
+    @Test
+    void secondEditorOfSameRevisionConflicts() throws Exception {
+        Employee mine = edit( TestDatabase.empID( 0 ) );
+        Employee theirs = new Employee( mine );
+        theirs.setlName( "Other" );
+
+        assertEquals( SaveResult.Status.SUCCESS, Factory.saveEmployee( mine ).getStatus() );
+
+        SaveResult locking = Factory.saveEmployee( theirs );
+        assertEquals( SaveResult.Status.REVNUM_ERROR, locking.getStatus(), locking.toString() );
+        assertEquals( 2, locking.getRevnum() );
+
+        SaveResult optimistic = Factory.saveEmployeeOptimistic( theirs );
+        assertEquals( SaveResult.Status.REVNUM_ERROR, optimistic.getStatus(), optimistic.toString() );
+        assertEquals( 2, revnumInDatabase( mine.getEmpID() ) );
+    }
+
+    @Test
+    void leftoverTriggerOnlyCostsAnExtraBump() throws Exception {
+        installLegacyTrigger();
+        Employee locking = edit( TestDatabase.empID( 0 ) );
+        Employee optimistic = edit( TestDatabase.empID( 1 ) );
+        Employee first = edit( TestDatabase.empID( 2 ) );
+        Employee second = edit( TestDatabase.empID( 3 ) );
+
+        List<SaveResult> results = new ArrayList<>();
+        results.add( Factory.saveEmployee( locking ) );
+        results.add( Factory.saveEmployeeOptimistic( optimistic ) );
+        results.addAll( Factory.saveEmployees( Arrays.asList( first, second ) ) );
+
+        for( SaveResult result : results ) {
+            assertEquals( SaveResult.Status.SUCCESS, result.getStatus(), result.toString() );
+            assertEquals( 3, result.getRevnum(), result.toString() );
+            assertEquals( 3, revnumInDatabase( result.getEmpID() ) );
+        }
+
+        // Carrying the reported REVNUM on, as the GUI does, the next save isn't a spurious conflict
+        locking.setRevnum( results.get( 0 ).getRevnum() );
+        locking.setSalary( locking.getSalary() + 1 );
+        SaveResult again = Factory.saveEmployee( locking );
+        assertEquals( SaveResult.Status.SUCCESS, again.getStatus(), again.toString() );
+        assertEquals( 5, again.getRevnum() );
+    }
+
+    /** Stands in for the REVNUM trigger of old schemas, which bumps REVNUM on top of the application's UPDATE. */
+    public static class LegacyRevnumTrigger implements Trigger {
+        private static final int REVNUM_COLUMN = 8;
+
+        @Override
+        public void fire( Connection conn, Object[] oldRow, Object[] newRow ) {
+            newRow[REVNUM_COLUMN] = ( ( Number ) newRow[REVNUM_COLUMN] ).intValue() + 1;
+        }
+    }
+
+    private static void installLegacyTrigger() throws SQLException {
+        try( Connection conn = TestDatabase.connect( DATABASE ); Statement statement = conn.createStatement() ) {
+            statement.execute( "CREATE TRIGGER EMPS_REVNUM_TRG BEFORE UPDATE ON EMPS FOR EACH ROW CALL \"" +
+                                       LegacyRevnumTrigger.class.getName() + "\"" );
+        }
+    }
+
+    /** Load a row and change its salary so saving it writes something. */
+    private static Employee edit( String empID ) throws LengthException {
+        Employee employee = Factory.getEmployee( empID );
+        employee.setSalary( employee.getSalary() + 1 );
+        return employee;
+    }
+
+    private static int revnumInDatabase( String empID ) throws SQLException {
+        try( Connection conn = TestDatabase.connect( DATABASE );
+             PreparedStatement statement = conn.prepareStatement( "SELECT revnum FROM EMPS WHERE empid = ?" ) ) {
+            statement.setString( 1, empID );
+            try( ResultSet rset = statement.executeQuery() ) {
+                rset.next();
+                return rset.getInt( 1 );
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Saves of a row another session holds locked, on H2 as in the benchmarks: the lock timeout must be recognized as a
+ * lock failure so the save backs off and retries instead of reporting an error.
+ */
+class SaveRetryTest {
+    private static final String DATABASE = "retry";
+    private static final RetryPolicy QUICK = new RetryPolicy( 3, 1, 2, 0 );
+
+    private Connection holder;
+
+    @BeforeEach
+    void startDatabase() throws SQLException {
+        Factory.setConnectionPool( TestDatabase.create( DATABASE, 5, 4 ) );
+        Factory.getEmployeeCache().clear();
+        holder = TestDatabase.connect( DATABASE );
+        holder.setAutoCommit( false );
+    }
+
+    @AfterEach
+    void stopDatabase() throws SQLException {
+        holder.rollback();
+        holder.close();
+        Factory.setConnectionPool( null );
+    }
+
+    @Test
+    void lockTimeoutIsALockFailure() throws SQLException {
+        lock( TestDatabase.empID( 0 ) );
+
+        try( Connection other = TestDatabase.connect( DATABASE ) ) {
+            other.setAutoCommit( false );
+            SQLException e = assertThrows( SQLException.class, () -> lockFrom( other, TestDatabase.empID( 0 ) ) );
+            assertTrue( FactoryMetrics.isLockFailure( e ), e.toString() );
+
+            SQLException syntax = assertThrows( SQLException.class,
+                                                () -> other.createStatement().execute( "SELEC 1" ) );
+            assertFalse( FactoryMetrics.isLockFailure( syntax ) );
+        }
+    }
+
+    @Test
+    void lockedRowIsRetriedThenGivenUp() throws Exception {
+        Employee employee = edit( TestDatabase.empID( 1 ) );
+        lock( employee.getEmpID() );
+
+        FactoryMetrics metrics = Factory.getMetrics();
+        long retries = metrics.getSaveRetries();
+        long givenUp = metrics.getSavesGivenUp();
+        long lockFailures = metrics.getLockFailures();
+
+        SaveResult result = Factory.saveEmployee( employee, QUICK );
+
+        assertEquals( SaveResult.Status.LOCKED, result.getStatus(), result.toString() );
+        assertEquals( 2, metrics.getSaveRetries() - retries );
+        assertEquals( 1, metrics.getSavesGivenUp() - givenUp );
+        assertEquals( 3, metrics.getLockFailures() - lockFailures );
+    }
+
+    @Test
+    void lockedRowIsSavedOnceReleased() throws Exception {
+        Employee employee = edit( TestDatabase.empID( 2 ) );
+        lock( employee.getEmpID() );
+        long retries = Factory.getMetrics().getSaveRetries();
+
+        CompletableFuture<SaveResult> save = CompletableFuture.supplyAsync(
+                () -> Factory.saveEmployee( employee, new RetryPolicy( 100, 5, 20, 0 ) ) );
+        Thread.sleep( 100 );
+        holder.rollback();
+
+        SaveResult result = save.get( 10, TimeUnit.SECONDS );
+        assertEquals( SaveResult.Status.SUCCESS, result.getStatus(), result.toString() );
+        assertTrue( Factory.getMetrics().getSaveRetries() > retries );
+    }
+
+    @Test
+    void lockedRowFailsTheWholeBatchAsLocked() throws Exception {
+        Employee free = edit( TestDatabase.empID( 3 ) );
+        Employee locked = edit( TestDatabase.empID( 4 ) );
+        lock( locked.getEmpID() );
+
+        List<SaveResult> results = Factory.saveEmployees( Arrays.asList( free, locked ), QUICK );
+
+        for( SaveResult result : results ) {
+            assertEquals( SaveResult.Status.LOCKED, result.getStatus(), result.toString() );
+        }
+    }
+
+    /** Load a row and change its salary so saving it writes something. */
+    private static Employee edit( String empID ) throws LengthException {
+        Employee employee = Factory.getEmployee( empID );
+        employee.setSalary( employee.getSalary() + 1 );
+        return employee;
+    }
+
+    private void lock( String empID ) throws SQLException {
+        lockFrom( holder, empID );
+    }
+
+    private static void lockFrom( Connection conn, String empID ) throws SQLException {
+        try( PreparedStatement statement = conn.prepareStatement(
+                "SELECT revnum FROM EMPS WHERE empid = ? FOR UPDATE NOWAIT" ) ) {
+            statement.setString( 1, empID );
+            try( ResultSet rset = statement.executeQuery() ) {
+                rset.next();
+            }
+        }
+    }
+}
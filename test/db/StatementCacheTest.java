@@ -0,0 +1,64 @@
+package db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * StatementCache hands back cached statements as clean as freshly prepared ones.
+ */
+class StatementCacheTest {
+    private static final String INSERT_SQL = "INSERT INTO T VALUES (?)";
+
+    private Connection conn;
+    private StatementCache cache;
+
+    @BeforeEach
+    void openConnection() throws SQLException {
+        conn = TestDatabase.connect( "statements" );
+        try( Statement statement = conn.createStatement() ) {
+            statement.execute( "DROP TABLE IF EXISTS T" );
+            statement.execute( "CREATE TABLE T (ID INT PRIMARY KEY)" );
+        }
+        cache = new StatementCache( conn, 4 );
+    }
+
+    @AfterEach
+    void closeConnection() throws SQLException {
+        cache.clear();
+        conn.close();
+    }
+
+    @Test
+    void rowsLeftInAnAbandonedBatchAreNotSent() throws SQLException {
+        PreparedStatement abandoned = cache.prepare( INSERT_SQL );
+        abandoned.setInt( 1, 1 );
+        abandoned.addBatch();
+        abandoned.setInt( 1, 2 );
+        abandoned.addBatch();
+        // The attempt failed before executeBatch(), the next user of the connection starts over
+
+        PreparedStatement statement = cache.prepare( INSERT_SQL );
+        assertSame( abandoned, statement );
+        statement.setInt( 1, 3 );
+        statement.addBatch();
+        statement.executeBatch();
+
+        try( Statement query = conn.createStatement(); ResultSet rset = query.executeQuery( "SELECT ID FROM T" ) ) {
+            rset.next();
+            assertEquals( 3, rset.getInt( 1 ) );
+            assertFalse( rset.next() );
+        }
+        assertEquals( 1, cache.getHits() );
+    }
+}
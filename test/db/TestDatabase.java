@@ -0,0 +1,70 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * TestDatabase creates in-memory H2 databases in Oracle mode holding a small EMPS table, for tests that run the
+ * Factory end to end.
+ */
+final class TestDatabase {
+    private TestDatabase() {
+    }
+
+    /**
+     * @param name Name of the database, databases with different names are independent.
+     * @return JDBC url of the in-memory database.
+     */
+    static String url( String name ) {
+        return "jdbc:h2:mem:" + name + ";MODE=Oracle;DB_CLOSE_DELAY=-1";
+    }
+
+    /** @return A new connection to the database, for a second session in a test. */
+    static Connection connect( String name ) throws SQLException {
+        return DriverManager.getConnection( url( name ), "sa", "" );
+    }
+
+    /**
+     * Create, or recreate, EMPS with rows whose EMPIDs are empID(0) to empID(rows - 1), all at REVNUM 1.
+     * @param name     Name of the database.
+     * @param rows     Number of rows.
+     * @param poolSize Size of the returned pool.
+     * @return A pool connected to the database.
+     */
+    static ConnectionPool create( String name, int rows, int poolSize ) throws SQLException {
+        try( Connection conn = connect( name ); Statement statement = conn.createStatement() ) {
+            statement.execute( "DROP TABLE IF EXISTS EMPS" );
+            statement.execute( "CREATE TABLE EMPS (EMPID VARCHAR2(3) PRIMARY KEY, LNAME VARCHAR2(20), " +
+                                       "FNAME VARCHAR2(20), SALARY NUMBER(8), STREET VARCHAR2(30), CITY VARCHAR2(18), " +
+                                       "STATE VARCHAR2(2), ZIP VARCHAR2(5), REVNUM NUMBER(8))" );
+
+            try( PreparedStatement insert = conn.prepareStatement( "INSERT INTO EMPS VALUES (?, ?, ?, ?, ?, ?, ?, ?, 1)" ) ) {
+                for( int i = 0; i < rows; i++ ) {
+                    insert.setString( 1, empID( i ) );
+                    insert.setString( 2, "Last" + i );
+                    insert.setString( 3, "First" + i );
+                    insert.setInt( 4, 40_000 + i );
+                    insert.setString( 5, (100 + i) + " Main Street" );
+                    insert.setString( 6, "Radford" );
+                    insert.setString( 7, "VA" );
+                    insert.setString( 8, "24141" );
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+
+        return new ConnectionPool( url( name ), "sa", "", poolSize, 2_000, 0, 0 );
+    }
+
+    /**
+     * @param index Row number.
+     * @return The EMPID of that row.
+     */
+    static String empID( int index ) {
+        return String.format( "E%02d", index );
+    }
+}